@@ -3,14 +3,18 @@ package dev.user.mailsystem;
 import dev.user.mailsystem.api.MailSystemAPI;
 import dev.user.mailsystem.api.MailSystemAPIImpl;
 import dev.user.mailsystem.cache.PlayerCacheManager;
+import dev.user.mailsystem.cache.PlayerPresenceManager;
 import dev.user.mailsystem.command.MailCommand;
 import dev.user.mailsystem.config.MailConfig;
 import dev.user.mailsystem.database.DatabaseManager;
 import dev.user.mailsystem.database.DatabaseQueue;
 import dev.user.mailsystem.economy.EconomyManager;
+import dev.user.mailsystem.economy.EscrowManager;
 import dev.user.mailsystem.gui.GUIManager;
 import dev.user.mailsystem.listener.MailListener;
+import dev.user.mailsystem.mail.AnnouncementManager;
 import dev.user.mailsystem.mail.AttachmentManager;
+import dev.user.mailsystem.mail.BroadcastManager;
 import dev.user.mailsystem.mail.CrossServerNotifier;
 import dev.user.mailsystem.mail.MailManager;
 import dev.user.mailsystem.template.TemplateManager;
@@ -23,10 +27,14 @@ public class MailSystemPlugin extends JavaPlugin {
     private DatabaseManager databaseManager;
     private DatabaseQueue databaseQueue;
     private PlayerCacheManager playerCacheManager;
+    private PlayerPresenceManager presenceManager;
     private MailManager mailManager;
     private CrossServerNotifier crossServerNotifier;
+    private BroadcastManager broadcastManager;
+    private AnnouncementManager announcementManager;
     private GUIManager guiManager;
     private EconomyManager economyManager;
+    private EscrowManager escrowManager;
     private MailSystemAPI api;
     private AttachmentManager attachmentManager;
     private TemplateManager templateManager;
@@ -53,7 +61,11 @@ public class MailSystemPlugin extends JavaPlugin {
         this.playerCacheManager = new PlayerCacheManager(this);
         this.playerCacheManager.loadAllCache(null);
 
+        this.presenceManager = new PlayerPresenceManager(this);
+        this.presenceManager.start();
+
         this.mailManager = new MailManager(this);
+        this.announcementManager = new AnnouncementManager(this);
         this.attachmentManager = new AttachmentManager(this);
         this.templateManager = new TemplateManager(this);
         this.api = new MailSystemAPIImpl(this);
@@ -61,12 +73,19 @@ public class MailSystemPlugin extends JavaPlugin {
         this.crossServerNotifier = new CrossServerNotifier(this);
         this.crossServerNotifier.start();
 
+        this.broadcastManager = new BroadcastManager(this);
+        this.broadcastManager.start();
+
         this.guiManager = new GUIManager(this);
 
         // 初始化经济系统（软依赖）
         this.economyManager = new EconomyManager(this);
         this.economyManager.init();
 
+        // 扣费托管：核对上次停服时未完成的扣费，并定时批量退款
+        this.escrowManager = new EscrowManager(this);
+        this.escrowManager.start();
+
         // 注册命令
         MailCommand mailCommand = new MailCommand(this);
         getCommand("fmail").setExecutor(mailCommand);
@@ -80,12 +99,29 @@ public class MailSystemPlugin extends JavaPlugin {
 
     @Override
     public void onDisable() {
+        if (broadcastManager != null) {
+            broadcastManager.stop();
+        }
         if (crossServerNotifier != null) {
             crossServerNotifier.stop();
         }
+        if (presenceManager != null) {
+            presenceManager.stop();
+        }
+        if (escrowManager != null) {
+            escrowManager.stop();
+        }
+        if (economyManager != null) {
+            // 等待经济线程上进行中的扣费和退款完成，未结算的托管在下次启动时核对
+            economyManager.shutdown();
+        }
         if (databaseQueue != null) {
             databaseQueue.stop();
         }
+        if (mailManager != null) {
+            // 数据库队列已停止，在当前线程写回内存中的每日发送计数
+            mailManager.getLogManager().flushSync();
+        }
         if (databaseManager != null) {
             databaseManager.close();
         }
@@ -96,12 +132,22 @@ public class MailSystemPlugin extends JavaPlugin {
         reloadConfig();
         mailConfig.load();
 
+        if (broadcastManager != null) {
+            broadcastManager.stop();
+        }
         if (crossServerNotifier != null) {
             crossServerNotifier.stop();
         }
+        if (presenceManager != null) {
+            presenceManager.stop();
+        }
         if (databaseQueue != null) {
             databaseQueue.stop();
         }
+        if (mailManager != null) {
+            // 数据库队列已停止，在当前线程写回内存中的每日发送计数
+            mailManager.getLogManager().flushSync();
+        }
         if (databaseManager != null) {
             databaseManager.close();
         }
@@ -111,11 +157,17 @@ public class MailSystemPlugin extends JavaPlugin {
         databaseQueue = new DatabaseQueue(this);
         databaseQueue.start();
 
+        presenceManager = new PlayerPresenceManager(this);
+        presenceManager.start();
+
         mailManager.reload();
 
         crossServerNotifier = new CrossServerNotifier(this);
         crossServerNotifier.start();
 
+        broadcastManager = new BroadcastManager(this);
+        broadcastManager.start();
+
         // 重新初始化经济系统
         if (economyManager != null) {
             economyManager.init();
@@ -142,6 +194,10 @@ public class MailSystemPlugin extends JavaPlugin {
         return playerCacheManager;
     }
 
+    public PlayerPresenceManager getPresenceManager() {
+        return presenceManager;
+    }
+
     public MailManager getMailManager() {
         return mailManager;
     }
@@ -150,6 +206,14 @@ public class MailSystemPlugin extends JavaPlugin {
         return crossServerNotifier;
     }
 
+    public AnnouncementManager getAnnouncementManager() {
+        return announcementManager;
+    }
+
+    public BroadcastManager getBroadcastManager() {
+        return broadcastManager;
+    }
+
     public GUIManager getGuiManager() {
         return guiManager;
     }
@@ -158,6 +222,10 @@ public class MailSystemPlugin extends JavaPlugin {
         return economyManager;
     }
 
+    public EscrowManager getEscrowManager() {
+        return escrowManager;
+    }
+
     public MailSystemAPI getAPI() {
         return api;
     }
@@ -5,6 +5,7 @@ import dev.user.mailsystem.api.draft.MailDraft;
 import dev.user.mailsystem.api.draft.SendOptions;
 import dev.user.mailsystem.api.draft.SendResult;
 import dev.user.mailsystem.mail.Mail;
+import dev.user.mailsystem.mail.pipeline.SendFilter;
 import org.bukkit.entity.Player;
 import org.bukkit.inventory.ItemStack;
 
@@ -189,6 +190,23 @@ public interface MailSystemAPI {
      */
     void unregisterListener(MailListener listener);
 
+    // ==================== 发送过滤器 ====================
+
+    /**
+     * 注册发送过滤器，按 {@link SendFilter#getOrder()} 插入发送责任链
+     * 只做内存检查的过滤器应让 {@link SendFilter#isAsync()} 返回false，与其他同步过滤器在同一调用栈中连续执行
+     *
+     * @param filter 过滤器（顺序必须小于 {@link SendFilter#ORDER_PERSISTENCE}）
+     */
+    void registerSendFilter(SendFilter filter);
+
+    /**
+     * 注销发送过滤器
+     *
+     * @param filter 过滤器
+     */
+    void unregisterSendFilter(SendFilter filter);
+
     // ==================== 事件触发（内部使用） ====================
 
     /**
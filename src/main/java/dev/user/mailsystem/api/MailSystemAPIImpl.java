@@ -6,6 +6,7 @@ import dev.user.mailsystem.api.draft.MailDraft;
 import dev.user.mailsystem.api.draft.SendOptions;
 import dev.user.mailsystem.api.draft.SendResult;
 import dev.user.mailsystem.mail.Mail;
+import dev.user.mailsystem.mail.pipeline.SendFilter;
 import org.bukkit.Bukkit;
 import org.bukkit.entity.Player;
 import org.bukkit.inventory.ItemStack;
@@ -76,7 +77,7 @@ public class MailSystemAPIImpl implements MailSystemAPI {
     @Override
     public void claimAttachments(UUID mailId, Player player, Consumer<SendResult> callback) {
         // 先获取邮件验证权限
-        plugin.getMailManager().getMail(mailId, mail -> {
+        plugin.getMailManager().getMailForUpdate(mailId, mail -> {
             if (callback == null) {
                 // callback 为 null 时静默处理
                 return;
@@ -100,7 +101,7 @@ public class MailSystemAPIImpl implements MailSystemAPI {
     @Override
     public void deleteMail(UUID mailId, UUID playerUuid) {
         // 获取邮件验证权限
-        plugin.getMailManager().getMail(mailId, mail -> {
+        plugin.getMailManager().getMailForUpdate(mailId, mail -> {
             if (mail == null) return;
 
             boolean isReceiver = mail.getReceiverUuid().equals(playerUuid);
@@ -159,6 +160,16 @@ public class MailSystemAPIImpl implements MailSystemAPI {
         listeners.remove(listener);
     }
 
+    @Override
+    public void registerSendFilter(SendFilter filter) {
+        plugin.getMailManager().getSendPipeline().registerFilter(filter);
+    }
+
+    @Override
+    public void unregisterSendFilter(SendFilter filter) {
+        plugin.getMailManager().getSendPipeline().unregisterFilter(filter);
+    }
+
     // ==================== 内部方法 ====================
 
     private boolean isAdmin(UUID playerUuid) {
@@ -0,0 +1,85 @@
+package dev.user.mailsystem.api.draft;
+
+import org.bukkit.inventory.ItemStack;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * 附件载荷 - 不可变的物品附件列表，序列化结果在首次使用后缓存
+ * 群发时所有草稿共享同一个实例，整批邮件只序列化一次，每行绑定相同的字节
+ */
+public final class AttachmentPayload {
+
+    public static final int MAX_ITEMS = 27; // 最多27个物品（3行）
+
+    private static final AttachmentPayload EMPTY = new AttachmentPayload(List.of());
+
+    private final List<ItemStack> items;
+    private volatile byte[] serialized;
+
+    private AttachmentPayload(List<ItemStack> items) {
+        this.items = items;
+    }
+
+    /**
+     * 从物品列表创建载荷（复制物品，跳过空气，超过上限的部分被截断）
+     */
+    public static AttachmentPayload of(List<ItemStack> items) {
+        if (items == null || items.isEmpty()) {
+            return EMPTY;
+        }
+        List<ItemStack> copy = new ArrayList<>();
+        for (ItemStack item : items) {
+            if (item != null && !item.getType().isAir()) {
+                copy.add(item.clone());
+                if (copy.size() >= MAX_ITEMS) break;
+            }
+        }
+        return copy.isEmpty() ? EMPTY : new AttachmentPayload(Collections.unmodifiableList(copy));
+    }
+
+    /**
+     * 包装构建器中已克隆、已截断的物品列表（不再克隆物品）
+     */
+    static AttachmentPayload ofOwned(List<ItemStack> items) {
+        return items.isEmpty() ? EMPTY : new AttachmentPayload(Collections.unmodifiableList(new ArrayList<>(items)));
+    }
+
+    public static AttachmentPayload empty() {
+        return EMPTY;
+    }
+
+    public List<ItemStack> getItems() {
+        return items;
+    }
+
+    public boolean isEmpty() {
+        return items.isEmpty();
+    }
+
+    /**
+     * 获取序列化后的字节（首次调用时序列化并缓存，之后直接返回同一数组，调用方不得修改）
+     *
+     * @param serializer 序列化器（通常为 AttachmentManager::serialize）
+     * @return 序列化结果，无附件时返回null
+     */
+    public byte[] serialize(Function<List<ItemStack>, byte[]> serializer) {
+        if (items.isEmpty()) {
+            return null;
+        }
+        byte[] result = serialized;
+        if (result == null) {
+            synchronized (this) {
+                result = serialized;
+                if (result == null) {
+                    result = serializer.apply(items);
+                    serialized = result;
+                }
+            }
+        }
+        return result;
+    }
+}
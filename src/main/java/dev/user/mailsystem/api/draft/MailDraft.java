@@ -4,7 +4,6 @@ import org.bukkit.entity.Player;
 import org.bukkit.inventory.ItemStack;
 
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
 import java.util.Objects;
 import java.util.UUID;
@@ -15,15 +14,18 @@ import java.util.UUID;
  */
 public final class MailDraft {
 
+    public static final int MAX_IDEMPOTENCY_KEY_LENGTH = 64;
+
     private final UUID senderUuid;
     private final String senderName;
     private final UUID receiverUuid;
     private final String receiverName;
     private final String title;
     private final String content;
-    private final List<ItemStack> attachments;
+    private final AttachmentPayload attachments;
     private final double moneyAttachment;
     private final long expireTime;
+    private final String idempotencyKey;
 
     private MailDraft(Builder builder) {
         this.senderUuid = builder.senderUuid;
@@ -32,9 +34,12 @@ public final class MailDraft {
         this.receiverName = builder.receiverName;
         this.title = builder.title;
         this.content = builder.content;
-        this.attachments = Collections.unmodifiableList(new ArrayList<>(builder.attachments));
+        this.attachments = builder.sharedAttachments != null
+                ? builder.sharedAttachments
+                : AttachmentPayload.ofOwned(builder.attachments);
         this.moneyAttachment = builder.moneyAttachment;
         this.expireTime = builder.expireTime;
+        this.idempotencyKey = builder.idempotencyKey;
     }
 
     public static Builder builder() {
@@ -68,6 +73,13 @@ public final class MailDraft {
     }
 
     public List<ItemStack> getAttachments() {
+        return attachments.getItems();
+    }
+
+    /**
+     * 获取附件载荷（群发时多个草稿共享同一实例）
+     */
+    public AttachmentPayload getAttachmentPayload() {
         return attachments;
     }
 
@@ -79,6 +91,13 @@ public final class MailDraft {
         return expireTime;
     }
 
+    /**
+     * 获取幂等键（未设置时为null）
+     */
+    public String getIdempotencyKey() {
+        return idempotencyKey;
+    }
+
     public boolean hasAttachments() {
         return !attachments.isEmpty() || moneyAttachment > 0;
     }
@@ -100,8 +119,10 @@ public final class MailDraft {
         private String title = "";
         private String content = "";
         private List<ItemStack> attachments = new ArrayList<>();
+        private AttachmentPayload sharedAttachments;
         private double moneyAttachment = 0;
         private long expireTime = 0;
+        private String idempotencyKey;
 
         private Builder() {}
 
@@ -165,6 +186,7 @@ public final class MailDraft {
          * 设置附件列表（会复制列表）
          */
         public Builder attachments(List<ItemStack> items) {
+            this.sharedAttachments = null;
             this.attachments.clear();
             if (items != null) {
                 for (ItemStack item : items) {
@@ -178,12 +200,26 @@ public final class MailDraft {
          * 添加单个附件
          */
         public Builder addAttachment(ItemStack item) {
+            if (sharedAttachments != null) {
+                // 转为独立附件列表，不修改共享载荷
+                this.attachments = new ArrayList<>(sharedAttachments.getItems());
+                this.sharedAttachments = null;
+            }
             if (item != null && !item.getType().isAir()) {
                 this.attachments.add(item.clone());
             }
             return this;
         }
 
+        /**
+         * 设置共享附件载荷（不复制物品，群发时多个草稿使用同一载荷，附件只序列化一次）
+         */
+        public Builder sharedAttachments(AttachmentPayload payload) {
+            this.attachments.clear();
+            this.sharedAttachments = payload;
+            return this;
+        }
+
         /**
          * 设置金币附件
          */
@@ -212,6 +248,16 @@ public final class MailDraft {
             return this;
         }
 
+        /**
+         * 设置幂等键（可选，最长64个字符）
+         * 同一接收者已收到过相同幂等键的邮件时，再次发送不会生成新邮件也不会扣费，直接返回成功
+         * 适用于任务、奖励等插件在队列超载或超时后安全重试
+         */
+        public Builder idempotencyKey(String key) {
+            this.idempotencyKey = key != null && !key.isEmpty() ? key : null;
+            return this;
+        }
+
         /**
          * 构建MailDraft
          * @throws IllegalStateException 如果必填字段未设置
@@ -236,9 +282,13 @@ public final class MailDraft {
                 this.content = content.substring(0, 5000);
             }
 
+            if (idempotencyKey != null && idempotencyKey.length() > MAX_IDEMPOTENCY_KEY_LENGTH) {
+                throw new IllegalStateException("Idempotency key exceeds " + MAX_IDEMPOTENCY_KEY_LENGTH + " characters");
+            }
+
             // 限制附件数量（防止滥用）
-            if (attachments.size() > 27) { // 最多27个物品（3行）
-                this.attachments = new ArrayList<>(attachments.subList(0, 27));
+            if (attachments.size() > AttachmentPayload.MAX_ITEMS) {
+                this.attachments = new ArrayList<>(attachments.subList(0, AttachmentPayload.MAX_ITEMS));
             }
 
             return new MailDraft(this);
@@ -251,8 +301,9 @@ public final class MailDraft {
                 "sender=" + senderName + "(" + senderUuid + "), " +
                 "receiver=" + receiverName + "(" + receiverUuid + "), " +
                 "title='" + title + "', " +
-                "attachments=" + attachments.size() + ", " +
+                "attachments=" + attachments.getItems().size() + ", " +
                 "money=" + moneyAttachment +
+                (idempotencyKey != null ? ", key=" + idempotencyKey : "") +
                 '}';
     }
 }
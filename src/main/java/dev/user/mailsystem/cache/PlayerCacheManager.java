@@ -15,6 +15,9 @@ import java.util.function.Consumer;
  */
 public class PlayerCacheManager {
 
+    private static final String[] UPSERT_COLUMNS = {"uuid", "player_name", "last_seen"};
+    private static final String[] UPSERT_KEY = {"player_name"};
+
     private final MailSystemPlugin plugin;
     private final DatabaseQueue databaseQueue;
 
@@ -51,7 +54,8 @@ public class PlayerCacheManager {
         // 异步更新数据库
         final long finalLastSeen = lastSeen;
         databaseQueue.submitAsync("updatePlayerCache", conn -> {
-            String sql = getUpsertSql(conn);
+            // 以 player_name 为唯一键，同名则更新 UUID 和最后在线时间
+            String sql = plugin.getDatabaseManager().getDialect().upsert("player_cache", UPSERT_COLUMNS, UPSERT_KEY, 1);
             try (PreparedStatement ps = conn.prepareStatement(sql)) {
                 ps.setString(1, uuid.toString());
                 ps.setString(2, playerName);
@@ -158,21 +162,6 @@ public class PlayerCacheManager {
 
     private record CacheData(Map<String, UUID> names, Map<UUID, Long> lastSeenTimes) {}
 
-    /**
-     * 根据数据库类型获取UPSERT SQL语句
-     */
-    private String getUpsertSql(Connection conn) throws SQLException {
-        String dbName = conn.getMetaData().getDatabaseProductName().toLowerCase();
-        if (dbName.contains("mysql") || dbName.contains("mariadb")) {
-            // MySQL/MariaDB 语法 - 以 player_name 为唯一键，同名则更新 UUID
-            return "INSERT INTO player_cache (uuid, player_name, last_seen) VALUES (?, ?, ?) " +
-                   "ON DUPLICATE KEY UPDATE uuid = VALUES(uuid), last_seen = VALUES(last_seen)";
-        } else {
-            // H2 语法（以及其他支持MERGE的数据库）- 以 player_name 为唯一键
-            return "MERGE INTO player_cache (uuid, player_name, last_seen) KEY(player_name) VALUES (?, ?, ?)";
-        }
-    }
-
     /**
      * 同步获取UUID（仅从本地缓存，不区分大小写）
      */
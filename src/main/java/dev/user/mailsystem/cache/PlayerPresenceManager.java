@@ -0,0 +1,243 @@
+package dev.user.mailsystem.cache;
+
+import dev.user.mailsystem.MailSystemPlugin;
+import dev.user.mailsystem.database.DatabaseQueue;
+import dev.user.mailsystem.database.SqlDialect;
+import io.papermc.paper.threadedregions.scheduler.ScheduledTask;
+import org.bukkit.Bukkit;
+import org.bukkit.entity.Player;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 玩家在线位置注册表 - 记录每个玩家当前所在的服务器
+ * 加入/退出先在内存中累积，定时批量写入；心跳只需一条按 server_id 更新的语句
+ * 发送方据此把事件路由到接收者所在的服务器，避免所有服务器重复轮询
+ */
+public class PlayerPresenceManager {
+
+    private static final long FLUSH_INTERVAL_TICKS = 40L;          // 加入/退出批量写入间隔（2秒）
+    private static final long HEARTBEAT_INTERVAL_MILLIS = 30_000L; // 心跳间隔
+    private static final long STALE_AFTER_MILLIS = HEARTBEAT_INTERVAL_MILLIS * 3; // 超过此时间未心跳视为离线（服务器崩溃）
+    private static final int LOOKUP_CHUNK_SIZE = 500;
+    private static final int UPSERT_CHUNK_SIZE = 500;
+    private static final String[] UPSERT_COLUMNS = {"player_uuid", "server_id", "updated_at"};
+    private static final String[] UPSERT_KEY = {"player_uuid"};
+
+    private final MailSystemPlugin plugin;
+    private final DatabaseQueue databaseQueue;
+
+    // 待写入的变更：true=加入，false=退出（同一玩家只保留最后一次变更）
+    private final Map<UUID, Boolean> pendingChanges = new ConcurrentHashMap<>();
+    // 已写入数据库的本服在线玩家 -> 写入确认时间
+    private final Map<UUID, Long> confirmed = new ConcurrentHashMap<>();
+
+    private ScheduledTask flushTask;
+    private long lastHeartbeat;
+
+    public PlayerPresenceManager(MailSystemPlugin plugin) {
+        this.plugin = plugin;
+        this.databaseQueue = plugin.getDatabaseQueue();
+    }
+
+    public void start() {
+        // 本服刚启动（或重载）：清掉上次运行遗留的记录，再登记当前在线玩家
+        String serverId = getServerId();
+        databaseQueue.submitAsync("resetPresence", conn -> {
+            try (PreparedStatement ps = conn.prepareStatement("DELETE FROM player_presence WHERE server_id = ?")) {
+                ps.setString(1, serverId);
+                ps.executeUpdate();
+            }
+            return null;
+        });
+        confirmed.clear();
+        for (Player player : Bukkit.getOnlinePlayers()) {
+            pendingChanges.put(player.getUniqueId(), Boolean.TRUE);
+        }
+
+        lastHeartbeat = System.currentTimeMillis();
+        flushTask = Bukkit.getGlobalRegionScheduler().runAtFixedRate(plugin, task -> flush(),
+                FLUSH_INTERVAL_TICKS, FLUSH_INTERVAL_TICKS);
+    }
+
+    public void stop() {
+        if (flushTask != null && !flushTask.isCancelled()) {
+            flushTask.cancel();
+        }
+        pendingChanges.clear();
+        confirmed.clear();
+    }
+
+    public void onJoin(UUID playerUuid) {
+        pendingChanges.put(playerUuid, Boolean.TRUE);
+    }
+
+    public void onQuit(UUID playerUuid) {
+        pendingChanges.put(playerUuid, Boolean.FALSE);
+        confirmed.remove(playerUuid);
+    }
+
+    /**
+     * 玩家在本服的在线位置是否已写入数据库（已写入的玩家其事件会直接路由到本服）
+     */
+    public boolean isConfirmed(UUID playerUuid) {
+        return confirmed.containsKey(playerUuid);
+    }
+
+    /**
+     * 玩家在线位置写入数据库的确认时间（未确认时返回null）
+     */
+    public Long getConfirmedAt(UUID playerUuid) {
+        return confirmed.get(playerUuid);
+    }
+
+    /**
+     * 批量写入累积的加入/退出，并按需发送心跳
+     */
+    private void flush() {
+        long now = System.currentTimeMillis();
+        boolean heartbeatDue = now - lastHeartbeat >= HEARTBEAT_INTERVAL_MILLIS;
+        if (pendingChanges.isEmpty() && !heartbeatDue) {
+            return;
+        }
+        if (heartbeatDue) {
+            lastHeartbeat = now;
+        }
+
+        List<UUID> joins = new ArrayList<>();
+        List<UUID> quits = new ArrayList<>();
+        for (UUID playerUuid : new ArrayList<>(pendingChanges.keySet())) {
+            Boolean online = pendingChanges.remove(playerUuid);
+            if (online == null) continue;
+            (online ? joins : quits).add(playerUuid);
+        }
+
+        String serverId = getServerId();
+        databaseQueue.submit("flushPresence", conn -> DatabaseQueue.inTransaction(conn, c -> {
+            // 多行 VALUES，每条语句最多 UPSERT_CHUNK_SIZE 行
+            SqlDialect dialect = plugin.getDatabaseManager().getDialect();
+            for (int start = 0; start < joins.size(); start += UPSERT_CHUNK_SIZE) {
+                List<UUID> chunk = joins.subList(start, Math.min(start + UPSERT_CHUNK_SIZE, joins.size()));
+                try (PreparedStatement ps = c.prepareStatement(dialect.upsert("player_presence", UPSERT_COLUMNS, UPSERT_KEY, chunk.size()))) {
+                    int index = 1;
+                    for (UUID playerUuid : chunk) {
+                        ps.setString(index++, playerUuid.toString());
+                        ps.setString(index++, serverId);
+                        ps.setLong(index++, now);
+                    }
+                    ps.executeUpdate();
+                }
+            }
+            if (!quits.isEmpty()) {
+                // 只删除本服的记录：玩家切服时新服务器的加入可能先于旧服务器的退出写入
+                try (PreparedStatement ps = c.prepareStatement(
+                        "DELETE FROM player_presence WHERE player_uuid = ? AND server_id = ?")) {
+                    for (UUID playerUuid : quits) {
+                        ps.setString(1, playerUuid.toString());
+                        ps.setString(2, serverId);
+                        ps.addBatch();
+                    }
+                    ps.executeBatch();
+                }
+            }
+            if (heartbeatDue) {
+                try (PreparedStatement ps = c.prepareStatement(
+                        "UPDATE player_presence SET updated_at = ? WHERE server_id = ?")) {
+                    ps.setLong(1, now);
+                    ps.setString(2, serverId);
+                    ps.executeUpdate();
+                }
+            }
+            return null;
+        }), result -> {
+            long confirmedAt = System.currentTimeMillis();
+            for (UUID playerUuid : joins) {
+                // 写入期间玩家可能已经退出
+                if (Bukkit.getPlayer(playerUuid) != null) {
+                    confirmed.putIfAbsent(playerUuid, confirmedAt);
+                }
+            }
+        }, error -> {
+            // 写入失败，放回待写入队列（不覆盖期间产生的新变更）
+            for (UUID playerUuid : joins) {
+                pendingChanges.putIfAbsent(playerUuid, Boolean.TRUE);
+            }
+            for (UUID playerUuid : quits) {
+                pendingChanges.putIfAbsent(playerUuid, Boolean.FALSE);
+            }
+        });
+    }
+
+    /**
+     * 在线记录的有效时间下限（updated_at 早于此值的记录视为离线）
+     */
+    public long getStaleBefore() {
+        return System.currentTimeMillis() - STALE_AFTER_MILLIS;
+    }
+
+    /**
+     * 在事务中查询玩家当前所在的服务器（离线或心跳超时返回null）
+     */
+    public String lookupServer(Connection conn, UUID playerUuid) throws SQLException {
+        String sql = "SELECT server_id FROM player_presence WHERE player_uuid = ? AND updated_at > ?";
+        try (PreparedStatement ps = conn.prepareStatement(sql)) {
+            ps.setString(1, playerUuid.toString());
+            ps.setLong(2, System.currentTimeMillis() - STALE_AFTER_MILLIS);
+            try (ResultSet rs = ps.executeQuery()) {
+                if (rs.next()) {
+                    return rs.getString("server_id");
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 在事务中批量查询玩家当前所在的服务器（离线或心跳超时的玩家不在结果中）
+     */
+    public Map<UUID, String> lookupServers(Connection conn, Collection<UUID> playerUuids) throws SQLException {
+        Map<UUID, String> servers = new HashMap<>();
+        List<String> values = new ArrayList<>(playerUuids.size());
+        for (UUID playerUuid : playerUuids) {
+            values.add(playerUuid.toString());
+        }
+        long staleBefore = System.currentTimeMillis() - STALE_AFTER_MILLIS;
+        for (int start = 0; start < values.size(); start += LOOKUP_CHUNK_SIZE) {
+            List<String> chunk = values.subList(start, Math.min(start + LOOKUP_CHUNK_SIZE, values.size()));
+            String placeholders = String.join(", ", Collections.nCopies(chunk.size(), "?"));
+            String sql = "SELECT player_uuid, server_id FROM player_presence WHERE player_uuid IN (" + placeholders + ") AND updated_at > ?";
+            try (PreparedStatement ps = conn.prepareStatement(sql)) {
+                int index = 1;
+                for (String playerUuid : chunk) {
+                    ps.setString(index++, playerUuid);
+                }
+                ps.setLong(index, staleBefore);
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        servers.put(UUID.fromString(rs.getString("player_uuid")), rs.getString("server_id"));
+                    }
+                }
+            }
+        }
+        return servers;
+    }
+
+    private String getServerId() {
+        String serverId = plugin.getConfig().getString("server.id", "");
+        if (serverId.isEmpty()) {
+            serverId = Bukkit.getServer().getName();
+        }
+        return serverId;
+    }
+}
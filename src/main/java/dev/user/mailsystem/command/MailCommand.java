@@ -1,10 +1,13 @@
 package dev.user.mailsystem.command;
 
 import dev.user.mailsystem.MailSystemPlugin;
+import dev.user.mailsystem.api.draft.AttachmentPayload;
 import dev.user.mailsystem.api.draft.BatchSendResult;
 import dev.user.mailsystem.api.draft.MailDraft;
 import dev.user.mailsystem.api.draft.SendOptions;
 import dev.user.mailsystem.api.draft.SendResult;
+import dev.user.mailsystem.mail.AnnouncementManager;
+import dev.user.mailsystem.mail.BroadcastManager;
 import dev.user.mailsystem.mail.Mail;
 import io.papermc.paper.event.player.AsyncChatEvent;
 import net.kyori.adventure.text.Component;
@@ -134,6 +137,13 @@ public class MailCommand implements CommandExecutor, TabCompleter {
                 }
                 handleBroadcast(player, args);
             }
+            case "announce" -> {
+                if (!player.hasPermission("mailsystem.admin")) {
+                    player.sendMessage("§c你没有权限发布全服公告！");
+                    return true;
+                }
+                handleAnnounce(player, args);
+            }
             case "manage" -> {
                 if (!player.hasPermission("mailsystem.admin")) {
                     player.sendMessage("§c你没有权限使用管理功能！");
@@ -142,6 +152,7 @@ public class MailCommand implements CommandExecutor, TabCompleter {
                 handleManage(player, args);
             }
             case "clearcache" -> handleClearCache(player);
+            case "status" -> handleStatus(player);
             case "reload" -> handleReload(player);
             case "blacklist", "bl" -> handleBlacklist(player, args);
             case "template" -> handleTemplate(player, args);
@@ -178,7 +189,7 @@ public class MailCommand implements CommandExecutor, TabCompleter {
             completions.addAll(Arrays.asList("blacklist", "bl"));
             // 管理员命令
             if (player.hasPermission("mailsystem.admin")) {
-                completions.addAll(Arrays.asList("reload", "clearcache", "broadcast", "bc", "manage"));
+                completions.addAll(Arrays.asList("reload", "clearcache", "status", "broadcast", "bc", "announce", "manage"));
             }
             // 模板命令
             if (player.hasPermission("mailsystem.template.use")) {
@@ -210,11 +221,18 @@ public class MailCommand implements CommandExecutor, TabCompleter {
             }
             // 群发命令的目标补全
             if (sub.equals("broadcast") || sub.equals("bc")) {
-                List<String> targets = Arrays.asList("online", "3days", "7days", "all");
+                List<String> targets = Arrays.asList("online", "3days", "7days", "all", "status", "cancel");
                 return targets.stream()
                         .filter(t -> t.toLowerCase().startsWith(args[1].toLowerCase()))
                         .toList();
             }
+            // 公告命令的受众和子命令补全
+            if (sub.equals("announce") && player.hasPermission("mailsystem.admin")) {
+                List<String> options = Arrays.asList("all", "7d", "30d", "perm:", "list", "remove");
+                return options.stream()
+                        .filter(o -> o.startsWith(args[1].toLowerCase()))
+                        .toList();
+            }
             // 黑名单命令的子命令补全
             if (sub.equals("blacklist") || sub.equals("bl")) {
                 List<String> blCommands = Arrays.asList("add", "remove", "list");
@@ -861,6 +879,22 @@ public class MailCommand implements CommandExecutor, TabCompleter {
         player.sendMessage("§a邮件缓存已清除。");
     }
 
+    private void handleStatus(Player player) {
+        if (!player.hasPermission("mailsystem.admin")) {
+            player.sendMessage("§c你没有权限！");
+            return;
+        }
+
+        var notifier = plugin.getCrossServerNotifier();
+        player.sendMessage("§6======== 邮件系统状态 ========");
+        player.sendMessage("§7推送通道: §f" + notifier.getTransportStatus());
+        player.sendMessage("§7跨服轮询间隔: §f" + String.format("%.1f", notifier.getCurrentIntervalSeconds()) + " 秒");
+        player.sendMessage("§7轮询命中率: §f" + String.format("%.1f%%", notifier.getHitRate() * 100) +
+                " §7(共 " + notifier.getPollCount() + " 次)");
+        player.sendMessage("§7事件序列号: §f" + notifier.getLastSeq());
+        player.sendMessage("§7数据库队列: §f" + plugin.getDatabaseQueue().getPendingCount() + " 个待处理任务");
+    }
+
     private void handleReload(Player player) {
         if (!player.hasPermission("mailsystem.admin")) {
             player.sendMessage("§c你没有权限！");
@@ -1023,14 +1057,33 @@ public class MailCommand implements CommandExecutor, TabCompleter {
             player.sendMessage("§6--- 管理员命令 ---");
             player.sendMessage("§e/fmail broadcast <目标> <标题> [内容] §f- 群发邮件");
             player.sendMessage("§7  目标: online(在线), 3days(3天内), 7days(7天内), all(全部)");
+            player.sendMessage("§e/fmail announce <受众> <标题> [内容] §f- 发布全服公告");
+            player.sendMessage("§7  受众: all(全部), <天数>d(此后登录过), perm:<权限>(拥有权限)");
             player.sendMessage("§e/fmail manage <玩家> §f- 管理指定玩家的邮件");
             player.sendMessage("§7  可删除/修改已读状态/修改领取状态");
             player.sendMessage("§e/fmail reload §f- 重载配置");
             player.sendMessage("§e/fmail clearcache §f- 清除缓存");
+            player.sendMessage("§e/fmail status §f- 查看运行状态");
         }
     }
 
     private void handleBroadcast(Player player, String[] args) {
+        if (args.length >= 2 && args[1].equalsIgnoreCase("status")) {
+            showBroadcastJobs(player);
+            return;
+        }
+        if (args.length >= 2 && args[1].equalsIgnoreCase("cancel")) {
+            if (args.length < 3) {
+                player.sendMessage("§c用法: /fmail broadcast cancel <任务ID>");
+                return;
+            }
+            if (plugin.getBroadcastManager().cancel(args[2])) {
+                player.sendMessage("§a[邮件系统] §e已请求取消群发任务 §f#" + args[2] + "§e，当前批次完成后停止");
+            } else {
+                player.sendMessage("§c未找到本服正在执行的群发任务: " + args[2]);
+            }
+            return;
+        }
         if (args.length < 3) {
             player.sendMessage("§c用法: /fmail broadcast <目标> <标题> [内容]");
             player.sendMessage("§7目标类型:");
@@ -1038,6 +1091,8 @@ public class MailCommand implements CommandExecutor, TabCompleter {
             player.sendMessage("§7  3days  - 3天内登录过的玩家");
             player.sendMessage("§7  7days  - 7天内登录过的玩家");
             player.sendMessage("§7  all    - 所有曾经登录过的玩家");
+            player.sendMessage("§7/fmail broadcast status §8- 查看群发任务进度");
+            player.sendMessage("§7/fmail broadcast cancel <任务ID> §8- 取消群发任务");
             return;
         }
 
@@ -1081,13 +1136,144 @@ public class MailCommand implements CommandExecutor, TabCompleter {
 
     private void broadcastToRecent(Player sender, String title, String content, int days) {
         long sinceTime = System.currentTimeMillis() - (days * 24L * 60 * 60 * 1000);
-        plugin.getPlayerCacheManager().getPlayersLoggedInSince(sinceTime, players ->
-            broadcastToTargets(sender, players, title, content, days + "天内登录的玩家"));
+        plugin.getBroadcastManager().submit(sender, new BroadcastManager.BroadcastRequest(
+                title, content, AttachmentPayload.empty(), 0, sinceTime, days + "天内登录的玩家", null));
     }
 
     private void broadcastToAll(Player sender, String title, String content) {
-        plugin.getPlayerCacheManager().getAllCachedPlayers(players ->
-            broadcastToTargets(sender, players, title, content, "玩家"));
+        plugin.getBroadcastManager().submit(sender, new BroadcastManager.BroadcastRequest(
+                title, content, AttachmentPayload.empty(), 0, 0, "玩家", null));
+    }
+
+    private void showBroadcastJobs(Player player) {
+        plugin.getBroadcastManager().listJobs(10, jobs -> {
+            if (jobs.isEmpty()) {
+                player.sendMessage("§e[邮件系统] 暂无群发任务");
+                return;
+            }
+            java.text.SimpleDateFormat format = new java.text.SimpleDateFormat("MM-dd HH:mm");
+            player.sendMessage("§6======== 最近的群发任务 ========");
+            for (BroadcastManager.JobSummary job : jobs) {
+                String status = switch (job.status()) {
+                    case RUNNING -> "§a进行中";
+                    case DONE -> "§7已完成";
+                    case CANCELLED -> "§e已取消";
+                    case FAILED -> "§c已终止";
+                };
+                player.sendMessage("§f#" + job.id().substring(0, 8) + " " + status + " §7" + job.targetDesc() +
+                        " §f" + (job.sentCount() + job.failedCount()) + "/" + job.totalCount() +
+                        " §7(失败 " + job.failedCount() + ") §8" + job.serverId() + " " + format.format(new Date(job.createdAt())));
+            }
+        });
+    }
+
+    private void handleAnnounce(Player player, String[] args) {
+        if (args.length >= 2 && args[1].equalsIgnoreCase("list")) {
+            showAnnouncements(player);
+            return;
+        }
+        if (args.length >= 2 && args[1].equalsIgnoreCase("remove")) {
+            if (args.length < 3) {
+                player.sendMessage("§c用法: /fmail announce remove <公告ID>");
+                return;
+            }
+            plugin.getAnnouncementManager().remove(args[2], removed -> {
+                if (removed) {
+                    player.sendMessage("§a[邮件系统] §e已撤回公告 §f#" + args[2]);
+                } else {
+                    player.sendMessage("§c未找到公告（或ID前缀不唯一）: " + args[2]);
+                }
+            });
+            return;
+        }
+        if (args.length < 3) {
+            player.sendMessage("§c用法: /fmail announce <受众> <标题> [内容]");
+            player.sendMessage("§7受众类型:");
+            player.sendMessage("§7  all          - 所有玩家（包括之后首次登录的玩家）");
+            player.sendMessage("§7  <天数>d      - 最近N天内及之后登录过的玩家，如 7d");
+            player.sendMessage("§7  perm:<权限>  - 拥有指定权限的在线玩家");
+            player.sendMessage("§7/fmail announce list §8- 查看公告");
+            player.sendMessage("§7/fmail announce remove <公告ID> §8- 撤回公告");
+            return;
+        }
+
+        String target = args[1];
+        AnnouncementManager.Audience audience;
+        long sinceTime = 0;
+        String permission = null;
+        String targetDesc;
+        if (target.equalsIgnoreCase("all")) {
+            audience = AnnouncementManager.Audience.ALL;
+            targetDesc = "所有玩家";
+        } else if (target.toLowerCase().startsWith("perm:") && target.length() > 5) {
+            audience = AnnouncementManager.Audience.PERMISSION;
+            permission = target.substring(5);
+            if (permission.length() > 64) {
+                player.sendMessage("§c权限节点过长！");
+                return;
+            }
+            targetDesc = "拥有 " + permission + " 权限的玩家";
+        } else if (target.toLowerCase().endsWith("d")) {
+            int days;
+            try {
+                days = Integer.parseInt(target.substring(0, target.length() - 1));
+            } catch (NumberFormatException e) {
+                days = -1;
+            }
+            if (days <= 0) {
+                player.sendMessage("§c无效的天数: " + target);
+                return;
+            }
+            audience = AnnouncementManager.Audience.SEEN_SINCE;
+            sinceTime = System.currentTimeMillis() - (days * 24L * 60 * 60 * 1000);
+            targetDesc = days + "天内登录过的玩家";
+        } else {
+            player.sendMessage("§c未知的受众类型: " + target + "，可选: all, <天数>d, perm:<权限>");
+            return;
+        }
+
+        String title = args[2];
+        if (title.length() > plugin.getMailConfig().getMaxMailTitleLength()) {
+            player.sendMessage("§c标题过长，最大长度: " + plugin.getMailConfig().getMaxMailTitleLength());
+            return;
+        }
+        StringBuilder content = new StringBuilder();
+        for (int i = 3; i < args.length; i++) {
+            content.append(args[i]).append(" ");
+        }
+        String contentStr = content.toString().trim();
+        if (contentStr.length() > plugin.getMailConfig().getMaxMailContentLength()) {
+            player.sendMessage("§c内容过长，最大长度: " + plugin.getMailConfig().getMaxMailContentLength());
+            return;
+        }
+
+        plugin.getAnnouncementManager().create(player, audience, sinceTime, permission, title, contentStr, id -> {
+            if (id != null) {
+                player.sendMessage("§a[邮件系统] §e全服公告 §f#" + id.substring(0, 8) + " §e已发布给" + targetDesc);
+            } else {
+                player.sendMessage("§c[邮件系统] 发布公告失败，请查看控制台");
+            }
+        });
+    }
+
+    private void showAnnouncements(Player player) {
+        plugin.getAnnouncementManager().list(announcements -> {
+            if (announcements.isEmpty()) {
+                player.sendMessage("§e[邮件系统] 暂无全服公告");
+                return;
+            }
+            java.text.SimpleDateFormat format = new java.text.SimpleDateFormat("MM-dd HH:mm");
+            player.sendMessage("§6======== 全服公告 ========");
+            for (AnnouncementManager.AnnouncementInfo info : announcements) {
+                String audience = switch (info.audience()) {
+                    case ALL -> "所有玩家";
+                    case SEEN_SINCE -> format.format(new Date(info.sinceTime())) + " 后登录";
+                    case PERMISSION -> "权限 " + info.permission();
+                };
+                player.sendMessage("§f#" + info.id().substring(0, 8) + " §e" + info.title() + " §7" + audience +
+                        " §7已操作 §f" + info.receiptCount() + " §7人 §8" + format.format(new Date(info.sentTime())));
+            }
+        });
     }
 
     private void broadcastToTargets(Player sender, Map<UUID, String> targets, String title, String content, String targetDesc) {
@@ -1367,6 +1553,7 @@ public class MailCommand implements CommandExecutor, TabCompleter {
             }
         }
 
+        // all/recent 目标创建后台群发任务，进度由 BroadcastManager 通知，下面的回调只处理在线群发
         plugin.getTemplateManager().broadcast(templateName, player, broadcastTarget, result -> {
             Bukkit.getGlobalRegionScheduler().run(plugin, task -> {
                 int sent = result.getSuccessCount();
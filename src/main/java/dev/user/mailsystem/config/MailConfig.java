@@ -21,10 +21,30 @@ public class MailConfig {
     private int mailExpirationDays;
     private int unreadCheckInterval;
     private int crossServerCheckInterval;
+    private int crossServerMaxInterval;
+    private int crossServerBatchSize;
+    private int eventRetentionMinutes;
     private int maxMailboxSize;
     private int dailySendLimit;
     private int broadcastTimeout;
+    private int insertBatchSize;
+    private int broadcastRatePerSecond;
+    private int broadcastChunkSize;
+    private int broadcastProgressInterval;
+    private boolean broadcastFanOut;
+    private int broadcastFanOutChunkSize;
     private int cacheTtl;
+    private int negativeCacheTtl;
+    private int idempotencyKeyTtl;
+    private int sendLogFlushInterval;
+
+    // 跨服推送设置
+    private String transportType;
+    private int fallbackPollInterval;
+    private String redisHost;
+    private int redisPort;
+    private String redisPassword;
+    private String redisChannel;
 
     // 经济设置
     private double mailPostageFee;
@@ -66,10 +86,32 @@ public class MailConfig {
         this.mailExpirationDays = plugin.getConfig().getInt("mail.expiration-days", 30);
         this.unreadCheckInterval = plugin.getConfig().getInt("mail.unread-check-interval", 60);
         this.crossServerCheckInterval = plugin.getConfig().getInt("mail.cross-server-check-interval", 10);
+        this.crossServerMaxInterval = plugin.getConfig().getInt("mail.cross-server-max-interval", 60);
+        this.crossServerBatchSize = Math.max(1, plugin.getConfig().getInt("mail.cross-server-batch-size", 500));
+        this.eventRetentionMinutes = Math.max(1, plugin.getConfig().getInt("mail.event-retention-minutes", 60));
         this.maxMailboxSize = plugin.getConfig().getInt("mail.max-mailbox-size", 100);
         this.dailySendLimit = plugin.getConfig().getInt("mail.daily-send-limit", 0);
         this.broadcastTimeout = plugin.getConfig().getInt("mail.broadcast-timeout", 30);
-        this.cacheTtl = plugin.getConfig().getInt("mail.cache-ttl", 30);
+        this.insertBatchSize = Math.max(1, plugin.getConfig().getInt("mail.insert-batch-size", 200));
+        this.cacheTtl = plugin.getConfig().getInt("mail.cache-ttl", 300);
+        this.negativeCacheTtl = plugin.getConfig().getInt("mail.negative-cache-ttl", 600);
+        this.idempotencyKeyTtl = Math.max(0, plugin.getConfig().getInt("mail.idempotency-key-ttl", 600));
+        this.sendLogFlushInterval = Math.max(1, plugin.getConfig().getInt("mail.send-log-flush-interval", 5));
+
+        // 跨服推送配置
+        this.transportType = plugin.getConfig().getString("transport.type", "none").toLowerCase();
+        this.fallbackPollInterval = Math.max(1, plugin.getConfig().getInt("transport.fallback-poll-interval", 60));
+        this.redisHost = plugin.getConfig().getString("transport.redis.host", "localhost");
+        this.redisPort = plugin.getConfig().getInt("transport.redis.port", 6379);
+        this.redisPassword = plugin.getConfig().getString("transport.redis.password", "");
+        this.redisChannel = plugin.getConfig().getString("transport.redis.channel", "foliamail:events");
+
+        // 群发任务配置
+        this.broadcastRatePerSecond = Math.max(1, plugin.getConfig().getInt("broadcast.rate-per-second", 200));
+        this.broadcastChunkSize = Math.max(1, plugin.getConfig().getInt("broadcast.chunk-size", 200));
+        this.broadcastProgressInterval = Math.max(1, plugin.getConfig().getInt("broadcast.progress-interval", 10));
+        this.broadcastFanOut = plugin.getConfig().getBoolean("broadcast.fan-out", true);
+        this.broadcastFanOutChunkSize = Math.max(1, plugin.getConfig().getInt("broadcast.fan-out-chunk-size", 5000));
 
         // 经济配置
         this.enableEconomy = plugin.getConfig().getBoolean("economy.enabled", true);
@@ -161,6 +203,42 @@ public class MailConfig {
         return crossServerCheckInterval;
     }
 
+    public int getCrossServerMaxInterval() {
+        return crossServerMaxInterval;
+    }
+
+    public int getCrossServerBatchSize() {
+        return crossServerBatchSize;
+    }
+
+    public int getBroadcastRatePerSecond() {
+        return broadcastRatePerSecond;
+    }
+
+    public int getBroadcastChunkSize() {
+        return broadcastChunkSize;
+    }
+
+    public int getBroadcastProgressInterval() {
+        return broadcastProgressInterval;
+    }
+
+    public boolean isBroadcastFanOut() {
+        return broadcastFanOut;
+    }
+
+    public int getBroadcastFanOutChunkSize() {
+        return broadcastFanOutChunkSize;
+    }
+
+    public int getInsertBatchSize() {
+        return insertBatchSize;
+    }
+
+    public int getEventRetentionMinutes() {
+        return eventRetentionMinutes;
+    }
+
     public int getMaxMailboxSize() {
         return maxMailboxSize;
     }
@@ -177,6 +255,42 @@ public class MailConfig {
         return cacheTtl;
     }
 
+    public int getNegativeCacheTtl() {
+        return negativeCacheTtl;
+    }
+
+    public int getIdempotencyKeyTtl() {
+        return idempotencyKeyTtl;
+    }
+
+    public int getSendLogFlushInterval() {
+        return sendLogFlushInterval;
+    }
+
+    public String getTransportType() {
+        return transportType;
+    }
+
+    public int getFallbackPollInterval() {
+        return fallbackPollInterval;
+    }
+
+    public String getRedisHost() {
+        return redisHost;
+    }
+
+    public int getRedisPort() {
+        return redisPort;
+    }
+
+    public String getRedisPassword() {
+        return redisPassword;
+    }
+
+    public String getRedisChannel() {
+        return redisChannel;
+    }
+
     public double getMailPostageFee() {
         return mailPostageFee;
     }
@@ -15,6 +15,7 @@ public class DatabaseManager {
 
     private final MailSystemPlugin plugin;
     private HikariDataSource dataSource;
+    private SqlDialect dialect = SqlDialect.H2;
 
     public DatabaseManager(MailSystemPlugin plugin) {
         this.plugin = plugin;
@@ -40,7 +41,7 @@ public class DatabaseManager {
                     plugin.getLogger().warning("MySQL 驱动注册失败（可能已注册）: " + e.getMessage());
                 }
 
-                config.setJdbcUrl(String.format("jdbc:mysql://%s:%d/%s?useSSL=false&serverTimezone=UTC&autoReconnect=true",
+                config.setJdbcUrl(String.format("jdbc:mysql://%s:%d/%s?useSSL=false&serverTimezone=UTC&autoReconnect=true&rewriteBatchedStatements=true",
                         plugin.getMailConfig().getMysqlHost(),
                         plugin.getMailConfig().getMysqlPort(),
                         plugin.getMailConfig().getMysqlDatabase()));
@@ -152,8 +153,9 @@ public class DatabaseManager {
 
     private void createTables() throws SQLException {
         try (Connection conn = getConnection(); Statement stmt = conn.createStatement()) {
-            String dbType = plugin.getMailConfig().getDatabaseType();
-            boolean isMySQL = "mysql".equals(dbType);
+            // 方言只在启动时确定一次
+            dialect = SqlDialect.fromConnection(conn);
+            boolean isMySQL = dialect == SqlDialect.MYSQL;
 
             String textType = isMySQL ? "TEXT" : "CLOB";
             String longTextType = isMySQL ? "LONGTEXT" : "CLOB";
@@ -179,12 +181,29 @@ public class DatabaseManager {
 
             // 检查并添加 money_attachment 列（兼容旧版本数据库）
             addColumnIfNotExists(conn, "mails", "money_attachment", "DOUBLE DEFAULT 0", isMySQL);
+            // 检查并添加 body_id 列（多收件人邮件共享的正文，NULL 表示正文保存在本行）
+            addColumnIfNotExists(conn, "mails", "body_id", "VARCHAR(36)", isMySQL);
+            // 检查并添加 idempotency_key 列（调用方提供的幂等键，NULL 表示未使用幂等发送）
+            addColumnIfNotExists(conn, "mails", "idempotency_key", "VARCHAR(64)", isMySQL);
 
             // 创建索引（MySQL 和 H2 语法不同）
             createIndexIfNotExists(conn, "mails", "idx_receiver", "receiver_uuid", isMySQL);
             createIndexIfNotExists(conn, "mails", "idx_sender", "sender_uuid", isMySQL);
             createIndexIfNotExists(conn, "mails", "idx_expire", "expire_time", isMySQL);
             createIndexIfNotExists(conn, "mails", "idx_server", "server_id", isMySQL);
+            createIndexIfNotExists(conn, "mails", "idx_mail_body", "body_id", isMySQL);
+            // 同一接收者的幂等键唯一（未设置幂等键的邮件为 NULL，不受唯一约束限制）
+            createIndexIfNotExists(conn, "mails", "uk_mail_idempotency", "receiver_uuid, idempotency_key", isMySQL, true);
+
+            // 创建共享邮件正文表（群发邮件的标题、内容和附件只存一份，最后一封引用的邮件删除后回收）
+            stmt.executeUpdate("CREATE TABLE IF NOT EXISTS mail_bodies (" +
+                    "id VARCHAR(36) PRIMARY KEY, " +
+                    "title VARCHAR(100) NOT NULL, " +
+                    "content " + longTextType + ", " +
+                    "attachments " + blobType + ", " +
+                    "money_attachment DOUBLE DEFAULT 0, " +
+                    "created_at BIGINT NOT NULL" +
+                    ")");
 
             // 创建玩家缓存表 - 以 player_name 为唯一键，同名则更新 UUID
             stmt.executeUpdate("CREATE TABLE IF NOT EXISTS player_cache (" +
@@ -234,6 +253,108 @@ public class DatabaseManager {
 
             createIndexIfNotExists(conn, "mail_templates", "idx_template_name", "name", isMySQL);
             createIndexIfNotExists(conn, "mail_templates", "idx_template_creator", "creator_uuid", isMySQL);
+
+            // 创建邮件事件日志表（跨服缓存精确失效，seq 单调递增）
+            stmt.executeUpdate("CREATE TABLE IF NOT EXISTS mail_events (" +
+                    "seq BIGINT AUTO_INCREMENT PRIMARY KEY, " +
+                    "event_type VARCHAR(16) NOT NULL, " +
+                    "mail_id VARCHAR(36), " +
+                    "receiver_uuid VARCHAR(36), " +
+                    "sender_uuid VARCHAR(36), " +
+                    "sender_name VARCHAR(32), " +
+                    "server_id VARCHAR(50) NOT NULL, " +
+                    "target_server VARCHAR(50), " +
+                    "created_at BIGINT NOT NULL" +
+                    ")");
+
+            // 检查并添加 target_server 列（事件路由目标服务器，NULL 表示接收者不在线）
+            addColumnIfNotExists(conn, "mail_events", "target_server", "VARCHAR(50)", isMySQL);
+
+            createIndexIfNotExists(conn, "mail_events", "idx_events_created", "created_at", isMySQL);
+            // 跨服轮询只查询本服玩家相关的事件：(玩家, seq) 复合索引
+            createIndexIfNotExists(conn, "mail_events", "idx_events_receiver", "receiver_uuid, seq", isMySQL);
+            createIndexIfNotExists(conn, "mail_events", "idx_events_sender", "sender_uuid, seq", isMySQL);
+            createIndexIfNotExists(conn, "mail_events", "idx_events_target", "target_server, seq", isMySQL);
+
+            // 创建玩家在线位置表（每个玩家当前所在的服务器，由各服务器批量心跳维护）
+            stmt.executeUpdate("CREATE TABLE IF NOT EXISTS player_presence (" +
+                    "player_uuid VARCHAR(36) PRIMARY KEY, " +
+                    "server_id VARCHAR(50) NOT NULL, " +
+                    "updated_at BIGINT NOT NULL" +
+                    ")");
+
+            createIndexIfNotExists(conn, "player_presence", "idx_presence_server", "server_id", isMySQL);
+
+            // 创建群发任务表（按玩家UUID游标分批发送，记录进度以便重启后继续）
+            stmt.executeUpdate("CREATE TABLE IF NOT EXISTS mail_broadcast_jobs (" +
+                    "id VARCHAR(36) PRIMARY KEY, " +
+                    "sender_uuid VARCHAR(36) NOT NULL, " +
+                    "sender_name VARCHAR(32) NOT NULL, " +
+                    "title VARCHAR(100) NOT NULL, " +
+                    "content " + longTextType + ", " +
+                    "attachments " + blobType + ", " +
+                    "money_attachment DOUBLE DEFAULT 0, " +
+                    "template_name VARCHAR(64), " +
+                    "target_desc VARCHAR(64) NOT NULL, " +
+                    "since_time BIGINT NOT NULL DEFAULT 0, " +
+                    "cursor_uuid VARCHAR(36) NOT NULL DEFAULT '', " +
+                    "total_count INT NOT NULL DEFAULT 0, " +
+                    "sent_count INT NOT NULL DEFAULT 0, " +
+                    "failed_count INT NOT NULL DEFAULT 0, " +
+                    "status VARCHAR(16) NOT NULL, " +
+                    "server_id VARCHAR(50) NOT NULL, " +
+                    "created_at BIGINT NOT NULL, " +
+                    "updated_at BIGINT NOT NULL" +
+                    ")");
+
+            createIndexIfNotExists(conn, "mail_broadcast_jobs", "idx_broadcast_status", "status", isMySQL);
+
+            // 创建全服公告表（一行公告加受众条件，读取收件箱时合并，正文保存在 mail_bodies）
+            stmt.executeUpdate("CREATE TABLE IF NOT EXISTS mail_announcements (" +
+                    "id VARCHAR(36) PRIMARY KEY, " +
+                    "body_id VARCHAR(36) NOT NULL, " +
+                    "sender_uuid VARCHAR(36) NOT NULL, " +
+                    "sender_name VARCHAR(32) NOT NULL, " +
+                    "audience VARCHAR(16) NOT NULL, " +
+                    "since_time BIGINT NOT NULL DEFAULT 0, " +
+                    "permission VARCHAR(64), " +
+                    "sent_time BIGINT NOT NULL, " +
+                    "expire_time BIGINT NOT NULL, " +
+                    "server_id VARCHAR(50) DEFAULT ''" +
+                    ")");
+
+            createIndexIfNotExists(conn, "mail_announcements", "idx_announcement_expire", "expire_time", isMySQL);
+
+            // 创建公告回执表（玩家首次操作公告时写入：公告转为该玩家的普通邮件，或被删除/清空）
+            stmt.executeUpdate("CREATE TABLE IF NOT EXISTS mail_announcement_receipts (" +
+                    "announcement_id VARCHAR(36) NOT NULL, " +
+                    "player_uuid VARCHAR(36) NOT NULL, " +
+                    "created_at BIGINT NOT NULL, " +
+                    "PRIMARY KEY (announcement_id, player_uuid)" +
+                    ")");
+
+            // 创建扣费托管账本（扣费成功后记录，发送结束后结算：失败部分转为待退款，由定时任务批量退还）
+            stmt.executeUpdate("CREATE TABLE IF NOT EXISTS mail_escrow (" +
+                    "id VARCHAR(36) PRIMARY KEY, " +
+                    "payer_uuid VARCHAR(36) NOT NULL, " +
+                    "payer_name VARCHAR(32) NOT NULL, " +
+                    "amount DOUBLE NOT NULL, " +
+                    "refund_amount DOUBLE NOT NULL DEFAULT 0, " +
+                    "items " + longTextType + ", " +   // 邮件ID:费用，逗号分隔（重启后核对未完成的托管）
+                    "status VARCHAR(16) NOT NULL, " +
+                    "server_id VARCHAR(50) NOT NULL, " +
+                    "created_at BIGINT NOT NULL, " +
+                    "updated_at BIGINT NOT NULL" +
+                    ")");
+
+            createIndexIfNotExists(conn, "mail_escrow", "idx_escrow_status", "status", isMySQL);
+
+            // 创建托管送达记录（与邮件在同一事务中写入，重启核对时据此判断已送达，不依赖邮件行是否仍存在）
+            stmt.executeUpdate("CREATE TABLE IF NOT EXISTS mail_escrow_deliveries (" +
+                    "escrow_id VARCHAR(36) NOT NULL, " +
+                    "mail_id VARCHAR(36) NOT NULL, " +
+                    "PRIMARY KEY (escrow_id, mail_id)" +
+                    ")");
         }
     }
 
@@ -241,6 +362,13 @@ public class DatabaseManager {
         return dataSource.getConnection();
     }
 
+    /**
+     * 获取启动时确定的SQL方言
+     */
+    public SqlDialect getDialect() {
+        return dialect;
+    }
+
     public void close() {
         if (dataSource != null && !dataSource.isClosed()) {
             dataSource.close();
@@ -253,17 +381,24 @@ public class DatabaseManager {
     }
 
     // 有效的表名白名单
-    private static final Set<String> VALID_TABLES = Set.of("mails", "player_cache", "mail_send_log", "mail_blacklist", "mail_templates");
+    private static final Set<String> VALID_TABLES = Set.of("mails", "player_cache", "mail_send_log", "mail_blacklist", "mail_templates", "mail_events",
+            "player_presence", "mail_broadcast_jobs", "mail_bodies",
+            "mail_announcements", "mail_announcement_receipts", "mail_escrow", "mail_escrow_deliveries");
     // 有效的列名白名单（用于索引）
     private static final Set<String> VALID_COLUMNS = Set.of(
         "receiver_uuid", "sender_uuid", "expire_time", "server_id", "uuid", "send_date",
-        "owner_uuid", "blocked_uuid", "player_name", "name", "creator_uuid"
+        "owner_uuid", "blocked_uuid", "player_name", "name", "creator_uuid", "created_at",
+        "receiver_uuid, seq", "sender_uuid, seq", "target_server, seq", "status", "body_id",
+        "receiver_uuid, idempotency_key"
     );
     // 有效的索引名白名单
     private static final Set<String> VALID_INDEXES = Set.of(
         "idx_receiver", "idx_sender", "idx_expire", "idx_server",
         "idx_player_uuid", "idx_send_log_date", "idx_blacklist_owner", "idx_blacklist_blocked",
-        "idx_template_name", "idx_template_creator"
+        "idx_template_name", "idx_template_creator", "idx_events_created",
+        "idx_events_receiver", "idx_events_sender", "idx_events_target", "idx_presence_server",
+        "idx_broadcast_status", "idx_mail_body", "idx_announcement_expire",
+        "uk_mail_idempotency", "idx_escrow_status"
     );
 
     /**
@@ -280,6 +415,14 @@ public class DatabaseManager {
      * 创建索引（如果不存在）
      */
     private void createIndexIfNotExists(Connection conn, String table, String indexName, String column, boolean isMySQL) throws SQLException {
+        createIndexIfNotExists(conn, table, indexName, column, isMySQL, false);
+    }
+
+    /**
+     * 创建索引（如果不存在），unique 为 true 时创建唯一索引
+     */
+    private void createIndexIfNotExists(Connection conn, String table, String indexName, String column, boolean isMySQL,
+                                        boolean unique) throws SQLException {
         // 白名单验证
         if (!VALID_TABLES.contains(table)) {
             throw new SQLException("无效的表名: " + table);
@@ -291,6 +434,7 @@ public class DatabaseManager {
             throw new SQLException("无效的列名: " + column);
         }
 
+        String indexType = unique ? "UNIQUE INDEX" : "INDEX";
         try (Statement stmt = conn.createStatement()) {
             if (isMySQL) {
                 // MySQL: 使用 PreparedStatement 查询 information_schema
@@ -304,20 +448,20 @@ public class DatabaseManager {
                     try (java.sql.ResultSet rs = ps.executeQuery()) {
                         if (!rs.next()) {
                             // 使用白名单验证后的安全标识符拼接SQL
-                            stmt.executeUpdate(String.format("CREATE INDEX %s ON %s(%s)", indexName, table, column));
+                            stmt.executeUpdate(String.format("CREATE %s %s ON %s(%s)", indexType, indexName, table, column));
                         }
                     }
                 }
             } else {
                 // H2: 使用 IF NOT EXISTS
-                stmt.executeUpdate(String.format("CREATE INDEX IF NOT EXISTS %s ON %s(%s)", indexName, table, column));
+                stmt.executeUpdate(String.format("CREATE %s IF NOT EXISTS %s ON %s(%s)", indexType, indexName, table, column));
             }
         }
     }
 
     // 有效的列定义白名单
     private static final Set<String> VALID_COLUMN_DEFS = Set.of(
-        "DOUBLE DEFAULT 0"
+        "DOUBLE DEFAULT 0", "VARCHAR(50)", "VARCHAR(36)", "VARCHAR(64)"
     );
 
     /**
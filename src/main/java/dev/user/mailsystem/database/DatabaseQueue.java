@@ -130,12 +130,20 @@ public class DatabaseQueue {
         } catch (SQLException e) {
             plugin.getLogger().severe("数据库操作失败 [" + task.getName() + "]: " + e.getMessage());
             e.printStackTrace();
+            runErrorCallback(task, e);
+        } catch (RuntimeException e) {
+            // 操作中的非SQL异常（如数据格式错误）同样交给错误回调，避免调用方永远等不到回调
+            plugin.getLogger().severe("数据库操作异常 [" + task.getName() + "]: " + e);
+            e.printStackTrace();
+            runErrorCallback(task, new SQLException("数据库操作异常: " + e, e));
+        }
+    }
 
-            if (task.getErrorCallback() != null) {
-                Bukkit.getGlobalRegionScheduler().run(plugin, scheduledTask -> {
-                    task.getErrorCallback().accept(e);
-                });
-            }
+    private void runErrorCallback(DatabaseTask<?> task, SQLException e) {
+        if (task.getErrorCallback() != null) {
+            Bukkit.getGlobalRegionScheduler().run(plugin, scheduledTask -> {
+                task.getErrorCallback().accept(e);
+            });
         }
     }
 
@@ -189,6 +197,24 @@ public class DatabaseQueue {
         return executor.submit(callable);
     }
 
+    /**
+     * 在事务中执行操作（提交/回滚后恢复自动提交）
+     */
+    public static <T> T inTransaction(Connection conn, DatabaseOperation<T> operation) throws SQLException {
+        boolean autoCommit = conn.getAutoCommit();
+        conn.setAutoCommit(false);
+        try {
+            T result = operation.apply(conn);
+            conn.commit();
+            return result;
+        } catch (SQLException | RuntimeException e) {
+            conn.rollback();
+            throw e;
+        } finally {
+            conn.setAutoCommit(autoCommit);
+        }
+    }
+
     public int getPendingCount() {
         return taskQueue.size();
     }
@@ -0,0 +1,123 @@
+package dev.user.mailsystem.database;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * SQL 方言 - 生成 MySQL/MariaDB 与 H2 语法不同的语句
+ * 在数据库初始化时按连接的产品名确定一次（{@link DatabaseManager#getDialect()}），之后不再查询元数据
+ * 表名和列名只接受代码中的常量，不做转义
+ */
+public enum SqlDialect {
+
+    MYSQL {
+        @Override
+        public String upsert(String table, String[] columns, String[] keyColumns, int rows) {
+            List<String> updates = new ArrayList<>();
+            for (String column : columns) {
+                if (!contains(keyColumns, column)) {
+                    updates.add(column + " = VALUES(" + column + ")");
+                }
+            }
+            return "INSERT INTO " + table + " (" + String.join(", ", columns) + ") VALUES " + rows(columns.length, rows) +
+                    " ON DUPLICATE KEY UPDATE " + String.join(", ", updates);
+        }
+
+        @Override
+        public String upsertIncrement(String table, String[] keyColumns, String[] keyTypes, String counterColumn, int rows) {
+            return "INSERT INTO " + table + " (" + String.join(", ", keyColumns) + ", " + counterColumn + ") VALUES " +
+                    rows(keyColumns.length + 1, rows) +
+                    " ON DUPLICATE KEY UPDATE " + counterColumn + " = " + counterColumn + " + VALUES(" + counterColumn + ")";
+        }
+
+        @Override
+        public String uuidExpression() {
+            return "UUID()";
+        }
+    },
+
+    H2 {
+        @Override
+        public String upsert(String table, String[] columns, String[] keyColumns, int rows) {
+            return "MERGE INTO " + table + " (" + String.join(", ", columns) + ") KEY(" + String.join(", ", keyColumns) +
+                    ") VALUES " + rows(columns.length, rows);
+        }
+
+        @Override
+        public String upsertIncrement(String table, String[] keyColumns, String[] keyTypes, String counterColumn, int rows) {
+            // MERGE ... KEY 只能覆盖，累加需要 MERGE ... USING；VALUES 中的参数需显式类型
+            List<String> casts = new ArrayList<>();
+            for (String keyType : keyTypes) {
+                casts.add("CAST(? AS " + keyType + ")");
+            }
+            casts.add("CAST(? AS INT)");
+            String row = "(" + String.join(", ", casts) + ")";
+
+            List<String> on = new ArrayList<>();
+            List<String> sourceValues = new ArrayList<>();
+            for (String keyColumn : keyColumns) {
+                on.add("t." + keyColumn + " = s." + keyColumn);
+                sourceValues.add("s." + keyColumn);
+            }
+            sourceValues.add("s." + counterColumn);
+            String columns = String.join(", ", keyColumns) + ", " + counterColumn;
+            return "MERGE INTO " + table + " t USING (VALUES " + String.join(", ", Collections.nCopies(rows, row)) + ") " +
+                    "s(" + columns + ") ON " + String.join(" AND ", on) +
+                    " WHEN MATCHED THEN UPDATE SET " + counterColumn + " = t." + counterColumn + " + s." + counterColumn +
+                    " WHEN NOT MATCHED THEN INSERT (" + columns + ") VALUES (" + String.join(", ", sourceValues) + ")";
+        }
+
+        @Override
+        public String uuidExpression() {
+            return "CAST(RANDOM_UUID() AS VARCHAR(36))";
+        }
+    };
+
+    /**
+     * 按唯一键插入或覆盖：键已存在时用新值覆盖其余列
+     *
+     * @param columns    插入的列（每行按此顺序绑定参数）
+     * @param keyColumns 唯一键列（必须包含在 columns 中）
+     * @param rows       一条语句写入的行数（多行 VALUES）
+     */
+    public abstract String upsert(String table, String[] columns, String[] keyColumns, int rows);
+
+    /**
+     * 按唯一键累加计数：键不存在时插入，已存在时把计数列加上新值
+     * 每行按 keyColumns 顺序绑定键，最后绑定计数（INT）
+     *
+     * @param keyTypes 各键列的SQL类型（H2 的 VALUES 参数需要显式类型）
+     * @param rows     一条语句写入的行数（多行 VALUES，同一语句中的键不能重复）
+     */
+    public abstract String upsertIncrement(String table, String[] keyColumns, String[] keyTypes, String counterColumn, int rows);
+
+    /**
+     * 在SQL中生成随机UUID字符串的表达式
+     */
+    public abstract String uuidExpression();
+
+    /**
+     * 根据连接的数据库产品名确定方言
+     */
+    public static SqlDialect fromConnection(Connection conn) throws SQLException {
+        String dbName = conn.getMetaData().getDatabaseProductName().toLowerCase();
+        return dbName.contains("mysql") || dbName.contains("mariadb") ? MYSQL : H2;
+    }
+
+    private static String rows(int columnCount, int rows) {
+        String row = "(" + String.join(", ", Collections.nCopies(columnCount, "?")) + ")";
+        return String.join(", ", Collections.nCopies(rows, row));
+    }
+
+    private static boolean contains(String[] values, String value) {
+        for (String candidate : values) {
+            if (candidate.equals(value)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
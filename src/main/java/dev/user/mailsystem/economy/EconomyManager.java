@@ -6,9 +6,13 @@ import org.bukkit.entity.Player;
 
 import java.math.BigDecimal;
 import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 /**
  * 经济管理器 - XConomy软依赖支持
+ * 经济插件可能访问自己的数据库，发送流程中的扣费和退款通过 {@link #runAsync} 在专用线程上执行，不阻塞全局区域
  */
 public class EconomyManager {
 
@@ -16,10 +20,46 @@ public class EconomyManager {
     private XConomyAPI xconomyAPI;
     private boolean enabled = false;
 
+    // 单线程执行经济操作，同一玩家的扣费和退款按提交顺序执行
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "MailSystem-Economy");
+        thread.setDaemon(true);
+        return thread;
+    });
+
     public EconomyManager(MailSystemPlugin plugin) {
         this.plugin = plugin;
     }
 
+    /**
+     * 在经济线程上执行操作（结果需要回到全局区域时由调用方自行调度）
+     */
+    public void runAsync(Runnable task) {
+        executor.execute(() -> {
+            try {
+                task.run();
+            } catch (Exception e) {
+                plugin.getLogger().severe("经济操作执行错误: " + e.getMessage());
+                e.printStackTrace();
+            }
+        });
+    }
+
+    /**
+     * 停止经济线程，等待已提交的操作完成
+     */
+    public void shutdown() {
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(5, TimeUnit.SECONDS)) {
+                plugin.getLogger().warning("经济操作未在5秒内完成，强制停止");
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+        }
+    }
+
     /**
      * 尝试加载经济插件
      */
@@ -91,6 +131,22 @@ public class EconomyManager {
         }
     }
 
+    /**
+     * 扣除玩家金钱（按UUID，可在经济线程中使用）
+     */
+    public boolean withdraw(UUID uuid, String playerName, double amount) {
+        if (!isEnabled()) return true;
+        if (amount <= 0) return true;
+
+        try {
+            int result = xconomyAPI.changePlayerBalance(uuid, playerName, BigDecimal.valueOf(amount), false);
+            return result == 0;
+        } catch (Exception e) {
+            plugin.getLogger().warning("扣除金钱失败: " + e.getMessage());
+            return false;
+        }
+    }
+
     /**
      * 给玩家增加金钱
      */
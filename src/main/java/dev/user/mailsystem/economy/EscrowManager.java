@@ -0,0 +1,486 @@
+package dev.user.mailsystem.economy;
+
+import dev.user.mailsystem.MailSystemPlugin;
+import dev.user.mailsystem.api.draft.BatchSendResult;
+import dev.user.mailsystem.database.DatabaseQueue;
+import dev.user.mailsystem.mail.pipeline.SendContext;
+import io.papermc.paper.threadedregions.scheduler.ScheduledTask;
+import org.bukkit.Bukkit;
+import org.bukkit.entity.Player;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/**
+ * 扣费托管管理器 - 发送邮件的邮费和金币附件先扣除并记入 mail_escrow，发送结束后结算
+ * <p>
+ * 状态流转：PENDING（扣费前）-> HELD（已扣费，发送中）-> SETTLED（全部送达）或 REFUNDING（部分失败，待退款）-> REFUNDED。
+ * 扣费和退款在经济线程上执行，不阻塞全局区域；待退款记录由定时任务按付款人合并后批量退还。
+ * 邮件写入时在同一事务中记录到 mail_escrow_deliveries；启动时本服遗留的 HELD 记录（发送中途停服）
+ * 按送达记录核对，items 中没有送达记录的邮件费用转为待退款；
+ * 遗留的 PENDING 记录（扣费过程中崩溃）无法确认是否已扣除，按已扣除全额退还。
+ * 退款为“至少一次”：退还后、标记完成前停服时，下次启动会再次退还该批
+ */
+public class EscrowManager {
+
+    public static final String STATUS_PENDING = "PENDING";
+    public static final String STATUS_HELD = "HELD";
+    public static final String STATUS_SETTLED = "SETTLED";
+    public static final String STATUS_REFUNDING = "REFUNDING";
+    public static final String STATUS_REFUNDED = "REFUNDED";
+
+    private static final int REFUND_BATCH_SIZE = 500;
+    private static final long REFUND_INTERVAL_TICKS = 20 * 5;
+    private static final long RETENTION_MILLIS = 7L * 24 * 60 * 60 * 1000;
+    private static final long PRUNE_INTERVAL_MILLIS = 60L * 60 * 1000;
+
+    private final MailSystemPlugin plugin;
+    private final AtomicBoolean refunding = new AtomicBoolean(false);
+    private ScheduledTask refundTask;
+    private volatile long lastPruneTime;
+
+    public EscrowManager(MailSystemPlugin plugin) {
+        this.plugin = plugin;
+    }
+
+    /**
+     * 启动：核对本服遗留的托管记录，并开始定时批量退款
+     */
+    public void start() {
+        recoverHeld();
+        refundTask = Bukkit.getGlobalRegionScheduler().runAtFixedRate(plugin, task -> processRefunds(),
+                REFUND_INTERVAL_TICKS, REFUND_INTERVAL_TICKS);
+    }
+
+    public void stop() {
+        if (refundTask != null && !refundTask.isCancelled()) {
+            refundTask.cancel();
+        }
+    }
+
+    // ==================== 扣费 ====================
+
+    /**
+     * 托管扣费结果
+     *
+     * @param status   结果
+     * @param escrowId 托管ID（仅 RESERVED 时有值）
+     * @param balance  扣费失败时的当前余额
+     */
+    public record Reservation(Status status, String escrowId, double balance) {
+        public enum Status {
+            RESERVED,
+            INSUFFICIENT_FUNDS,
+            FAILED
+        }
+    }
+
+    /**
+     * 在经济线程上扣除 charged 的总费用，回调在全局区域执行
+     * 同一个经济任务内依次：写入 PENDING 托管记录 -> 扣除 -> 标记为 HELD（扣除失败时删除记录）。
+     * 账本直接在经济线程上写入而不经过数据库队列，停服时经济线程会执行完已提交的任务，
+     * 不会出现已扣费但没有托管记录的情况
+     *
+     * @param charged 需要扣费的上下文（费用已计算）
+     */
+    public void reserve(UUID payerUuid, String payerName, List<SendContext> charged, double totalCost,
+                        Consumer<Reservation> callback) {
+        EconomyManager economy = plugin.getEconomyManager();
+        String escrowId = UUID.randomUUID().toString();
+        String items = encodeItems(charged);
+
+        economy.runAsync(() -> {
+            try (Connection conn = plugin.getDatabaseManager().getConnection()) {
+                insertEscrow(conn, escrowId, payerUuid, payerName, totalCost, items);
+            } catch (SQLException e) {
+                plugin.getLogger().severe("写入托管记录失败: " + e.getMessage());
+                runGlobal(() -> callback.accept(new Reservation(Reservation.Status.FAILED, null, 0)));
+                return;
+            }
+
+            // XConomy 的扣除在余额不足时返回失败，无需先查询余额
+            if (!economy.withdraw(payerUuid, payerName, totalCost)) {
+                double balance = economy.getBalance(payerUuid);
+                try (Connection conn = plugin.getDatabaseManager().getConnection()) {
+                    deleteEscrow(conn, escrowId);
+                } catch (SQLException e) {
+                    // 留下的 PENDING 记录在下次启动时按未确认扣费退还
+                    plugin.getLogger().severe("删除未扣费的托管记录失败: " + escrowId + " - " + e.getMessage());
+                }
+                runGlobal(() -> callback.accept(new Reservation(Reservation.Status.INSUFFICIENT_FUNDS, null, balance)));
+                return;
+            }
+
+            try (Connection conn = plugin.getDatabaseManager().getConnection()) {
+                markHeld(conn, escrowId);
+            } catch (SQLException e) {
+                // 无法确认托管：不继续发送，立即退还
+                plugin.getLogger().severe("标记托管记录失败，退还已扣费用: " + e.getMessage());
+                if (economy.deposit(payerUuid, totalCost)) {
+                    try (Connection conn = plugin.getDatabaseManager().getConnection()) {
+                        deleteEscrow(conn, escrowId);
+                    } catch (SQLException deleteError) {
+                        plugin.getLogger().severe("删除已退还的托管记录失败，下次启动可能重复退还: " + escrowId);
+                    }
+                } else {
+                    plugin.getLogger().severe("退款失败，托管记录保留为待核对: " + payerName + " (" + payerUuid + ") 金额 " + totalCost);
+                }
+                runGlobal(() -> callback.accept(new Reservation(Reservation.Status.FAILED, null, 0)));
+                return;
+            }
+
+            runGlobal(() -> callback.accept(new Reservation(Reservation.Status.RESERVED, escrowId, 0)));
+        });
+    }
+
+    private void insertEscrow(Connection conn, String escrowId, UUID payerUuid, String payerName, double amount,
+                              String items) throws SQLException {
+        long now = System.currentTimeMillis();
+        String sql = "INSERT INTO mail_escrow (id, payer_uuid, payer_name, amount, refund_amount, items, status, server_id, " +
+                "created_at, updated_at) VALUES (?, ?, ?, ?, 0, ?, ?, ?, ?, ?)";
+        try (PreparedStatement ps = conn.prepareStatement(sql)) {
+            ps.setString(1, escrowId);
+            ps.setString(2, payerUuid.toString());
+            ps.setString(3, payerName != null ? payerName : "");
+            ps.setDouble(4, amount);
+            ps.setString(5, items);
+            ps.setString(6, STATUS_PENDING);
+            ps.setString(7, getServerId());
+            ps.setLong(8, now);
+            ps.setLong(9, now);
+            ps.executeUpdate();
+        }
+    }
+
+    private void markHeld(Connection conn, String escrowId) throws SQLException {
+        try (PreparedStatement ps = conn.prepareStatement(
+                "UPDATE mail_escrow SET status = ?, updated_at = ? WHERE id = ? AND status = ?")) {
+            ps.setString(1, STATUS_HELD);
+            ps.setLong(2, System.currentTimeMillis());
+            ps.setString(3, escrowId);
+            ps.setString(4, STATUS_PENDING);
+            ps.executeUpdate();
+        }
+    }
+
+    private void deleteEscrow(Connection conn, String escrowId) throws SQLException {
+        try (PreparedStatement ps = conn.prepareStatement("DELETE FROM mail_escrow WHERE id = ? AND status = ?")) {
+            ps.setString(1, escrowId);
+            ps.setString(2, STATUS_PENDING);
+            ps.executeUpdate();
+        }
+    }
+
+    // ==================== 结算 ====================
+
+    /**
+     * 发送流程结束后结算：未成功或幂等键冲突的上下文的费用转为待退款，全部成功的托管直接结清
+     * 在发送结果回调之前调用（全局区域线程）
+     */
+    public void settle(List<SendContext> contexts, BatchSendResult result) {
+        Map<String, Double> refunds = new LinkedHashMap<>();
+        Set<UUID> succeeded = new HashSet<>(result.getSuccessReceivers());
+        for (SendContext ctx : contexts) {
+            String escrowId = ctx.getEscrowId();
+            if (escrowId == null) {
+                continue;
+            }
+            // 未送达，或幂等键冲突未写入新邮件（原邮件已由其他请求送达并付费）
+            boolean delivered = succeeded.contains(ctx.getReceiverUuid()) && !ctx.isDuplicate();
+            double refund = delivered ? 0 : ctx.getCalculatedCost();
+            refunds.merge(escrowId, refund, Double::sum);
+        }
+        if (refunds.isEmpty()) {
+            return;
+        }
+
+        boolean hasRefund = refunds.values().stream().anyMatch(amount -> amount > 0);
+        plugin.getDatabaseQueue().submit("settleEscrow", conn -> {
+            updateSettlement(conn, refunds);
+            return null;
+        }, ignored -> {
+            if (hasRefund) {
+                processRefunds();
+            }
+        }, error -> plugin.getLogger().severe("托管结算失败，将在下次启动时核对: " + error.getMessage()));
+    }
+
+    private void updateSettlement(Connection conn, Map<String, Double> refunds) throws SQLException {
+        String sql = "UPDATE mail_escrow SET status = ?, refund_amount = ?, updated_at = ? WHERE id = ? AND status = ?";
+        long now = System.currentTimeMillis();
+        try (PreparedStatement ps = conn.prepareStatement(sql)) {
+            for (Map.Entry<String, Double> entry : refunds.entrySet()) {
+                double refund = entry.getValue();
+                ps.setString(1, refund > 0 ? STATUS_REFUNDING : STATUS_SETTLED);
+                ps.setDouble(2, refund);
+                ps.setLong(3, now);
+                ps.setString(4, entry.getKey());
+                ps.setString(5, STATUS_HELD);
+                ps.addBatch();
+            }
+            ps.executeBatch();
+        }
+    }
+
+    // ==================== 退款 ====================
+
+    /**
+     * 批量退款：读取本服待退款记录，按付款人合并后在经济线程上退还，成功的记录标记为已退款
+     * 同一时间只有一轮在执行
+     */
+    public void processRefunds() {
+        if (!plugin.getEconomyManager().isEnabled() || !refunding.compareAndSet(false, true)) {
+            return;
+        }
+        String serverId = getServerId();
+        plugin.getDatabaseQueue().submit("loadEscrowRefunds", conn -> {
+            pruneIfDue(conn);
+            return loadRefunds(conn, serverId);
+        }, refunds -> {
+            if (refunds.isEmpty()) {
+                refunding.set(false);
+                return;
+            }
+
+            Map<UUID, List<PendingRefund>> byPayer = new LinkedHashMap<>();
+            for (PendingRefund refund : refunds) {
+                byPayer.computeIfAbsent(refund.payerUuid(), k -> new ArrayList<>()).add(refund);
+            }
+
+            EconomyManager economy = plugin.getEconomyManager();
+            economy.runAsync(() -> {
+                List<String> refundedIds = new ArrayList<>();
+                Map<UUID, Double> refundedAmounts = new HashMap<>();
+                for (Map.Entry<UUID, List<PendingRefund>> entry : byPayer.entrySet()) {
+                    double total = 0;
+                    for (PendingRefund refund : entry.getValue()) {
+                        total += refund.amount();
+                    }
+                    if (!economy.deposit(entry.getKey(), total)) {
+                        // 保持 REFUNDING，下一轮重试
+                        continue;
+                    }
+                    for (PendingRefund refund : entry.getValue()) {
+                        refundedIds.add(refund.id());
+                    }
+                    refundedAmounts.put(entry.getKey(), total);
+                }
+
+                plugin.getDatabaseQueue().submit("markEscrowRefunded", conn -> {
+                    markRefunded(conn, refundedIds);
+                    return null;
+                }, ignored -> {
+                    refunding.set(false);
+                    refundedAmounts.forEach(this::notifyRefund);
+                }, error -> {
+                    refunding.set(false);
+                    plugin.getLogger().severe("退款已到账但标记失败，下次可能重复退款: " + refundedIds.size() + " 条");
+                });
+            });
+        }, error -> refunding.set(false));
+    }
+
+    private List<PendingRefund> loadRefunds(Connection conn, String serverId) throws SQLException {
+        List<PendingRefund> refunds = new ArrayList<>();
+        String sql = "SELECT id, payer_uuid, refund_amount FROM mail_escrow WHERE status = ? AND server_id = ? " +
+                "ORDER BY updated_at LIMIT ?";
+        try (PreparedStatement ps = conn.prepareStatement(sql)) {
+            ps.setString(1, STATUS_REFUNDING);
+            ps.setString(2, serverId);
+            ps.setInt(3, REFUND_BATCH_SIZE);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    refunds.add(new PendingRefund(rs.getString("id"), UUID.fromString(rs.getString("payer_uuid")),
+                            rs.getDouble("refund_amount")));
+                }
+            }
+        }
+        return refunds;
+    }
+
+    private void markRefunded(Connection conn, List<String> escrowIds) throws SQLException {
+        if (escrowIds.isEmpty()) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        DatabaseQueue.inTransaction(conn, c -> {
+            try (PreparedStatement ps = c.prepareStatement(
+                    "UPDATE mail_escrow SET status = ?, updated_at = ? WHERE id = ? AND status = ?")) {
+                for (String escrowId : escrowIds) {
+                    ps.setString(1, STATUS_REFUNDED);
+                    ps.setLong(2, now);
+                    ps.setString(3, escrowId);
+                    ps.setString(4, STATUS_REFUNDING);
+                    ps.addBatch();
+                }
+                ps.executeBatch();
+            }
+            return null;
+        });
+    }
+
+    private void notifyRefund(UUID payerUuid, double amount) {
+        Player player = Bukkit.getPlayer(payerUuid);
+        if (player != null && player.isOnline()) {
+            player.getScheduler().run(plugin, task -> player.sendMessage("§e[邮件系统] 未送达邮件的费用已退还: §f" +
+                    plugin.getEconomyManager().format(amount)), null);
+        }
+    }
+
+    /**
+     * 清理超过保留时间的已结清和已退款记录及其送达记录（每小时最多一次）
+     */
+    private void pruneIfDue(Connection conn) throws SQLException {
+        long now = System.currentTimeMillis();
+        if (now - lastPruneTime < PRUNE_INTERVAL_MILLIS) {
+            return;
+        }
+        lastPruneTime = now;
+        DatabaseQueue.inTransaction(conn, c -> {
+            try (PreparedStatement ps = c.prepareStatement("DELETE FROM mail_escrow_deliveries WHERE escrow_id IN " +
+                    "(SELECT id FROM mail_escrow WHERE status IN (?, ?) AND updated_at < ?)")) {
+                ps.setString(1, STATUS_SETTLED);
+                ps.setString(2, STATUS_REFUNDED);
+                ps.setLong(3, now - RETENTION_MILLIS);
+                ps.executeUpdate();
+            }
+            try (PreparedStatement ps = c.prepareStatement(
+                    "DELETE FROM mail_escrow WHERE status IN (?, ?) AND updated_at < ?")) {
+                ps.setString(1, STATUS_SETTLED);
+                ps.setString(2, STATUS_REFUNDED);
+                ps.setLong(3, now - RETENTION_MILLIS);
+                ps.executeUpdate();
+            }
+            return null;
+        });
+    }
+
+    // ==================== 启动核对 ====================
+
+    /**
+     * 核对本服遗留的托管记录：
+     * HELD 记录中有送达记录的邮件视为送达（邮件之后被领取删除仍计为送达），其余费用转为待退款；
+     * PENDING 记录停在扣费前后之间，无法确认是否已扣除，全额转为待退款（宁可多退，不吞玩家的钱）
+     */
+    private void recoverHeld() {
+        String serverId = getServerId();
+        // 只核对启动前的记录，启动后立即开始的发送不受影响
+        long startedAt = System.currentTimeMillis();
+        plugin.getDatabaseQueue().submit("recoverEscrow", conn -> {
+            Map<String, Map<String, Double>> held = new LinkedHashMap<>();
+            try (PreparedStatement ps = conn.prepareStatement(
+                    "SELECT id, items FROM mail_escrow WHERE status = ? AND server_id = ? AND created_at < ?")) {
+                ps.setString(1, STATUS_HELD);
+                ps.setString(2, serverId);
+                ps.setLong(3, startedAt);
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        held.put(rs.getString("id"), decodeItems(rs.getString("items")));
+                    }
+                }
+            }
+
+            Map<String, Double> refunds = new LinkedHashMap<>();
+            for (Map.Entry<String, Map<String, Double>> entry : held.entrySet()) {
+                Set<String> delivered = queryDeliveries(conn, entry.getKey());
+                double refund = 0;
+                for (Map.Entry<String, Double> item : entry.getValue().entrySet()) {
+                    if (!delivered.contains(item.getKey())) {
+                        refund += item.getValue();
+                    }
+                }
+                refunds.put(entry.getKey(), refund);
+            }
+            int pending = DatabaseQueue.inTransaction(conn, c -> {
+                updateSettlement(c, refunds);
+                try (PreparedStatement ps = c.prepareStatement("UPDATE mail_escrow SET status = ?, refund_amount = amount, " +
+                        "updated_at = ? WHERE status = ? AND server_id = ? AND created_at < ?")) {
+                    ps.setString(1, STATUS_REFUNDING);
+                    ps.setLong(2, System.currentTimeMillis());
+                    ps.setString(3, STATUS_PENDING);
+                    ps.setString(4, serverId);
+                    ps.setLong(5, startedAt);
+                    return ps.executeUpdate();
+                }
+            });
+            return new int[]{held.size(), pending};
+        }, counts -> {
+            if (counts[1] > 0) {
+                plugin.getLogger().warning("发现 " + counts[1] + " 条未确认的扣费托管记录（扣费过程中停服），已按已扣费全额退还");
+            }
+            if (counts[0] > 0) {
+                plugin.getLogger().info("已核对 " + counts[0] + " 条未完成的扣费托管记录");
+            }
+            if (counts[0] + counts[1] > 0) {
+                processRefunds();
+            }
+        });
+    }
+
+    private Set<String> queryDeliveries(Connection conn, String escrowId) throws SQLException {
+        Set<String> delivered = new HashSet<>();
+        try (PreparedStatement ps = conn.prepareStatement("SELECT mail_id FROM mail_escrow_deliveries WHERE escrow_id = ?")) {
+            ps.setString(1, escrowId);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    delivered.add(rs.getString("mail_id"));
+                }
+            }
+        }
+        return delivered;
+    }
+
+    // ==================== 工具方法 ====================
+
+    private static String encodeItems(List<SendContext> charged) {
+        StringBuilder sb = new StringBuilder();
+        for (SendContext ctx : charged) {
+            if (sb.length() > 0) {
+                sb.append(',');
+            }
+            sb.append(ctx.getMailId()).append(':').append(ctx.getCalculatedCost());
+        }
+        return sb.toString();
+    }
+
+    private static Map<String, Double> decodeItems(String items) {
+        Map<String, Double> decoded = new LinkedHashMap<>();
+        if (items == null || items.isEmpty()) {
+            return decoded;
+        }
+        for (String item : items.split(",")) {
+            int separator = item.indexOf(':');
+            if (separator > 0) {
+                decoded.put(item.substring(0, separator), Double.parseDouble(item.substring(separator + 1)));
+            }
+        }
+        return decoded;
+    }
+
+    private void runGlobal(Runnable task) {
+        Bukkit.getGlobalRegionScheduler().run(plugin, scheduledTask -> task.run());
+    }
+
+    private String getServerId() {
+        String serverId = plugin.getConfig().getString("server.id", "");
+        if (serverId.isEmpty()) {
+            serverId = Bukkit.getServer().getName();
+        }
+        return serverId;
+    }
+
+    private record PendingRefund(String id, UUID payerUuid, double amount) {
+    }
+}
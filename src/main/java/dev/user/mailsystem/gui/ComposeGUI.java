@@ -1,10 +1,12 @@
 package dev.user.mailsystem.gui;
 
 import dev.user.mailsystem.MailSystemPlugin;
+import dev.user.mailsystem.api.draft.AttachmentPayload;
 import dev.user.mailsystem.api.draft.BatchSendResult;
 import dev.user.mailsystem.api.draft.MailDraft;
 import dev.user.mailsystem.api.draft.SendOptions;
 import dev.user.mailsystem.api.draft.SendResult;
+import dev.user.mailsystem.mail.BroadcastManager;
 import dev.user.mailsystem.mail.Mail;
 import dev.user.mailsystem.util.ItemBuilder;
 import net.kyori.adventure.text.Component;
@@ -875,37 +877,47 @@ public class ComposeGUI implements InventoryHolder {
     }
 
     /**
-     * 群发邮件给近期登录玩家
+     * 群发邮件给近期登录玩家（后台任务分批发送）
      */
     private void broadcastToRecent(Player sender, int days) {
         long sinceTime = System.currentTimeMillis() - (days * 24L * 60 * 60 * 1000);
-        plugin.getPlayerCacheManager().getPlayersLoggedInSince(sinceTime, players ->
-            broadcastToTargets(sender, players, days + "天内登录的玩家", true));
+        submitBroadcastJob(sender, sinceTime, days + "天内登录的玩家");
     }
 
     /**
-     * 群发邮件给所有玩家
+     * 群发邮件给所有玩家（后台任务分批发送）
      */
     private void broadcastToAll(Player sender) {
-        plugin.getPlayerCacheManager().getAllCachedPlayers(players ->
-            broadcastToTargets(sender, players, "所有玩家", true));
+        submitBroadcastJob(sender, 0, "所有玩家");
     }
 
     /**
-     * 通用群发邮件方法
+     * 提交群发任务，进度和结果由群发管理器直接通知发送者
      * @param sender 发送者
-     * @param targets 目标玩家 Map<UUID, 玩家名>
+     * @param sinceTime 最近登录时间下限（0表示所有玩家）
      * @param targetDesc 目标描述（用于提示消息）
-     * @param checkAttach 是否检查附件权限（在线玩家群发时已经在界面检查过）
      */
-    private void broadcastToTargets(Player sender, Map<UUID, String> targets, String targetDesc, boolean checkAttach) {
+    private void submitBroadcastJob(Player sender, long sinceTime, String targetDesc) {
         syncAttachmentsToData(sender);
         GUIManager.ComposeData data = guiManager.getPlayerComposeData(sender.getUniqueId());
+        if (!checkBroadcastPermissions(sender, data, true)) {
+            return;
+        }
 
-        String title = data.getTitle();
         String content = data.getContent() != null ? data.getContent() : "";
+        plugin.getBroadcastManager().submit(sender, new BroadcastManager.BroadcastRequest(
+                data.getTitle(), content, AttachmentPayload.of(data.getAttachments()), data.getMoneyAttachment(),
+                sinceTime, targetDesc, null));
+        guiManager.setPlayerComposeData(sender.getUniqueId(), null);
+    }
+
+    /**
+     * 检查群发附件权限，不通过时提示发送者并结束本次群发
+     * @param checkAttach 是否检查物品附件权限（在线玩家群发时已经在界面检查过）
+     * @return 是否通过
+     */
+    private boolean checkBroadcastPermissions(Player sender, GUIManager.ComposeData data, boolean checkAttach) {
         List<ItemStack> attachments = data.getAttachments();
-        double moneyAttachment = data.getMoneyAttachment();
 
         // 检查附件权限
         if (checkAttach && !attachments.isEmpty()) {
@@ -913,27 +925,50 @@ public class ComposeGUI implements InventoryHolder {
                 sender.sendMessage("§c你没有权限发送物品附件！");
                 returnAttachmentsOnClose(sender);
                 data.getProcessing().set(false);
-                return;
+                return false;
             }
             if (attachments.size() > plugin.getMailConfig().getMaxAttachments()) {
                 sender.sendMessage("§c附件数量超过限制！");
                 returnAttachmentsOnClose(sender);
                 data.getProcessing().set(false);
-                return;
+                return false;
             }
         }
 
         // 检查金币附件权限（群发使用systemMail选项，不扣费，所以只检查权限不检查余额）
-        if (moneyAttachment > 0) {
+        if (data.getMoneyAttachment() > 0) {
             if (!sender.hasPermission("mailsystem.attach.money") && !sender.hasPermission("mailsystem.admin")) {
                 sender.sendMessage("§c你没有权限发送金币附件！");
                 data.getProcessing().set(false);
-                return;
+                return false;
             }
             // 注意：群发不扣除发送者的金币，金币由服务器承担
         }
+        return true;
+    }
+
+    /**
+     * 通用群发邮件方法
+     * @param sender 发送者
+     * @param targets 目标玩家 Map<UUID, 玩家名>
+     * @param targetDesc 目标描述（用于提示消息）
+     * @param checkAttach 是否检查附件权限（在线玩家群发时已经在界面检查过）
+     */
+    private void broadcastToTargets(Player sender, Map<UUID, String> targets, String targetDesc, boolean checkAttach) {
+        syncAttachmentsToData(sender);
+        GUIManager.ComposeData data = guiManager.getPlayerComposeData(sender.getUniqueId());
+
+        String title = data.getTitle();
+        String content = data.getContent() != null ? data.getContent() : "";
+        List<ItemStack> attachments = data.getAttachments();
+        double moneyAttachment = data.getMoneyAttachment();
+
+        if (!checkBroadcastPermissions(sender, data, checkAttach)) {
+            return;
+        }
 
-        // 构建MailDraft列表并使用新API批量发送
+        // 构建MailDraft列表并使用新API批量发送（所有草稿共享同一份附件载荷）
+        AttachmentPayload payload = AttachmentPayload.of(attachments);
         List<MailDraft> drafts = new ArrayList<>();
         for (Map.Entry<UUID, String> entry : targets.entrySet()) {
             MailDraft draft = MailDraft.builder()
@@ -941,7 +976,7 @@ public class ComposeGUI implements InventoryHolder {
                     .receiver(entry.getKey(), entry.getValue())
                     .title(title)
                     .content(content)
-                    .attachments(attachments.isEmpty() ? null : new ArrayList<>(attachments))
+                    .sharedAttachments(payload)
                     .moneyAttachment(moneyAttachment)
                     .build();
             drafts.add(draft);
@@ -31,6 +31,14 @@ public class MailListener implements Listener, Consumer<ScheduledTask> {
         // 更新玩家缓存
         plugin.getPlayerCacheManager().updatePlayerCache(player.getUniqueId(), player.getName());
 
+        // 登记在线位置，其他服务器据此把该玩家的事件路由到本服
+        plugin.getPresenceManager().onJoin(player.getUniqueId());
+
+        // 本服人数增加：跨服轮询回到最短间隔
+        if (plugin.getCrossServerNotifier() != null) {
+            plugin.getCrossServerNotifier().hint();
+        }
+
         int delay = 20 * 3;
         Bukkit.getGlobalRegionScheduler().runDelayed(plugin, task -> {
             plugin.getMailManager().getUnreadCount(player.getUniqueId(), unreadCount -> {
@@ -45,8 +53,9 @@ public class MailListener implements Listener, Consumer<ScheduledTask> {
     @EventHandler
     public void onPlayerQuit(PlayerQuitEvent event) {
         Player player = event.getPlayer();
-        // 清理邮件缓存
-        plugin.getMailManager().clearPlayerCache(player.getUniqueId());
+        plugin.getPresenceManager().onQuit(player.getUniqueId());
+        // 释放邮件缓存（保留空收件箱标记）
+        plugin.getMailManager().releasePlayerCache(player.getUniqueId());
         // 清理GUI数据和聊天监听器
         if (plugin.getGuiManager() != null) {
             // 注销聊天监听器，防止内存泄漏
@@ -0,0 +1,416 @@
+package dev.user.mailsystem.mail;
+
+import dev.user.mailsystem.MailSystemPlugin;
+import dev.user.mailsystem.database.DatabaseQueue;
+import org.bukkit.Bukkit;
+import org.bukkit.entity.Player;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * 全服公告管理器 - 读取时合并的全局收件箱
+ * 一条公告只写一行（正文保存在 mail_bodies），读取收件箱时按受众条件合并为虚拟邮件；
+ * 玩家第一次操作公告（查看、领取、删除）时才写入回执，并把公告转为该玩家的普通邮件（共享同一正文），
+ * 之后的已读/领取/删除都走普通邮件的逻辑。从不登录的玩家不产生任何数据
+ */
+public class AnnouncementManager {
+
+    private final MailSystemPlugin plugin;
+    // 已合并到收件箱的虚拟邮件：虚拟邮件ID -> (公告ID, 玩家UUID)
+    // 玩家下线时移除该玩家的条目，离线玩家（管理员查看）的条目超过两个缓存TTL后清理
+    private final Map<UUID, VirtualMail> virtualMails = new ConcurrentHashMap<>();
+
+    public AnnouncementManager(MailSystemPlugin plugin) {
+        this.plugin = plugin;
+    }
+
+    /**
+     * 公告受众
+     */
+    public enum Audience {
+        ALL,        // 所有玩家
+        SEEN_SINCE, // 指定时间之后登录过的玩家
+        PERMISSION  // 拥有指定权限的玩家（仅在线时可判断）
+    }
+
+    /**
+     * 公告摘要
+     */
+    public record AnnouncementInfo(String id, String title, Audience audience, long sinceTime, String permission,
+                                   long sentTime, long expireTime, int receiptCount) {
+    }
+
+    /**
+     * 读取时合并的公告（权限受众需在全局区域线程中判断）
+     */
+    public record PendingAnnouncement(Mail mail, String permission) {
+    }
+
+    private record VirtualMail(UUID announcementId, UUID playerUuid, long registeredAt) {
+    }
+
+    // ==================== 公告管理 ====================
+
+    /**
+     * 发布全服公告
+     *
+     * @param sinceTime  SEEN_SINCE 受众的登录时间下限
+     * @param permission PERMISSION 受众的权限节点
+     */
+    public void create(Player sender, Audience audience, long sinceTime, String permission,
+                       String title, String content, Consumer<String> callback) {
+        String id = UUID.randomUUID().toString();
+        long now = System.currentTimeMillis();
+        long expireTime = plugin.getMailConfig().getMailExpirationDays() > 0
+                ? now + plugin.getMailConfig().getMailExpirationDays() * 24L * 60 * 60 * 1000
+                : 0;
+        String serverId = getServerId();
+
+        MailEventLog eventLog = plugin.getMailManager().getEventLog();
+        plugin.getDatabaseQueue().submit("createAnnouncement", conn -> eventLog.inTransaction(conn, c -> {
+            MailBodyStore.ensureBody(c, id, title, content, null, 0);
+            String sql = "INSERT INTO mail_announcements (id, body_id, sender_uuid, sender_name, audience, since_time, " +
+                    "permission, sent_time, expire_time, server_id) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+            try (PreparedStatement ps = c.prepareStatement(sql)) {
+                ps.setString(1, id);
+                ps.setString(2, id);
+                ps.setString(3, sender.getUniqueId().toString());
+                ps.setString(4, sender.getName());
+                ps.setString(5, audience.name());
+                ps.setLong(6, sinceTime);
+                ps.setString(7, permission);
+                ps.setLong(8, now);
+                ps.setLong(9, expireTime);
+                ps.setString(10, serverId);
+                ps.executeUpdate();
+            }
+            // 路由到所有服务器，各服务器清除收件箱缓存和空收件箱标记
+            eventLog.append(c, MailEventLog.EventType.ANNOUNCE, UUID.fromString(id), null,
+                    sender.getUniqueId(), sender.getName());
+            return id;
+        }), createdId -> {
+            // 本服写入的事件不会被本服轮询：直接清除本服的收件箱缓存（含最近下线玩家的空收件箱标记）
+            plugin.getMailManager().getCacheManager().onAnnouncement();
+            for (Player player : Bukkit.getOnlinePlayers()) {
+                if (audience == Audience.PERMISSION && !player.hasPermission(permission)) {
+                    continue;
+                }
+                player.sendMessage("§a[邮件系统] §e你收到了一条全服公告: §f" + title);
+            }
+            callback.accept(createdId);
+        }, error -> {
+            plugin.getLogger().warning("发布全服公告失败: " + error.getMessage());
+            callback.accept(null);
+        });
+    }
+
+    /**
+     * 撤回公告（已转为普通邮件的副本保留）
+     *
+     * @param idPrefix 公告ID前缀
+     */
+    public void remove(String idPrefix, Consumer<Boolean> callback) {
+        plugin.getDatabaseQueue().submit("removeAnnouncement", conn -> DatabaseQueue.inTransaction(conn, c -> {
+            String id = null;
+            try (PreparedStatement ps = c.prepareStatement("SELECT id FROM mail_announcements WHERE id LIKE ?")) {
+                ps.setString(1, idPrefix.toLowerCase() + "%");
+                try (ResultSet rs = ps.executeQuery()) {
+                    if (rs.next()) {
+                        id = rs.getString("id");
+                        if (rs.next()) {
+                            return null; // 前缀不唯一
+                        }
+                    }
+                }
+            }
+            if (id == null) {
+                return null;
+            }
+            deleteAnnouncement(c, id);
+            MailBodyStore.releaseBody(c, id);
+            return id;
+        }), removedId -> {
+            if (removedId != null) {
+                UUID announcementId = UUID.fromString(removedId);
+                virtualMails.values().removeIf(virtualMail -> virtualMail.announcementId().equals(announcementId));
+                for (Player player : Bukkit.getOnlinePlayers()) {
+                    plugin.getMailManager().getCacheManager().invalidate(player.getUniqueId());
+                }
+            }
+            callback.accept(removedId != null);
+        }, error -> callback.accept(false));
+    }
+
+    /**
+     * 列出未过期的公告
+     */
+    public void list(Consumer<List<AnnouncementInfo>> callback) {
+        plugin.getDatabaseQueue().submit("listAnnouncements", conn -> {
+            List<AnnouncementInfo> result = new ArrayList<>();
+            String sql = "SELECT a.id, b.title, a.audience, a.since_time, a.permission, a.sent_time, a.expire_time, " +
+                    "(SELECT COUNT(*) FROM mail_announcement_receipts r WHERE r.announcement_id = a.id) AS receipt_count " +
+                    "FROM mail_announcements a JOIN mail_bodies b ON b.id = a.body_id " +
+                    "WHERE a.expire_time = 0 OR a.expire_time > ? ORDER BY a.sent_time DESC";
+            try (PreparedStatement ps = conn.prepareStatement(sql)) {
+                ps.setLong(1, System.currentTimeMillis());
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        result.add(new AnnouncementInfo(rs.getString("id"), rs.getString("title"),
+                                parseAudience(rs.getString("audience")), rs.getLong("since_time"),
+                                rs.getString("permission"), rs.getLong("sent_time"), rs.getLong("expire_time"),
+                                rs.getInt("receipt_count")));
+                    }
+                }
+            }
+            return result;
+        }, callback, error -> callback.accept(new ArrayList<>()));
+    }
+
+    // ==================== 读取时合并 ====================
+
+    /**
+     * 在数据库线程中查询玩家尚未操作过的公告，生成虚拟邮件
+     */
+    public List<PendingAnnouncement> queryPending(Connection conn, UUID playerUuid) throws SQLException {
+        List<PendingAnnouncement> pending = new ArrayList<>();
+        String sql = "SELECT a.id, a.sender_uuid, a.sender_name, a.audience, a.permission, a.sent_time, a.expire_time, " +
+                "b.title, b.content, b.attachments, b.money_attachment " +
+                "FROM mail_announcements a JOIN mail_bodies b ON b.id = a.body_id " +
+                "WHERE (a.expire_time = 0 OR a.expire_time > ?) " +
+                "AND (a.audience <> ? OR EXISTS (SELECT 1 FROM player_cache p WHERE p.uuid = ? AND p.last_seen >= a.since_time)) " +
+                "AND NOT EXISTS (SELECT 1 FROM mail_announcement_receipts r WHERE r.announcement_id = a.id AND r.player_uuid = ?)";
+        String receiverName = null;
+        try (PreparedStatement ps = conn.prepareStatement(sql)) {
+            ps.setLong(1, System.currentTimeMillis());
+            ps.setString(2, Audience.SEEN_SINCE.name());
+            ps.setString(3, playerUuid.toString());
+            ps.setString(4, playerUuid.toString());
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    if (receiverName == null) {
+                        receiverName = queryPlayerName(conn, playerUuid);
+                    }
+                    UUID announcementId = UUID.fromString(rs.getString("id"));
+                    Mail mail = new Mail(UUID.fromString(rs.getString("sender_uuid")), rs.getString("sender_name"),
+                            playerUuid, receiverName, rs.getString("title"), rs.getString("content"));
+                    mail.setId(virtualMailId(announcementId, playerUuid));
+                    mail.setAnnouncementId(announcementId);
+                    mail.setSentTime(rs.getLong("sent_time"));
+                    mail.setExpireTime(rs.getLong("expire_time"));
+                    mail.setMoneyAttachment(rs.getDouble("money_attachment"));
+                    byte[] attachData = rs.getBytes("attachments");
+                    if (attachData != null) {
+                        mail.setRawAttachments(attachData, plugin.getAttachmentManager()::deserialize);
+                    }
+
+                    Audience audience = parseAudience(rs.getString("audience"));
+                    pending.add(new PendingAnnouncement(mail, audience == Audience.PERMISSION ? rs.getString("permission") : null));
+                    virtualMails.put(mail.getId(), new VirtualMail(announcementId, playerUuid, System.currentTimeMillis()));
+                }
+            }
+        }
+        return pending;
+    }
+
+    /**
+     * 在全局区域线程中按权限筛选公告（离线玩家无法判断权限，不显示权限受众的公告）
+     */
+    public List<Mail> filterVisible(UUID playerUuid, List<PendingAnnouncement> pending) {
+        List<Mail> visible = new ArrayList<>(pending.size());
+        Player player = null;
+        for (PendingAnnouncement announcement : pending) {
+            if (announcement.permission() != null) {
+                if (player == null) {
+                    player = Bukkit.getPlayer(playerUuid);
+                }
+                if (player == null || !player.hasPermission(announcement.permission())) {
+                    continue;
+                }
+            }
+            visible.add(announcement.mail());
+        }
+        return visible;
+    }
+
+    /**
+     * 玩家首次操作公告：写入回执并把公告转为该玩家的普通邮件（已在事务中时直接加入该事务）
+     *
+     * @param mailId 邮件ID（非虚拟邮件时不做任何操作）
+     * @return 是否新写入了邮件
+     */
+    public boolean materialize(Connection conn, UUID mailId) throws SQLException {
+        VirtualMail virtualMail = virtualMails.get(mailId);
+        if (virtualMail == null) {
+            return false;
+        }
+        boolean inserted = conn.getAutoCommit()
+                ? DatabaseQueue.inTransaction(conn, c -> insertMaterialized(c, mailId, virtualMail))
+                : insertMaterialized(conn, mailId, virtualMail);
+        virtualMails.remove(mailId);
+        return inserted;
+    }
+
+    /**
+     * 清空收件箱时隐藏玩家当前可见的公告
+     *
+     * @param announcementIds 玩家当前可见的公告（由 {@link #queryPending} 和 {@link #filterVisible} 得到）
+     * @return 新写入回执的公告数量
+     */
+    public int dismissAll(Connection conn, UUID playerUuid, Collection<UUID> announcementIds) throws SQLException {
+        if (announcementIds.isEmpty()) {
+            return 0;
+        }
+        String sql = "INSERT INTO mail_announcement_receipts (announcement_id, player_uuid, created_at) " +
+                "SELECT a.id, ?, ? FROM mail_announcements a WHERE a.id = ? AND NOT EXISTS " +
+                "(SELECT 1 FROM mail_announcement_receipts r WHERE r.announcement_id = a.id AND r.player_uuid = ?)";
+        int dismissed = 0;
+        try (PreparedStatement ps = conn.prepareStatement(sql)) {
+            long now = System.currentTimeMillis();
+            for (UUID announcementId : announcementIds) {
+                ps.setString(1, playerUuid.toString());
+                ps.setLong(2, now);
+                ps.setString(3, announcementId.toString());
+                ps.setString(4, playerUuid.toString());
+                dismissed += ps.executeUpdate();
+            }
+        }
+        virtualMails.values().removeIf(virtualMail -> virtualMail.playerUuid().equals(playerUuid));
+        return dismissed;
+    }
+
+    /**
+     * 玩家下线时移除其虚拟邮件
+     */
+    public void release(UUID playerUuid) {
+        virtualMails.values().removeIf(virtualMail -> virtualMail.playerUuid().equals(playerUuid));
+    }
+
+    /**
+     * 清理长时间未转换的虚拟邮件（保留两个缓存TTL，覆盖打开中的界面仍持有旧列表的情况）
+     */
+    public void cleanExpired() {
+        long cutoff = System.currentTimeMillis() - plugin.getMailConfig().getCacheTtl() * 2000L;
+        virtualMails.values().removeIf(virtualMail -> virtualMail.registeredAt() < cutoff);
+    }
+
+    /**
+     * 删除过期公告及其回执（正文由调用方随过期邮件一起回收）
+     *
+     * @param bodyIds 收集被删除公告引用的正文ID
+     * @return 删除的公告数量
+     */
+    public int pruneExpired(Connection conn, long now, Collection<String> bodyIds) throws SQLException {
+        List<String> expired = new ArrayList<>();
+        String sql = "SELECT id, body_id FROM mail_announcements WHERE expire_time > 0 AND expire_time < ?";
+        try (PreparedStatement ps = conn.prepareStatement(sql)) {
+            ps.setLong(1, now);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    expired.add(rs.getString("id"));
+                    bodyIds.add(rs.getString("body_id"));
+                }
+            }
+        }
+        for (String id : expired) {
+            deleteAnnouncement(conn, id);
+        }
+        if (!expired.isEmpty()) {
+            virtualMails.values().removeIf(virtualMail -> expired.contains(virtualMail.announcementId().toString()));
+        }
+        return expired.size();
+    }
+
+    // ==================== 内部方法 ====================
+
+    private boolean insertMaterialized(Connection conn, UUID mailId, VirtualMail virtualMail) throws SQLException {
+        String announcementId = virtualMail.announcementId().toString();
+        String playerUuid = virtualMail.playerUuid().toString();
+
+        String receiptSql = "SELECT 1 FROM mail_announcement_receipts WHERE announcement_id = ? AND player_uuid = ?";
+        try (PreparedStatement ps = conn.prepareStatement(receiptSql)) {
+            ps.setString(1, announcementId);
+            ps.setString(2, playerUuid);
+            try (ResultSet rs = ps.executeQuery()) {
+                if (rs.next()) {
+                    return false; // 已在其他服务器或之前操作过
+                }
+            }
+        }
+
+        String insertReceipt = "INSERT INTO mail_announcement_receipts (announcement_id, player_uuid, created_at) VALUES (?, ?, ?)";
+        try (PreparedStatement ps = conn.prepareStatement(insertReceipt)) {
+            ps.setString(1, announcementId);
+            ps.setString(2, playerUuid);
+            ps.setLong(3, System.currentTimeMillis());
+            ps.executeUpdate();
+        }
+
+        String insertMail = "INSERT INTO mails (id, sender_uuid, sender_name, receiver_uuid, receiver_name, " +
+                "title, content, attachments, money_attachment, sent_time, expire_time, server_id, is_read, is_claimed, body_id) " +
+                "SELECT ?, a.sender_uuid, a.sender_name, ?, COALESCE((SELECT MAX(p.player_name) FROM player_cache p WHERE p.uuid = ?), ''), " +
+                "'', NULL, NULL, 0, a.sent_time, a.expire_time, a.server_id, FALSE, FALSE, a.body_id " +
+                "FROM mail_announcements a WHERE a.id = ?";
+        try (PreparedStatement ps = conn.prepareStatement(insertMail)) {
+            ps.setString(1, mailId.toString());
+            ps.setString(2, playerUuid);
+            ps.setString(3, playerUuid);
+            ps.setString(4, announcementId);
+            return ps.executeUpdate() > 0;
+        }
+    }
+
+    private void deleteAnnouncement(Connection conn, String id) throws SQLException {
+        try (PreparedStatement ps = conn.prepareStatement("DELETE FROM mail_announcement_receipts WHERE announcement_id = ?")) {
+            ps.setString(1, id);
+            ps.executeUpdate();
+        }
+        try (PreparedStatement ps = conn.prepareStatement("DELETE FROM mail_announcements WHERE id = ?")) {
+            ps.setString(1, id);
+            ps.executeUpdate();
+        }
+    }
+
+    private String queryPlayerName(Connection conn, UUID playerUuid) throws SQLException {
+        try (PreparedStatement ps = conn.prepareStatement("SELECT MAX(player_name) FROM player_cache WHERE uuid = ?")) {
+            ps.setString(1, playerUuid.toString());
+            try (ResultSet rs = ps.executeQuery()) {
+                String name = rs.next() ? rs.getString(1) : null;
+                return name != null ? name : "";
+            }
+        }
+    }
+
+    /**
+     * 虚拟邮件ID由公告ID和玩家UUID确定，各服务器生成的ID一致，转为普通邮件后ID不变
+     */
+    private static UUID virtualMailId(UUID announcementId, UUID playerUuid) {
+        return UUID.nameUUIDFromBytes((announcementId + ":" + playerUuid).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static Audience parseAudience(String value) {
+        try {
+            return Audience.valueOf(value);
+        } catch (IllegalArgumentException e) {
+            return Audience.ALL;
+        }
+    }
+
+    private String getServerId() {
+        String serverId = plugin.getConfig().getString("server.id", "");
+        if (serverId.isEmpty()) {
+            serverId = Bukkit.getServer().getName();
+        }
+        return serverId;
+    }
+}
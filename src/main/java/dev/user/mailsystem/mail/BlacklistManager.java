@@ -2,24 +2,47 @@ package dev.user.mailsystem.mail;
 
 import dev.user.mailsystem.MailSystemPlugin;
 import dev.user.mailsystem.database.DatabaseQueue;
+import dev.user.mailsystem.util.UuidBloomFilter;
 
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Consumer;
 
 /**
  * 黑名单管理器 - 管理邮件屏蔽关系
+ * 按拥有者缓存完整黑名单（按需加载），添加/移除时失效；其他服务器的修改依靠缓存过期同步
+ * 另用布隆过滤器记录“有黑名单的拥有者”：绝大多数接收者没有黑名单，检查时可直接判定未屏蔽而不查询数据库。
+ * 过滤器在启动时和每 {@link #CACHE_TTL_MILLIS} 从数据库重建（移除的条目在重建时清除，其他服务器新增的拥有者在重建后生效），
+ * 本服添加黑名单时立即加入
  */
 public class BlacklistManager {
 
+    private static final long CACHE_TTL_MILLIS = 60_000L;
+    private static final int IN_CHUNK_SIZE = 500;
+    private static final double OWNER_FILTER_FALSE_POSITIVE_RATE = 0.01;
+    private static final int OWNER_FILTER_MIN_CAPACITY = 1024;
+
     private final MailSystemPlugin plugin;
     private final DatabaseQueue databaseQueue;
 
+    // 拥有者UUID -> 黑名单（只在数据库线程中加载和失效）
+    private final Map<UUID, CachedBlacklist> cache = new ConcurrentHashMap<>();
+
+    // 有黑名单的拥有者（只在数据库线程中重建和添加，null 表示尚未加载，此时所有拥有者都需要查询）
+    private volatile UuidBloomFilter owners;
+
     public BlacklistManager(MailSystemPlugin plugin) {
         this.plugin = plugin;
         this.databaseQueue = plugin.getDatabaseQueue();
@@ -29,16 +52,117 @@ public class BlacklistManager {
      * 检查发送者是否在接收者的黑名单中
      */
     public void isInBlacklist(UUID senderUuid, UUID receiverUuid, Consumer<Boolean> callback) {
-        databaseQueue.submit("checkBlacklist", conn -> {
-            String sql = "SELECT 1 FROM mail_blacklist WHERE owner_uuid = ? AND blocked_uuid = ?";
+        databaseQueue.submit("checkBlacklist", conn -> queryInBlacklist(conn, senderUuid, receiverUuid), callback);
+    }
+
+    /**
+     * 在给定连接上检查发送者是否在接收者的黑名单中
+     */
+    public boolean queryInBlacklist(Connection conn, UUID senderUuid, UUID receiverUuid) throws SQLException {
+        Boolean cached = isBlockedCached(senderUuid, receiverUuid);
+        if (cached != null) {
+            return cached;
+        }
+        return loadBlacklist(conn, receiverUuid).contains(senderUuid);
+    }
+
+    /**
+     * 只在内存中判断发送者是否被拥有者屏蔽（可在任意线程调用）
+     *
+     * @return 确定时返回 TRUE/FALSE；布隆过滤器未排除且没有新鲜缓存时返回null，需要查询数据库
+     */
+    public Boolean isBlockedCached(UUID senderUuid, UUID ownerUuid) {
+        UuidBloomFilter filter = owners;
+        if (filter != null && !filter.mightContain(ownerUuid)) {
+            return Boolean.FALSE;
+        }
+        CachedBlacklist cached = cache.get(ownerUuid);
+        if (cached != null && cached.isFresh(System.currentTimeMillis())) {
+            return cached.blocked().contains(senderUuid);
+        }
+        return null;
+    }
+
+    /**
+     * 在给定连接上批量检查：返回 owners 中把 senderUuid 加入黑名单的玩家
+     * 能在内存中判定的拥有者不查询，其余按 IN_CHUNK_SIZE 分批一条查询加载完整黑名单并缓存
+     */
+    public Set<UUID> queryBlockingOwners(Connection conn, UUID senderUuid, Collection<UUID> owners) throws SQLException {
+        Set<UUID> blocking = new HashSet<>();
+        List<UUID> uncached = new ArrayList<>();
+        for (UUID ownerUuid : owners) {
+            Boolean blocked = isBlockedCached(senderUuid, ownerUuid);
+            if (blocked == null) {
+                uncached.add(ownerUuid);
+            } else if (blocked) {
+                blocking.add(ownerUuid);
+            }
+        }
+
+        for (Map.Entry<UUID, Set<UUID>> entry : loadBlacklists(conn, uncached).entrySet()) {
+            if (entry.getValue().contains(senderUuid)) {
+                blocking.add(entry.getKey());
+            }
+        }
+        return blocking;
+    }
+
+    /**
+     * 批量加载拥有者的完整黑名单并缓存（没有黑名单的拥有者缓存为空集合）
+     */
+    private Map<UUID, Set<UUID>> loadBlacklists(Connection conn, List<UUID> ownerUuids) throws SQLException {
+        Map<UUID, Set<UUID>> loaded = new HashMap<>();
+        long now = System.currentTimeMillis();
+        for (int start = 0; start < ownerUuids.size(); start += IN_CHUNK_SIZE) {
+            List<UUID> chunk = ownerUuids.subList(start, Math.min(start + IN_CHUNK_SIZE, ownerUuids.size()));
+            for (UUID ownerUuid : chunk) {
+                loaded.put(ownerUuid, new HashSet<>());
+            }
+            String placeholders = String.join(", ", Collections.nCopies(chunk.size(), "?"));
+            String sql = "SELECT owner_uuid, blocked_uuid FROM mail_blacklist WHERE owner_uuid IN (" + placeholders + ")";
             try (PreparedStatement ps = conn.prepareStatement(sql)) {
-                ps.setString(1, receiverUuid.toString());
-                ps.setString(2, senderUuid.toString());
+                int index = 1;
+                for (UUID ownerUuid : chunk) {
+                    ps.setString(index++, ownerUuid.toString());
+                }
                 try (ResultSet rs = ps.executeQuery()) {
-                    return rs.next();
+                    while (rs.next()) {
+                        loaded.get(UUID.fromString(rs.getString("owner_uuid")))
+                                .add(UUID.fromString(rs.getString("blocked_uuid")));
+                    }
                 }
             }
-        }, callback);
+        }
+        Map<UUID, Set<UUID>> snapshots = new HashMap<>();
+        loaded.forEach((ownerUuid, blocked) -> {
+            Set<UUID> snapshot = Set.copyOf(blocked);
+            cache.put(ownerUuid, new CachedBlacklist(snapshot, now));
+            snapshots.put(ownerUuid, snapshot);
+        });
+        return snapshots;
+    }
+
+    /**
+     * 从数据库重建有黑名单的拥有者过滤器
+     */
+    public void refreshOwnerFilter() {
+        plugin.getDatabaseQueue().submitAsync("refreshBlacklistOwners", conn -> {
+            List<UUID> ownerUuids = new ArrayList<>();
+            try (PreparedStatement ps = conn.prepareStatement("SELECT DISTINCT owner_uuid FROM mail_blacklist");
+                 ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    ownerUuids.add(UUID.fromString(rs.getString("owner_uuid")));
+                }
+            }
+            // 预留空间给之后本服新增的拥有者
+            UuidBloomFilter filter = new UuidBloomFilter(Math.max(OWNER_FILTER_MIN_CAPACITY, ownerUuids.size() * 2),
+                    OWNER_FILTER_FALSE_POSITIVE_RATE);
+            for (UUID ownerUuid : ownerUuids) {
+                filter.add(ownerUuid);
+            }
+            owners = filter;
+            return null;
+        });
     }
 
     /**
@@ -52,8 +176,14 @@ public class BlacklistManager {
                 ps.setString(2, blockedUuid.toString());
                 ps.setLong(3, System.currentTimeMillis());
                 ps.executeUpdate();
-                return true;
+                UuidBloomFilter filter = owners;
+                if (filter != null) {
+                    filter.add(ownerUuid);
+                }
+            } finally {
+                cache.remove(ownerUuid);
             }
+            return true;
         }, callback, error -> callback.accept(false));
     }
 
@@ -67,6 +197,8 @@ public class BlacklistManager {
                 ps.setString(1, ownerUuid.toString());
                 ps.setString(2, blockedUuid.toString());
                 return ps.executeUpdate() > 0;
+            } finally {
+                cache.remove(ownerUuid);
             }
         }, callback, error -> callback.accept(false));
     }
@@ -75,18 +207,46 @@ public class BlacklistManager {
      * 获取玩家的黑名单列表
      */
     public void getBlacklist(UUID ownerUuid, Consumer<Set<UUID>> callback) {
-        databaseQueue.submit("getBlacklist", conn -> {
-            Set<UUID> blocked = new HashSet<>();
-            String sql = "SELECT blocked_uuid FROM mail_blacklist WHERE owner_uuid = ?";
-            try (PreparedStatement ps = conn.prepareStatement(sql)) {
-                ps.setString(1, ownerUuid.toString());
-                try (ResultSet rs = ps.executeQuery()) {
-                    while (rs.next()) {
-                        blocked.add(UUID.fromString(rs.getString("blocked_uuid")));
-                    }
+        databaseQueue.submit("getBlacklist", conn -> new HashSet<>(loadBlacklist(conn, ownerUuid)), callback);
+    }
+
+    /**
+     * 清空黑名单缓存
+     */
+    public void clearCache() {
+        cache.clear();
+        owners = null;
+        refreshOwnerFilter();
+    }
+
+    /**
+     * 读取拥有者的完整黑名单（优先使用未过期的缓存）
+     */
+    private Set<UUID> loadBlacklist(Connection conn, UUID ownerUuid) throws SQLException {
+        long now = System.currentTimeMillis();
+        CachedBlacklist cached = cache.get(ownerUuid);
+        if (cached != null && cached.isFresh(now)) {
+            return cached.blocked();
+        }
+
+        Set<UUID> blocked = new HashSet<>();
+        String sql = "SELECT blocked_uuid FROM mail_blacklist WHERE owner_uuid = ?";
+        try (PreparedStatement ps = conn.prepareStatement(sql)) {
+            ps.setString(1, ownerUuid.toString());
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    blocked.add(UUID.fromString(rs.getString("blocked_uuid")));
                 }
             }
-            return blocked;
-        }, callback);
+        }
+        Set<UUID> snapshot = Set.copyOf(blocked);
+        cache.put(ownerUuid, new CachedBlacklist(snapshot, now));
+        return snapshot;
+    }
+
+    private record CachedBlacklist(Set<UUID> blocked, long loadedAt) {
+        boolean isFresh(long now) {
+            return now - loadedAt < CACHE_TTL_MILLIS;
+        }
     }
 }
@@ -0,0 +1,634 @@
+package dev.user.mailsystem.mail;
+
+import dev.user.mailsystem.MailSystemPlugin;
+import dev.user.mailsystem.api.draft.AttachmentPayload;
+import dev.user.mailsystem.api.draft.BatchSendResult;
+import dev.user.mailsystem.api.draft.MailDraft;
+import dev.user.mailsystem.api.draft.SendOptions;
+import dev.user.mailsystem.database.DatabaseQueue;
+import io.papermc.paper.threadedregions.scheduler.ScheduledTask;
+import org.bukkit.Bukkit;
+import org.bukkit.entity.Player;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * 群发任务管理器 - 以后台任务分批向大量玩家发送邮件
+ * 按玩家UUID游标从 player_cache 流式读取收件人，按每秒发送量限速，
+ * 每批完成后把游标和计数写回 mail_broadcast_jobs，服务器重启后从游标处继续（中断的那一批会重发）
+ * 没有逐人变量的群发使用服务端扇出：按UUID区间由数据库 INSERT ... SELECT 直接生成邮件行，不经过发送管道
+ */
+public class BroadcastManager {
+
+    private static final long WATCHDOG_INTERVAL_TICKS = 20L;
+    private static final long RETRY_DELAY_TICKS = 100L;
+    private static final long RESUME_DELAY_TICKS = 100L;
+
+    private final MailSystemPlugin plugin;
+    private final DatabaseQueue databaseQueue;
+    // 本服正在执行的任务：任务ID -> 任务
+    private final Map<String, Job> activeJobs = new ConcurrentHashMap<>();
+
+    private ScheduledTask watchdogTask;
+    private volatile boolean running;
+
+    public BroadcastManager(MailSystemPlugin plugin) {
+        this.plugin = plugin;
+        this.databaseQueue = plugin.getDatabaseQueue();
+    }
+
+    /**
+     * 任务状态
+     */
+    public enum Status {
+        RUNNING,    // 执行中（重启后继续）
+        DONE,       // 已完成
+        CANCELLED,  // 已取消
+        FAILED      // 超时终止
+    }
+
+    /**
+     * 群发请求
+     *
+     * @param sinceTime    只发送给此时间之后登录过的玩家（0为全部玩家）
+     * @param templateName 来源模板名称（非null时每封邮件替换 {receiver} 变量，完成后累计模板使用次数）
+     */
+    public record BroadcastRequest(String title, String content, AttachmentPayload attachments, double moneyAttachment,
+                                   long sinceTime, String targetDesc, String templateName) {
+    }
+
+    /**
+     * 任务概要（用于状态显示）
+     */
+    public record JobSummary(String id, String targetDesc, int totalCount, int sentCount, int failedCount,
+                             Status status, String serverId, long createdAt) {
+    }
+
+    public void start() {
+        running = true;
+        watchdogTask = Bukkit.getGlobalRegionScheduler().runAtFixedRate(plugin, task -> checkTimeouts(),
+                WATCHDOG_INTERVAL_TICKS, WATCHDOG_INTERVAL_TICKS);
+        resumeJobs();
+    }
+
+    public void stop() {
+        running = false;
+        if (watchdogTask != null && !watchdogTask.isCancelled()) {
+            watchdogTask.cancel();
+        }
+        // 任务在数据库中保持 RUNNING 状态，下次启动时继续
+        for (Job job : activeJobs.values()) {
+            job.cancelNextTask();
+        }
+        activeJobs.clear();
+    }
+
+    /**
+     * 创建群发任务
+     */
+    public void submit(Player sender, BroadcastRequest request) {
+        Job job = new Job(UUID.randomUUID().toString(), sender.getUniqueId(), sender.getName(), request);
+        String serverId = getServerId();
+        long now = System.currentTimeMillis();
+
+        databaseQueue.submit("createBroadcastJob", conn -> {
+            job.totalCount = countRecipients(conn, request.sinceTime());
+            String sql = "INSERT INTO mail_broadcast_jobs (id, sender_uuid, sender_name, title, content, attachments, " +
+                    "money_attachment, template_name, target_desc, since_time, cursor_uuid, total_count, sent_count, failed_count, " +
+                    "status, server_id, created_at, updated_at) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, '', ?, 0, 0, ?, ?, ?, ?)";
+            try (PreparedStatement ps = conn.prepareStatement(sql)) {
+                ps.setString(1, job.id);
+                ps.setString(2, job.senderUuid.toString());
+                ps.setString(3, job.senderName);
+                ps.setString(4, truncate(request.title(), 100));
+                ps.setString(5, request.content());
+                byte[] attachData = request.attachments().serialize(plugin.getMailManager()::serializeAttachmentsInternal);
+                if (attachData != null) {
+                    ps.setBytes(6, attachData);
+                } else {
+                    ps.setNull(6, java.sql.Types.BLOB);
+                }
+                ps.setDouble(7, request.moneyAttachment());
+                ps.setString(8, request.templateName());
+                ps.setString(9, truncate(request.targetDesc(), 64));
+                ps.setLong(10, request.sinceTime());
+                ps.setInt(11, job.totalCount);
+                ps.setString(12, Status.RUNNING.name());
+                ps.setString(13, serverId);
+                ps.setLong(14, now);
+                ps.setLong(15, now);
+                ps.executeUpdate();
+            }
+            return job;
+        }, created -> {
+            if (!running) return;
+            activeJobs.put(created.id, created);
+            sender.sendMessage("§a[邮件系统] §e群发任务 §f#" + created.shortId() + " §e已创建，共 §f" + created.totalCount +
+                    " §e个" + created.targetDesc + "，将在后台分批发送");
+            sender.sendMessage("§7使用 /fmail broadcast status 查看进度，/fmail broadcast cancel " + created.shortId() + " 取消");
+            scheduleNext(created, 1L);
+        }, error -> sender.sendMessage("§c[邮件系统] 创建群发任务失败: " + error.getMessage()));
+    }
+
+    /**
+     * 取消本服正在执行的任务
+     *
+     * @param idPrefix 任务ID前缀
+     * @return 是否找到任务
+     */
+    public boolean cancel(String idPrefix) {
+        String prefix = idPrefix.toLowerCase();
+        for (Job job : activeJobs.values()) {
+            if (job.id.startsWith(prefix)) {
+                // 正在发送的批次完成后结束，未在发送时下一次调度立即结束
+                job.cancelled = true;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 查询最近的群发任务
+     */
+    public void listJobs(int limit, Consumer<List<JobSummary>> callback) {
+        databaseQueue.submit("listBroadcastJobs", conn -> {
+            List<JobSummary> jobs = new ArrayList<>();
+            String sql = "SELECT id, target_desc, total_count, sent_count, failed_count, status, server_id, created_at " +
+                    "FROM mail_broadcast_jobs ORDER BY created_at DESC LIMIT ?";
+            try (PreparedStatement ps = conn.prepareStatement(sql)) {
+                ps.setInt(1, limit);
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        jobs.add(new JobSummary(rs.getString("id"), rs.getString("target_desc"),
+                                rs.getInt("total_count"), rs.getInt("sent_count"), rs.getInt("failed_count"),
+                                parseStatus(rs.getString("status")), rs.getString("server_id"), rs.getLong("created_at")));
+                    }
+                }
+            }
+            return jobs;
+        }, callback);
+    }
+
+    public int getActiveJobCount() {
+        return activeJobs.size();
+    }
+
+    // ==================== 执行 ====================
+
+    /**
+     * 执行一批：读取下一批收件人并发送
+     */
+    private void runChunk(Job job) {
+        job.nextTask = null;
+        if (!running || job.finished) {
+            return;
+        }
+        if (job.cancelled) {
+            finish(job, Status.CANCELLED);
+            return;
+        }
+
+        long startedAt = System.currentTimeMillis();
+        job.chunkStartedAt = startedAt;
+        if (plugin.getMailConfig().isBroadcastFanOut() && !job.isPersonalized()) {
+            runFanOutChunk(job, startedAt);
+            return;
+        }
+
+        int limit = Math.min(plugin.getMailConfig().getBroadcastChunkSize(), plugin.getMailConfig().getBroadcastRatePerSecond());
+
+        databaseQueue.submit("fetchBroadcastRecipients",
+                conn -> fetchRecipients(conn, job.sinceTime, job.cursor, limit), recipients -> {
+            if (job.finished) return;
+            if (recipients.isEmpty()) {
+                finish(job, Status.DONE);
+                return;
+            }
+
+            List<MailDraft> drafts = new ArrayList<>(recipients.size());
+            for (Recipient recipient : recipients) {
+                drafts.add(MailDraft.builder()
+                        .sender(job.senderUuid, job.senderName)
+                        .receiver(recipient.uuid(), recipient.name())
+                        .title(job.personalize(job.title, recipient))
+                        .content(job.personalize(job.content, recipient))
+                        .sharedAttachments(job.attachments)
+                        .moneyAttachment(job.moneyAttachment)
+                        .build());
+            }
+
+            // 群发使用系统邮件选项（免检查、免扣费）
+            plugin.getMailManager().send(drafts, SendOptions.systemMail(), Bukkit.getPlayer(job.senderUuid),
+                    result -> onChunkSent(job, recipients, result, startedAt));
+        }, error -> {
+            // 读取失败（队列繁忙等），稍后重试
+            job.chunkStartedAt = 0;
+            plugin.getLogger().warning("群发任务 #" + job.shortId() + " 读取收件人失败，稍后重试: " + error.getMessage());
+            scheduleNext(job, RETRY_DELAY_TICKS);
+        });
+    }
+
+    /**
+     * 服务端扇出一批：确定下一段UUID区间，在一个事务中由数据库生成该区间内所有收件人的邮件和NEW事件
+     */
+    private void runFanOutChunk(Job job, long startedAt) {
+        int limit = plugin.getMailConfig().getBroadcastFanOutChunkSize();
+        String fromCursor = job.cursor;
+
+        databaseQueue.submit("fanOutBroadcast", conn -> {
+            String upperBound = findRangeEnd(conn, job.sinceTime, fromCursor, limit);
+            if (upperBound == null) {
+                return null;
+            }
+            long sentTime = System.currentTimeMillis();
+            int inserted = plugin.getMailManager().getEventLog().inTransaction(conn, c -> {
+                int rows = insertFanOutMails(c, job, fromCursor, upperBound, sentTime);
+                plugin.getMailManager().getEventLog().appendFanOut(c, job.id, fromCursor, upperBound);
+                return rows;
+            });
+            return new FanOutRange(upperBound, inserted);
+        }, range -> {
+            if (job.finished) return;
+            if (range == null) {
+                finish(job, Status.DONE);
+                return;
+            }
+            job.sentCount += range.inserted();
+            job.cursor = range.upperBound();
+            job.chunkStartedAt = 0;
+            onFanOutApplied(job, fromCursor, range);
+
+            persistProgress(job, Status.RUNNING);
+            reportProgress(job);
+            scheduleNext(job, 1L);
+        }, error -> {
+            // 事务已回滚，游标未前进，稍后重试本段
+            job.chunkStartedAt = 0;
+            plugin.getLogger().warning("群发任务 #" + job.shortId() + " 服务端扇出失败，稍后重试: " + error.getMessage());
+            scheduleNext(job, RETRY_DELAY_TICKS);
+        });
+    }
+
+    /**
+     * 扇出写入后的本服处理：区间内本服缓存的收件箱（含离线玩家的空收件箱标记）失效，在线接收者收到提醒，
+     * 发送者的发件箱缓存失效
+     */
+    private void onFanOutApplied(Job job, String fromCursor, FanOutRange range) {
+        MailManager mailManager = plugin.getMailManager();
+        mailManager.getCacheManager().invalidateRange(fromCursor, range.upperBound());
+        for (Player player : Bukkit.getOnlinePlayers()) {
+            String uuid = player.getUniqueId().toString();
+            if (uuid.compareTo(fromCursor) > 0 && uuid.compareTo(range.upperBound()) <= 0) {
+                mailManager.onIncomingMail(player.getUniqueId());
+                mailManager.clearPlayerCache(player.getUniqueId());
+                player.sendMessage("§a[邮件系统] §e你收到了一封新邮件！来自: §f" + job.senderName);
+            }
+        }
+        mailManager.getCacheManager().invalidateSent(job.senderUuid);
+
+        // 与发送管道一致：发送者在线时记录发送日志
+        if (range.inserted() > 0 && Bukkit.getPlayer(job.senderUuid) != null) {
+            mailManager.logMailSend(job.senderUuid, range.inserted());
+        }
+    }
+
+    private void onChunkSent(Job job, List<Recipient> recipients, BatchSendResult result, long startedAt) {
+        if (job.finished) {
+            return; // 已超时终止
+        }
+        int sent = result.getSuccessCount();
+        job.sentCount += sent;
+        job.failedCount += recipients.size() - sent;
+        job.cursor = recipients.get(recipients.size() - 1).uuid().toString();
+        job.chunkStartedAt = 0;
+
+        persistProgress(job, Status.RUNNING);
+        reportProgress(job);
+
+        // 限速：本批按每秒发送量应占用的时间减去实际耗时
+        long budgetMillis = recipients.size() * 1000L / plugin.getMailConfig().getBroadcastRatePerSecond();
+        long elapsedMillis = System.currentTimeMillis() - startedAt;
+        scheduleNext(job, Math.max(1L, (budgetMillis - elapsedMillis) / 50L));
+    }
+
+    private void scheduleNext(Job job, long delayTicks) {
+        if (!running || job.finished) return;
+        job.nextTask = Bukkit.getGlobalRegionScheduler().runDelayed(plugin, task -> runChunk(job), delayTicks);
+    }
+
+    /**
+     * 超时检查：一批在 broadcast-timeout 内仍未完成时终止任务
+     */
+    private void checkTimeouts() {
+        long timeoutMillis = plugin.getMailConfig().getBroadcastTimeout() * 1000L;
+        if (timeoutMillis <= 0) return;
+        long now = System.currentTimeMillis();
+        for (Job job : activeJobs.values()) {
+            if (job.chunkStartedAt > 0 && now - job.chunkStartedAt > timeoutMillis) {
+                plugin.getLogger().warning("群发任务 #" + job.shortId() + " 超过 " + (timeoutMillis / 1000) + " 秒未完成一批，已终止");
+                finish(job, Status.FAILED);
+            }
+        }
+    }
+
+    private void finish(Job job, Status status) {
+        job.finished = true;
+        job.cancelNextTask();
+        activeJobs.remove(job.id);
+        persistProgress(job, status);
+
+        if (status == Status.DONE && job.templateName != null && job.sentCount > 0) {
+            plugin.getTemplateManager().incrementUseCount(job.templateName);
+        }
+
+        String summary = "成功 §f" + job.sentCount + "§e，失败 §c" + job.failedCount;
+        String message = switch (status) {
+            case DONE -> "§a[邮件系统] §e群发任务 §f#" + job.shortId() + " §e已完成（" + job.targetDesc + "）：" + summary;
+            case CANCELLED -> "§a[邮件系统] §e群发任务 §f#" + job.shortId() + " §e已取消：" + summary;
+            default -> "§c[邮件系统] 群发任务 #" + job.shortId() + " 超时终止：§e" + summary;
+        };
+        plugin.getLogger().info("群发任务 #" + job.shortId() + " 结束 (" + status + ")，成功 " + job.sentCount + "，失败 " + job.failedCount);
+        Player sender = Bukkit.getPlayer(job.senderUuid);
+        if (sender != null) {
+            sender.sendMessage(message);
+        }
+    }
+
+    private void reportProgress(Job job) {
+        long now = System.currentTimeMillis();
+        if (now - job.lastReportAt < plugin.getMailConfig().getBroadcastProgressInterval() * 1000L) {
+            return;
+        }
+        job.lastReportAt = now;
+        Player sender = Bukkit.getPlayer(job.senderUuid);
+        if (sender != null) {
+            sender.sendMessage("§a[邮件系统] §7群发任务 §f#" + job.shortId() + " §7进度: §f" +
+                    (job.sentCount + job.failedCount) + "/" + job.totalCount + " §7(失败 " + job.failedCount + ")");
+        }
+    }
+
+    private void persistProgress(Job job, Status status) {
+        String cursor = job.cursor;
+        int sent = job.sentCount;
+        int failed = job.failedCount;
+        databaseQueue.submitAsync("updateBroadcastJob", conn -> {
+            String sql = "UPDATE mail_broadcast_jobs SET cursor_uuid = ?, sent_count = ?, failed_count = ?, status = ?, updated_at = ? WHERE id = ?";
+            try (PreparedStatement ps = conn.prepareStatement(sql)) {
+                ps.setString(1, cursor);
+                ps.setInt(2, sent);
+                ps.setInt(3, failed);
+                ps.setString(4, status.name());
+                ps.setLong(5, System.currentTimeMillis());
+                ps.setString(6, job.id);
+                ps.executeUpdate();
+            }
+            return null;
+        });
+    }
+
+    /**
+     * 继续本服未完成的任务
+     */
+    private void resumeJobs() {
+        String serverId = getServerId();
+        databaseQueue.submit("loadBroadcastJobs", conn -> {
+            List<StoredJob> rows = new ArrayList<>();
+            String sql = "SELECT * FROM mail_broadcast_jobs WHERE status = ? AND server_id = ?";
+            try (PreparedStatement ps = conn.prepareStatement(sql)) {
+                ps.setString(1, Status.RUNNING.name());
+                ps.setString(2, serverId);
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        BroadcastRequest request = new BroadcastRequest(rs.getString("title"), rs.getString("content"),
+                                AttachmentPayload.empty(), rs.getDouble("money_attachment"), rs.getLong("since_time"),
+                                rs.getString("target_desc"), rs.getString("template_name"));
+                        Job job = new Job(rs.getString("id"), UUID.fromString(rs.getString("sender_uuid")),
+                                rs.getString("sender_name"), request);
+                        job.cursor = rs.getString("cursor_uuid");
+                        job.totalCount = rs.getInt("total_count");
+                        job.sentCount = rs.getInt("sent_count");
+                        job.failedCount = rs.getInt("failed_count");
+                        rows.add(new StoredJob(job, rs.getBytes("attachments")));
+                    }
+                }
+            }
+            return rows;
+        }, rows -> {
+            if (!running) return;
+            for (StoredJob row : rows) {
+                Job job = row.job();
+                byte[] attachData = row.attachments();
+                if (attachData != null) {
+                    job.attachments = AttachmentPayload.of(plugin.getMailManager().deserializeAttachmentsInternal(attachData));
+                }
+                activeJobs.put(job.id, job);
+                plugin.getLogger().info("继续群发任务 #" + job.shortId() + "（" + job.targetDesc + "），进度 " +
+                        (job.sentCount + job.failedCount) + "/" + job.totalCount);
+                scheduleNext(job, RESUME_DELAY_TICKS);
+            }
+        });
+    }
+
+    // ==================== 数据库 ====================
+
+    /**
+     * 按UUID游标读取下一批收件人（同一UUID的多个名字只取一个）
+     */
+    private List<Recipient> fetchRecipients(Connection conn, long sinceTime, String cursor, int limit) throws SQLException {
+        List<Recipient> recipients = new ArrayList<>();
+        String sql = "SELECT uuid, MAX(player_name) AS player_name FROM player_cache WHERE uuid > ?" +
+                (sinceTime > 0 ? " AND last_seen >= ?" : "") + " GROUP BY uuid ORDER BY uuid LIMIT ?";
+        try (PreparedStatement ps = conn.prepareStatement(sql)) {
+            int index = 1;
+            ps.setString(index++, cursor);
+            if (sinceTime > 0) {
+                ps.setLong(index++, sinceTime);
+            }
+            ps.setInt(index, limit);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    recipients.add(new Recipient(UUID.fromString(rs.getString("uuid")), rs.getString("player_name")));
+                }
+            }
+        }
+        return recipients;
+    }
+
+    /**
+     * 查找下一段扇出区间的UUID上界（含），没有剩余收件人时返回null
+     */
+    private String findRangeEnd(Connection conn, long sinceTime, String cursor, int limit) throws SQLException {
+        String sql = "SELECT MAX(uuid) FROM (SELECT DISTINCT uuid FROM player_cache WHERE uuid > ?" +
+                (sinceTime > 0 ? " AND last_seen >= ?" : "") + " ORDER BY uuid LIMIT ?) t";
+        try (PreparedStatement ps = conn.prepareStatement(sql)) {
+            int index = 1;
+            ps.setString(index++, cursor);
+            if (sinceTime > 0) {
+                ps.setLong(index++, sinceTime);
+            }
+            ps.setInt(index, limit);
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next() ? rs.getString(1) : null;
+            }
+        }
+    }
+
+    /**
+     * 由数据库为 (fromCursor, upperBound] 区间内的每个收件人生成一封邮件（同一UUID的多个名字只取一个）
+     * 正文以任务ID为键写入 mail_bodies，所有区间的邮件共享这一份正文
+     *
+     * @return 写入的邮件数量
+     */
+    private int insertFanOutMails(Connection conn, Job job, String fromCursor, String upperBound, long sentTime) throws SQLException {
+        String idExpression = plugin.getDatabaseManager().getDialect().uuidExpression();
+        String sql = "INSERT INTO mails (id, sender_uuid, sender_name, receiver_uuid, receiver_name, " +
+                "title, content, attachments, money_attachment, sent_time, expire_time, server_id, is_read, is_claimed, body_id) " +
+                "SELECT " + idExpression + ", ?, ?, uuid, MAX(player_name), '', NULL, NULL, 0, ?, ?, ?, FALSE, FALSE, ? " +
+                "FROM player_cache WHERE uuid > ? AND uuid <= ?" + (job.sinceTime > 0 ? " AND last_seen >= ?" : "") +
+                " GROUP BY uuid";
+
+        long expireTime = 0;
+        if (plugin.getMailConfig().getMailExpirationDays() > 0) {
+            expireTime = sentTime + (plugin.getMailConfig().getMailExpirationDays() * 24L * 60 * 60 * 1000);
+        }
+
+        MailBodyStore.ensureBody(conn, job.id, truncate(job.title, 100), job.content,
+                job.attachments.serialize(plugin.getMailManager()::serializeAttachmentsInternal), job.moneyAttachment);
+
+        try (PreparedStatement ps = conn.prepareStatement(sql)) {
+            int index = 1;
+            ps.setString(index++, job.senderUuid.toString());
+            ps.setString(index++, job.senderName);
+            ps.setLong(index++, sentTime);
+            ps.setLong(index++, expireTime);
+            ps.setString(index++, getServerId());
+            ps.setString(index++, job.id);
+            ps.setString(index++, fromCursor);
+            ps.setString(index++, upperBound);
+            if (job.sinceTime > 0) {
+                ps.setLong(index, job.sinceTime);
+            }
+            return ps.executeUpdate();
+        }
+    }
+
+    private int countRecipients(Connection conn, long sinceTime) throws SQLException {
+        String sql = "SELECT COUNT(DISTINCT uuid) FROM player_cache" + (sinceTime > 0 ? " WHERE last_seen >= ?" : "");
+        try (PreparedStatement ps = conn.prepareStatement(sql)) {
+            if (sinceTime > 0) {
+                ps.setLong(1, sinceTime);
+            }
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next() ? rs.getInt(1) : 0;
+            }
+        }
+    }
+
+    private static Status parseStatus(String value) {
+        try {
+            return Status.valueOf(value);
+        } catch (IllegalArgumentException e) {
+            return Status.FAILED;
+        }
+    }
+
+    private static String truncate(String value, int maxLength) {
+        return value != null && value.length() > maxLength ? value.substring(0, maxLength) : value;
+    }
+
+    private String getServerId() {
+        String serverId = plugin.getConfig().getString("server.id", "");
+        if (serverId.isEmpty()) {
+            serverId = Bukkit.getServer().getName();
+        }
+        return serverId;
+    }
+
+    private record Recipient(UUID uuid, String name) {
+    }
+
+    private record StoredJob(Job job, byte[] attachments) {
+    }
+
+    private record FanOutRange(String upperBound, int inserted) {
+    }
+
+    /**
+     * 执行中的任务（状态只在全局区域线程中修改）
+     */
+    private static class Job {
+        final String id;
+        final UUID senderUuid;
+        final String senderName;
+        final String title;
+        final String content;
+        final double moneyAttachment;
+        final long sinceTime;
+        final String targetDesc;
+        final String templateName;
+        AttachmentPayload attachments;
+
+        String cursor = "";
+        int totalCount;
+        volatile int sentCount;
+        volatile int failedCount;
+        volatile boolean cancelled;
+        boolean finished;
+        long chunkStartedAt;
+        long lastReportAt;
+        ScheduledTask nextTask;
+
+        Job(String id, UUID senderUuid, String senderName, BroadcastRequest request) {
+            this.id = id;
+            this.senderUuid = senderUuid;
+            this.senderName = senderName;
+            this.title = request.title();
+            this.content = request.content() != null ? request.content() : "";
+            this.attachments = request.attachments();
+            this.moneyAttachment = request.moneyAttachment();
+            this.sinceTime = request.sinceTime();
+            this.targetDesc = request.targetDesc();
+            this.templateName = request.templateName();
+            this.lastReportAt = System.currentTimeMillis();
+        }
+
+        String shortId() {
+            return id.substring(0, 8);
+        }
+
+        /**
+         * 是否需要逐人生成内容（模板中含 {receiver} 变量）
+         */
+        boolean isPersonalized() {
+            return templateName != null && (title.contains("{receiver}") || content.contains("{receiver}"));
+        }
+
+        /**
+         * 模板群发：替换收件人变量
+         */
+        String personalize(String text, Recipient recipient) {
+            if (templateName == null) {
+                return text;
+            }
+            String name = recipient.name() != null && !recipient.name().isEmpty() ? recipient.name() : "玩家";
+            return text.replace("{receiver}", name);
+        }
+
+        void cancelNextTask() {
+            if (nextTask != null && !nextTask.isCancelled()) {
+                nextTask.cancel();
+            }
+            nextTask = null;
+        }
+    }
+}
@@ -1,156 +1,324 @@
 package dev.user.mailsystem.mail;
 
 import dev.user.mailsystem.MailSystemPlugin;
+import dev.user.mailsystem.cache.PlayerPresenceManager;
+import dev.user.mailsystem.mail.MailEventLog.MailEvent;
+import dev.user.mailsystem.mail.transport.LoopbackTransport;
+import dev.user.mailsystem.mail.transport.NotificationTransport;
+import dev.user.mailsystem.mail.transport.PluginMessagingTransport;
+import dev.user.mailsystem.mail.transport.RedisTransport;
 import io.papermc.paper.threadedregions.scheduler.ScheduledTask;
 import org.bukkit.Bukkit;
 import org.bukkit.entity.Player;
 
-import java.sql.Connection;
-import java.sql.PreparedStatement;
-import java.sql.ResultSet;
-import java.sql.SQLException;
-import java.util.Collections;
+import java.util.ArrayDeque;
 import java.util.HashSet;
-import java.util.LinkedHashMap;
-import java.util.Map;
 import java.util.Set;
+import java.util.TreeSet;
 import java.util.UUID;
 import java.util.function.Consumer;
 
+/**
+ * 跨服务器通知器 - 按 seq 顺序追踪 mail_events 事件日志
+ * 自增序列由数据库分配，与各服务器时钟无关；对每条事件执行精确的缓存失效或修补
+ * 只查询路由到本服的事件及本服缓存玩家相关的事件，轮询代价与本服人数成正比
+ * 轮询间隔自适应：连续空轮询时指数退避到上限，命中事件或本地有玩家加入时回到下限
+ * 配置了推送通道时事件在毫秒级到达，数据库轮询降级为兜底（按 seq 去重，不会重复处理）
+ */
 public class CrossServerNotifier implements Consumer<ScheduledTask> {
 
-    private static final int MAX_NOTIFIED_CACHE_SIZE = 10000; // 最大缓存已通知邮件数
-    private static final long TIME_OVERLAP_BUFFER = 1_000L; // 1秒重叠缓冲时间
+    private static final long GAP_GRACE_MILLIS = 10_000L; // 序列空洞等待时间（未提交事务在此时间内提交）
 
     private final MailSystemPlugin plugin;
-    private final Set<UUID> notifiedMails;
-    private long lastCheckTime;
+    private final MailEventLog eventLog;
+
+    // 以下状态仅在 GlobalRegionScheduler 回调中访问
+    private long lastSeq = -1;                                   // 此序列号及之前的事件均已确定，-1 表示尚未初始化
+    private final TreeSet<Long> appliedSeqs = new TreeSet<>();   // lastSeq 之后已处理的序列号（重扫窗口去重）
+    private final ArrayDeque<long[]> horizons = new ArrayDeque<>(); // 各次轮询观察到的高水位 {时间, seq}
+    private boolean polling;
+    private boolean pollHit;                                     // 本轮（含截断后的续读）是否命中其他服务器的事件
+    private long roundStartedAt;                                 // 本轮轮询开始时间
+    private long lastRoundStartedAt;                             // 最近一次完成的轮询的开始时间
+    private boolean running;
     private ScheduledTask checkTask;
+    private long nextPollAt;
+    private long currentIntervalTicks;
+    private long pollCount;
+    private long hitCount;
+    private volatile NotificationTransport transport;
 
     public CrossServerNotifier(MailSystemPlugin plugin) {
         this.plugin = plugin;
-        // 使用 LRU 结构的 Set，当容量超过 MAX_NOTIFIED_CACHE_SIZE 时自动清理最旧的条目
-        this.notifiedMails = Collections.newSetFromMap(
-                Collections.synchronizedMap(new LinkedHashMap<UUID, Boolean>(16, 0.75f, true) {
-                    @Override
-                    protected boolean removeEldestEntry(Map.Entry<UUID, Boolean> eldest) {
-                        return size() > MAX_NOTIFIED_CACHE_SIZE;
-                    }
-                })
-        );
-        this.lastCheckTime = System.currentTimeMillis();
+        this.eventLog = plugin.getMailManager().getEventLog();
     }
 
     public void start() {
-        int interval = plugin.getMailConfig().getCrossServerCheckInterval() * 20;
-        checkTask = Bukkit.getGlobalRegionScheduler().runAtFixedRate(plugin, this, interval, interval);
-        plugin.getLogger().info("跨服务器通知器已启动，检查间隔: " + plugin.getMailConfig().getCrossServerCheckInterval() + "秒");
+        // 从当前最大序列号开始追踪，历史事件对新启动的服务器没有意义（缓存为空）
+        plugin.getDatabaseQueue().submit("initEventSeq", eventLog::currentSeq, seq -> {
+            if (lastSeq < 0) {
+                lastSeq = seq;
+            }
+        });
+
+        transport = createTransport(plugin.getMailConfig().getTransportType());
+        if (transport != null) {
+            transport.start(this::onPushedEvent);
+            plugin.getLogger().info("跨服推送通道已启用: " + transport.getName() +
+                    "，兜底轮询间隔: " + plugin.getMailConfig().getFallbackPollInterval() + "秒");
+        }
+
+        running = true;
+        currentIntervalTicks = getFloorTicks();
+        reschedule(currentIntervalTicks);
+        plugin.getLogger().info("跨服务器通知器已启动，检查间隔: " + plugin.getMailConfig().getCrossServerCheckInterval() +
+                "~" + plugin.getMailConfig().getCrossServerMaxInterval() + "秒（自适应）");
     }
 
     public void stop() {
+        running = false;
         if (checkTask != null && !checkTask.isCancelled()) {
             checkTask.cancel();
         }
+        if (transport != null) {
+            transport.stop();
+            transport = null;
+        }
     }
 
     @Override
     public void accept(ScheduledTask task) {
-        checkNewMails();
-    }
-
-    private void checkNewMails() {
-        long currentTime = System.currentTimeMillis();
-        
-        // 查询起始时间 = 上次检查时间 - 缓冲时间 (重叠查询，利用缓存去重)
-        long queryStartTime = lastCheckTime - TIME_OVERLAP_BUFFER;
-        
-        // 更新 lastCheckTime
-        lastCheckTime = currentTime;
-
-        plugin.getDatabaseQueue().submit("checkNewMails", conn -> {
-            // 1. 【异步线程】只负责从数据库捞取可能是新的数据
-            Set<MailNotification> potentialNewMails = new HashSet<>();
-            
-            // 修正 SQL: 增加 ORDER BY 优化读取顺序 (可选)
-            String sql = "SELECT id, sender_name, receiver_uuid, title, sent_time FROM mails " +
-                    "WHERE sent_time > ? AND server_id != ?";
-
-            try (PreparedStatement ps = conn.prepareStatement(sql)) {
-                ps.setLong(1, queryStartTime);
-                ps.setString(2, getServerId());
-                try (ResultSet rs = ps.executeQuery()) {
-                    while (rs.next()) {
-                        // 在这里不进行 notifiedMails.contains 检查，
-                        // 因为 notifiedMails 可能会在主线程被修改，避免并发冲突。
-                        // 只做简单的对象映射。
-                        potentialNewMails.add(new MailNotification(
-                                UUID.fromString(rs.getString("id")),
-                                rs.getString("sender_name"),
-                                UUID.fromString(rs.getString("receiver_uuid")),
-                                rs.getString("title"),
-                                rs.getLong("sent_time")
-                        ));
-                    }
-                }
+        if (polling) {
+            // 进行中的轮询完成后会重新安排；此处仍保留一次兜底调度，轮询回调丢失时不会停止追踪
+            reschedule(currentIntervalTicks);
+            return;
+        }
+        if (lastSeq < 0) {
+            reschedule(getFloorTicks()); // 序列号尚未初始化
+            return;
+        }
+        pollHit = false;
+        roundStartedAt = System.currentTimeMillis();
+        pollEvents(lastSeq);
+    }
+
+    /**
+     * 本地活跃信号（如玩家加入）：轮询间隔回到下限，必要时提前下一次轮询
+     */
+    public void hint() {
+        Bukkit.getGlobalRegionScheduler().execute(plugin, () -> {
+            if (!running) return;
+            long floorTicks = getFloorTicks();
+            currentIntervalTicks = floorTicks;
+            if (!polling && !isTransportConnected() && nextPollAt - System.currentTimeMillis() > floorTicks * 50) {
+                reschedule(floorTicks);
+            }
+        });
+    }
+
+    /**
+     * 一轮轮询结束：命中则回到下限，否则指数退避；推送通道可用时按兜底间隔
+     */
+    private void scheduleNext(boolean hit) {
+        pollCount++;
+        if (hit) hitCount++;
+
+        long floorTicks = getFloorTicks();
+        long ceilingTicks = Math.max(floorTicks, plugin.getMailConfig().getCrossServerMaxInterval() * 20L);
+        currentIntervalTicks = hit ? floorTicks : Math.min(ceilingTicks, Math.max(floorTicks, currentIntervalTicks * 2));
+
+        if (!running) return;
+        reschedule(isTransportConnected()
+                ? plugin.getMailConfig().getFallbackPollInterval() * 20L
+                : currentIntervalTicks);
+    }
+
+    private void reschedule(long delayTicks) {
+        if (checkTask != null && !checkTask.isCancelled()) {
+            checkTask.cancel();
+        }
+        nextPollAt = System.currentTimeMillis() + delayTicks * 50;
+        checkTask = Bukkit.getGlobalRegionScheduler().runDelayed(plugin, this, Math.max(1, delayTicks));
+    }
+
+    private long getFloorTicks() {
+        return Math.max(1, plugin.getMailConfig().getCrossServerCheckInterval()) * 20L;
+    }
+
+    private boolean isTransportConnected() {
+        NotificationTransport current = transport;
+        return current != null && current.isConnected();
+    }
+
+    /**
+     * 推送本服事件（由 MailEventLog 在事务提交后调用，可能在数据库线程）
+     */
+    public void publish(MailEvent event) {
+        NotificationTransport current = transport;
+        if (current != null) {
+            current.publish(event);
+        }
+    }
+
+    private void onPushedEvent(MailEvent event) {
+        Bukkit.getGlobalRegionScheduler().execute(plugin, () -> {
+            if (event.type() == null || eventLog.getServerId().equals(event.serverId())) {
+                return;
             }
-            return potentialNewMails;
-        }, foundMails -> {
-            // 2. 【Global/主线程】负责逻辑判断、去重和发消息
-            if (foundMails == null || foundMails.isEmpty()) return;
-
-            int newCount = 0;
-            for (MailNotification notification : foundMails) {
-                // 双重检查：如果已经通知过，直接跳过
-                if (notifiedMails.contains(notification.mailId)) {
-                    continue;
+            if (lastSeq >= 0) {
+                // 已由轮询或之前的推送处理过
+                if (event.seq() <= lastSeq || !appliedSeqs.add(event.seq())) {
+                    return;
                 }
+            }
+            applyEvent(event);
+        });
+    }
+
+    private NotificationTransport createTransport(String type) {
+        return switch (type) {
+            case "plugin-messaging", "bungee", "velocity" -> new PluginMessagingTransport(plugin);
+            case "redis" -> new RedisTransport(plugin, eventLog.getServerId());
+            case "loopback" -> new LoopbackTransport();
+            case "none", "" -> null;
+            default -> {
+                plugin.getLogger().warning("未知的跨服推送类型: " + type + "，仅使用数据库轮询");
+                yield null;
+            }
+        };
+    }
 
-                // 标记为已通知
-                notifiedMails.add(notification.mailId);
-                newCount++;
+    /**
+     * 读取 fromSeq 之后的本服相关事件
+     * 常规轮询从 lastSeq 开始，重扫宽限期内的窗口以捕获晚提交的事务；截断时从上一批上界继续
+     */
+    private void pollEvents(long fromSeq) {
+        polling = true;
 
-                Player receiver = Bukkit.getPlayer(notification.receiverUuid);
-                // 确保玩家在线
-                if (receiver != null) {
-                    receiver.sendMessage("§a[邮件系统] §e你收到了一封新邮件！来自: §f" + notification.senderName);
-                    // 只有玩家在线时才清理缓存，避免不必要的 IO 或逻辑
-                    plugin.getMailManager().clearPlayerCache(notification.receiverUuid);
+        String serverId = eventLog.getServerId();
+        Set<UUID> receivers = collectTrackedReceivers();
+        Set<UUID> senders = new HashSet<>();
+        plugin.getMailManager().getCacheManager().collectTrackedSenders(senders);
+        int batchSize = plugin.getMailConfig().getCrossServerBatchSize();
+        plugin.getDatabaseQueue().submit("pollMailEvents",
+                conn -> eventLog.readScoped(conn, fromSeq, serverId, receivers, senders, batchSize), batch -> {
+            polling = false;
+            if (batch == null) {
+                scheduleNext(false);
+                return;
+            }
+
+            for (MailEvent event : batch.events()) {
+                if (event.seq() <= lastSeq || !appliedSeqs.add(event.seq())) {
+                    continue; // 重扫窗口或推送通道已处理
+                }
+                // 本服产生的事件已在本地直接修补缓存
+                if (event.type() != null && !serverId.equals(event.serverId())) {
+                    applyEvent(event);
+                    pollHit = true;
                 }
             }
+            recordHorizon(batch.highSeq());
 
-            if (newCount > 0) {
-                // 仅调试模式或必要时输出，避免刷屏
-                // plugin.getLogger().info("检测到 " + newCount + " 封新跨服邮件");
+            // 本批读满说明还有积压，立即从上界继续读取
+            if (batch.truncated()) {
+                pollEvents(batch.highSeq());
+                return;
             }
+            lastRoundStartedAt = roundStartedAt;
+            scheduleNext(pollHit);
+        }, error -> {
+            polling = false;
+            scheduleNext(false);
         });
     }
 
-    public void markNotified(UUID mailId) {
-        notifiedMails.add(mailId);
+    /**
+     * 需要按接收者查询的玩家：在线位置尚未登记的本服玩家，以及缓存中涉及的其他玩家
+     * 在线位置已登记的玩家，其事件已通过 target_server 路由到本服，无需再按玩家查询；
+     * 但登记提交前追加的事件 target_server 为空，可能在登记后宽限期内才提交，
+     * 因此登记后继续按接收者查询，直到一轮在 登记时间 + 宽限期 之后开始的轮询完成
+     */
+    private Set<UUID> collectTrackedReceivers() {
+        Set<UUID> players = new HashSet<>();
+        for (Player player : Bukkit.getOnlinePlayers()) {
+            players.add(player.getUniqueId());
+        }
+        plugin.getMailManager().getCacheManager().collectTrackedReceivers(players);
+        PlayerPresenceManager presenceManager = plugin.getPresenceManager();
+        if (presenceManager != null) {
+            players.removeIf(playerUuid -> {
+                Long confirmedAt = presenceManager.getConfirmedAt(playerUuid);
+                return confirmedAt != null && confirmedAt + GAP_GRACE_MILLIS < lastRoundStartedAt;
+            });
+        }
+        return players;
     }
 
     /**
-     * 通知其他服务器附件已被领取
-     * 当前实现：通过数据库标记（is_claimed字段）+ 缓存清理
-     * 未来可优化：使用Redis Pub/Sub实现实时通知
+     * 记录高水位并推进 lastSeq：宽限期之前观察到的高水位以内，所有事务都应已提交
      */
-    public void notifyAttachmentClaimed(UUID mailId, UUID playerUuid) {
-        // 当前简化实现：仅记录日志，依赖数据库的is_claimed字段作为唯一真相源
-        // 其他服务器在玩家打开邮件时会从数据库重新加载状态
-        plugin.getLogger().fine("附件领取通知: 邮件 " + mailId + " 被玩家 " + playerUuid + " 领取");
+    private void recordHorizon(long highSeq) {
+        long now = System.currentTimeMillis();
+        horizons.addLast(new long[]{now, highSeq});
+        long safeSeq = lastSeq;
+        while (!horizons.isEmpty() && now - horizons.peekFirst()[0] >= GAP_GRACE_MILLIS) {
+            safeSeq = Math.max(safeSeq, horizons.pollFirst()[1]);
+        }
+        lastSeq = safeSeq;
+        appliedSeqs.headSet(lastSeq, true).clear();
+    }
 
-        // 清理接收者的缓存（如果有）
-        plugin.getMailManager().clearPlayerCache(playerUuid);
+    /**
+     * 应用其他服务器的事件：状态变更直接修补缓存，新邮件使缓存失效并提醒在线接收者
+     */
+    private void applyEvent(MailEvent event) {
+        plugin.getMailManager().getCacheManager().applyEvent(event);
+
+        if (event.type() == MailEventLog.EventType.NEW && event.receiverUuid() != null) {
+            plugin.getMailManager().onIncomingMail(event.receiverUuid());
+            Player receiver = Bukkit.getPlayer(event.receiverUuid());
+            if (receiver != null) {
+                receiver.sendMessage("§a[邮件系统] §e你收到了一封新邮件！来自: §f" + event.senderName());
+            }
+        }
+    }
+
+    /**
+     * 当前轮询间隔（秒）
+     */
+    public double getCurrentIntervalSeconds() {
+        return (isTransportConnected()
+                ? plugin.getMailConfig().getFallbackPollInterval() * 20L
+                : currentIntervalTicks) / 20.0;
+    }
+
+    /**
+     * 命中率：命中其他服务器事件的轮询占比
+     */
+    public double getHitRate() {
+        return pollCount == 0 ? 0 : (double) hitCount / pollCount;
+    }
+
+    public long getPollCount() {
+        return pollCount;
     }
 
-    private String getServerId() {
-        String serverId = plugin.getConfig().getString("server.id", "");
-        if (serverId.isEmpty()) {
-            serverId = Bukkit.getServer().getName();
+    /**
+     * 推送通道状态描述
+     */
+    public String getTransportStatus() {
+        NotificationTransport current = transport;
+        if (current == null) {
+            return "none";
         }
-        return serverId;
+        return current.getName() + (current.isConnected() ? "（已连接）" : "（未连接）");
     }
 
-    private record MailNotification(UUID mailId, String senderName, UUID receiverUuid, String title, long sentTime) {
+    /**
+     * 当前已处理到的事件序列号
+     */
+    public long getLastSeq() {
+        return lastSeq;
     }
 }
@@ -0,0 +1,144 @@
+package dev.user.mailsystem.mail;
+
+import dev.user.mailsystem.MailSystemPlugin;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 幂等键管理器 - 识别调用方重试时重复提交的邮件
+ * 数据库中 (receiver_uuid, idempotency_key) 唯一索引是最终保证；最近送达的幂等键额外在内存中保留一段时间，
+ * 重试风暴时大部分重复请求无需查询数据库即可直接返回成功
+ */
+public class IdempotencyManager {
+
+    private static final int IN_CHUNK_SIZE = 500;
+
+    private final MailSystemPlugin plugin;
+
+    // (接收者, 幂等键) -> 最近送达记录
+    private final Map<Key, Recent> recent = new ConcurrentHashMap<>();
+
+    public IdempotencyManager(MailSystemPlugin plugin) {
+        this.plugin = plugin;
+    }
+
+    /**
+     * 查询内存中最近送达的邮件ID（未命中或已过期时返回null）
+     */
+    public UUID getRecent(UUID receiverUuid, String idempotencyKey) {
+        Recent entry = recent.get(new Key(receiverUuid, idempotencyKey));
+        if (entry == null) {
+            return null;
+        }
+        if (entry.expireAt() < System.currentTimeMillis()) {
+            recent.remove(new Key(receiverUuid, idempotencyKey), entry);
+            return null;
+        }
+        return entry.mailId();
+    }
+
+    /**
+     * 记录已送达的幂等键
+     */
+    public void remember(UUID receiverUuid, String idempotencyKey, UUID mailId) {
+        long ttl = plugin.getMailConfig().getIdempotencyKeyTtl() * 1000L;
+        if (ttl <= 0) {
+            return;
+        }
+        recent.put(new Key(receiverUuid, idempotencyKey), new Recent(mailId, System.currentTimeMillis() + ttl));
+    }
+
+    /**
+     * 在给定连接上查询已送达的幂等键（按 IN_CHUNK_SIZE 分批，每批一条查询），查到的结果同时记入内存
+     *
+     * @return (接收者, 幂等键) -> 已存在的邮件ID
+     */
+    public Map<Key, UUID> queryDelivered(Connection conn, Collection<Key> keys) throws SQLException {
+        Map<Key, UUID> delivered = new HashMap<>();
+        List<Key> pending = new ArrayList<>(keys);
+        for (int start = 0; start < pending.size(); start += IN_CHUNK_SIZE) {
+            List<Key> chunk = pending.subList(start, Math.min(start + IN_CHUNK_SIZE, pending.size()));
+            Set<Key> wanted = new HashSet<>(chunk);
+            Set<String> receivers = new HashSet<>();
+            Set<String> idempotencyKeys = new HashSet<>();
+            for (Key key : chunk) {
+                receivers.add(key.receiverUuid().toString());
+                idempotencyKeys.add(key.idempotencyKey());
+            }
+
+            String sql = "SELECT id, receiver_uuid, idempotency_key FROM mails WHERE receiver_uuid IN (" +
+                    placeholders(receivers.size()) + ") AND idempotency_key IN (" + placeholders(idempotencyKeys.size()) + ")";
+            try (PreparedStatement ps = conn.prepareStatement(sql)) {
+                int index = 1;
+                for (String receiver : receivers) {
+                    ps.setString(index++, receiver);
+                }
+                for (String idempotencyKey : idempotencyKeys) {
+                    ps.setString(index++, idempotencyKey);
+                }
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        // IN × IN 可能查出本批未请求的组合，只保留请求过的
+                        Key key = new Key(UUID.fromString(rs.getString("receiver_uuid")), rs.getString("idempotency_key"));
+                        if (wanted.contains(key)) {
+                            delivered.put(key, UUID.fromString(rs.getString("id")));
+                        }
+                    }
+                }
+            }
+        }
+        delivered.forEach((key, mailId) -> remember(key.receiverUuid(), key.idempotencyKey(), mailId));
+        return delivered;
+    }
+
+    /**
+     * 判断写入失败是否由幂等键唯一索引冲突引起（并发重试在检查之后、写入之前抢先送达）
+     */
+    public static boolean isDuplicateKey(Throwable error) {
+        if (!(error instanceof SQLException sqlError)) {
+            return false;
+        }
+        String state = sqlError.getSQLState();
+        String msg = sqlError.getMessage();
+        return state != null && state.startsWith("23")
+                && msg != null && msg.toLowerCase().contains("uk_mail_idempotency");
+    }
+
+    /**
+     * 清理过期的内存记录
+     */
+    public void cleanExpired() {
+        long now = System.currentTimeMillis();
+        recent.values().removeIf(entry -> entry.expireAt() < now);
+    }
+
+    public void clear() {
+        recent.clear();
+    }
+
+    private static String placeholders(int count) {
+        return String.join(",", Collections.nCopies(count, "?"));
+    }
+
+    /**
+     * 幂等键（按接收者区分）
+     */
+    public record Key(UUID receiverUuid, String idempotencyKey) {
+    }
+
+    private record Recent(UUID mailId, long expireAt) {
+    }
+}
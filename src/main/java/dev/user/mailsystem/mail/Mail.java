@@ -5,6 +5,7 @@ import org.bukkit.inventory.ItemStack;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.UUID;
+import java.util.function.Function;
 
 public class Mail {
 
@@ -15,7 +16,13 @@ public class Mail {
     private String receiverName;
     private String title;
     private String content;
-    private List<ItemStack> attachments;
+    private volatile List<ItemStack> attachments;
+    // 延迟解码：数据库中的原始附件数据（GZIP压缩的NBT），首次访问附件时才解码
+    private volatile byte[] rawAttachments;
+    private Function<byte[], List<ItemStack>> attachmentDecoder;
+    // 仅加载了邮件头（未加载附件数据）时，记录是否存在物品附件
+    private boolean attachmentsOmitted;
+    private boolean omittedHasItems;
     private double moneyAttachment;
     private long sentTime;
     private long expireTime;
@@ -23,6 +30,8 @@ public class Mail {
     private boolean claimed;
     private long readTime;
     private String serverId;
+    // 读取时合并的全服公告（尚未写入 mails 表），null 表示普通邮件
+    private UUID announcementId;
 
     public Mail(UUID senderUuid, String senderName, UUID receiverUuid, String receiverName,
                 String title, String content) {
@@ -119,26 +128,93 @@ public class Mail {
     }
 
     public List<ItemStack> getAttachments() {
+        if (rawAttachments != null) {
+            decodeAttachments();
+        }
         return attachments;
     }
 
     public void setAttachments(List<ItemStack> attachments) {
-        this.attachments = attachments;
+        synchronized (this) {
+            this.rawAttachments = null;
+            this.attachmentDecoder = null;
+            this.attachments = attachments;
+        }
+    }
+
+    /**
+     * 设置原始附件数据，首次调用 getAttachments() 时才解码（结果会被缓存）
+     *
+     * @param data    序列化后的附件数据
+     * @param decoder 解码器（通常为 AttachmentManager::deserialize）
+     */
+    public void setRawAttachments(byte[] data, Function<byte[], List<ItemStack>> decoder) {
+        synchronized (this) {
+            if (data == null || data.length == 0) {
+                this.rawAttachments = null;
+                this.attachmentDecoder = null;
+                this.attachments = new ArrayList<>();
+                return;
+            }
+            this.attachmentDecoder = decoder;
+            this.rawAttachments = data;
+        }
+    }
+
+    /**
+     * 获取尚未解码的原始附件数据（已解码或无附件时返回null）
+     */
+    public byte[] getRawAttachments() {
+        return rawAttachments;
+    }
+
+    private synchronized void decodeAttachments() {
+        byte[] data = rawAttachments;
+        if (data == null) {
+            return; // 其他线程已完成解码
+        }
+        this.attachments = attachmentDecoder.apply(data);
+        this.attachmentDecoder = null;
+        this.rawAttachments = null;
     }
 
     public void addAttachment(ItemStack item) {
-        if (this.attachments == null) {
-            this.attachments = new ArrayList<>();
+        List<ItemStack> items = getAttachments();
+        if (items == null) {
+            items = new ArrayList<>();
+            this.attachments = items;
         }
-        this.attachments.add(item);
+        items.add(item);
     }
 
     public boolean hasAttachments() {
-        return (attachments != null && !attachments.isEmpty()) || moneyAttachment > 0;
+        return hasItemAttachments() || moneyAttachment > 0;
+    }
+
+    /**
+     * 标记为仅包含邮件头（附件数据未加载），用于发件箱等只需展示摘要的场景
+     *
+     * @param hasItems 数据库中是否存在物品附件
+     */
+    public void setAttachmentsOmitted(boolean hasItems) {
+        this.attachmentsOmitted = true;
+        this.omittedHasItems = hasItems;
+    }
+
+    public boolean isAttachmentsOmitted() {
+        return attachmentsOmitted;
     }
 
     public boolean hasItemAttachments() {
-        return attachments != null && !attachments.isEmpty();
+        if (attachmentsOmitted) {
+            return omittedHasItems;
+        }
+        // 原始数据非空即视为有物品附件（空列表序列化结果为null），无需解码
+        if (rawAttachments != null) {
+            return true;
+        }
+        List<ItemStack> items = attachments;
+        return items != null && !items.isEmpty();
     }
 
     public double getMoneyAttachment() {
@@ -205,4 +281,16 @@ public class Mail {
     public void setServerId(String serverId) {
         this.serverId = serverId;
     }
+
+    public UUID getAnnouncementId() {
+        return announcementId;
+    }
+
+    public void setAnnouncementId(UUID announcementId) {
+        this.announcementId = announcementId;
+    }
+
+    public boolean isAnnouncement() {
+        return announcementId != null;
+    }
 }
@@ -0,0 +1,118 @@
+package dev.user.mailsystem.mail;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * 共享邮件正文存储 - 多收件人邮件的标题、内容、附件和金币只在 mail_bodies 中保存一份
+ * mails 中引用正文的行（body_id 非空）只保存收件人、状态和时间，读取时通过 {@link #SELECT_MAILS} 透明合并
+ * 最后一封引用正文的邮件删除后，正文在同一事务中回收（全服公告引用的正文在公告删除前保留）
+ */
+public final class MailBodyStore {
+
+    /**
+     * 读取完整邮件的列和表（正文优先取共享正文，未引用正文的行取本行数据）
+     */
+    public static final String SELECT_MAILS = "SELECT m.id, m.sender_uuid, m.sender_name, m.receiver_uuid, m.receiver_name, " +
+            "COALESCE(b.title, m.title) AS title, COALESCE(b.content, m.content) AS content, " +
+            "COALESCE(b.attachments, m.attachments) AS attachments, " +
+            "COALESCE(b.money_attachment, m.money_attachment) AS money_attachment, " +
+            "m.sent_time, m.expire_time, m.is_read, m.is_claimed " +
+            "FROM mails m LEFT JOIN mail_bodies b ON b.id = m.body_id";
+
+    private MailBodyStore() {
+    }
+
+    /**
+     * 写入共享正文（已存在时跳过，同一正文可被多个事务分批引用）
+     */
+    public static void ensureBody(Connection conn, String bodyId, String title, String content,
+                                  byte[] attachments, double moneyAttachment) throws SQLException {
+        try (PreparedStatement ps = conn.prepareStatement("SELECT 1 FROM mail_bodies WHERE id = ?")) {
+            ps.setString(1, bodyId);
+            try (ResultSet rs = ps.executeQuery()) {
+                if (rs.next()) {
+                    return;
+                }
+            }
+        }
+        String sql = "INSERT INTO mail_bodies (id, title, content, attachments, money_attachment, created_at) VALUES (?, ?, ?, ?, ?, ?)";
+        try (PreparedStatement ps = conn.prepareStatement(sql)) {
+            ps.setString(1, bodyId);
+            ps.setString(2, title);
+            ps.setString(3, content);
+            if (attachments != null) {
+                ps.setBytes(4, attachments);
+            } else {
+                ps.setNull(4, java.sql.Types.BLOB);
+            }
+            ps.setDouble(5, moneyAttachment);
+            ps.setLong(6, System.currentTimeMillis());
+            ps.executeUpdate();
+        }
+    }
+
+    /**
+     * 删除单封邮件后调用：正文不再被引用时回收
+     */
+    public static void releaseBody(Connection conn, String bodyId) throws SQLException {
+        if (bodyId == null) {
+            return;
+        }
+        String sql = "DELETE FROM mail_bodies WHERE id = ? AND NOT EXISTS (SELECT 1 FROM mails WHERE body_id = ?) " +
+                "AND NOT EXISTS (SELECT 1 FROM mail_announcements WHERE body_id = ?)";
+        try (PreparedStatement ps = conn.prepareStatement(sql)) {
+            ps.setString(1, bodyId);
+            ps.setString(2, bodyId);
+            ps.setString(3, bodyId);
+            ps.executeUpdate();
+        }
+    }
+
+    /**
+     * 批量删除邮件后调用：被删除邮件引用的正文不再被引用时回收（只检查给定的正文，不扫描整表）
+     *
+     * @param bodyIds 被删除邮件引用的正文ID（不重复）
+     */
+    public static void releaseBodies(Connection conn, Collection<String> bodyIds) throws SQLException {
+        if (bodyIds.isEmpty()) {
+            return;
+        }
+        String sql = "DELETE FROM mail_bodies WHERE id = ? AND NOT EXISTS (SELECT 1 FROM mails WHERE body_id = ?) " +
+                "AND NOT EXISTS (SELECT 1 FROM mail_announcements WHERE body_id = ?)";
+        try (PreparedStatement ps = conn.prepareStatement(sql)) {
+            for (String bodyId : bodyIds) {
+                ps.setString(1, bodyId);
+                ps.setString(2, bodyId);
+                ps.setString(3, bodyId);
+                ps.addBatch();
+            }
+            ps.executeBatch();
+        }
+    }
+
+    /**
+     * 查询即将删除的邮件引用的正文ID（在删除之前调用）
+     *
+     * @param where 与删除语句相同的条件（以 WHERE 开头，参数依次绑定 params）
+     */
+    public static Set<String> queryBodyIds(Connection conn, String where, Object... params) throws SQLException {
+        Set<String> bodyIds = new HashSet<>();
+        try (PreparedStatement ps = conn.prepareStatement("SELECT DISTINCT body_id FROM mails " + where + " AND body_id IS NOT NULL")) {
+            for (int i = 0; i < params.length; i++) {
+                ps.setObject(i + 1, params[i]);
+            }
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    bodyIds.add(rs.getString(1));
+                }
+            }
+        }
+        return bodyIds;
+    }
+}
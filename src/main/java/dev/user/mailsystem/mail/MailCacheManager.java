@@ -10,6 +10,7 @@ import java.sql.SQLException;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Consumer;
 
 /**
@@ -19,18 +20,38 @@ public class MailCacheManager {
 
     private final MailSystemPlugin plugin;
     private final DatabaseQueue databaseQueue;
+    private static final int MAX_SENT_MAILS = 100; // 每个发送者最多缓存的已发送邮件数
+
     private final Map<UUID, CacheEntry> playerMailCache;
+    // 发件箱缓存（仅邮件头，不含附件数据）
+    private final Map<UUID, CacheEntry> sentMailCache;
+    // 空收件箱缓存（负缓存）：UUID -> 过期时间
+    private final Map<UUID, Long> emptyInboxCache;
+    // 版本时钟：每次失效或修补取一个新版本号
+    private final AtomicLong versionClock;
+    // 每个玩家最近一次失效或修补时的版本：加载期间该玩家发生过变更则不写入缓存（避免覆盖修补和新邮件信号）
+    private final Map<UUID, PlayerVersion> playerVersions;
+    // 最近一次整体清空时的版本
+    private volatile long clearedVersion;
     private final Set<UUID> unreadNotificationSent;
 
     public MailCacheManager(MailSystemPlugin plugin) {
         this.plugin = plugin;
         this.databaseQueue = plugin.getDatabaseQueue();
         this.playerMailCache = new ConcurrentHashMap<>();
+        this.sentMailCache = new ConcurrentHashMap<>();
+        this.emptyInboxCache = new ConcurrentHashMap<>();
+        this.versionClock = new AtomicLong();
+        this.playerVersions = new ConcurrentHashMap<>();
         this.unreadNotificationSent = ConcurrentHashMap.newKeySet();
     }
 
     public void clear() {
         playerMailCache.clear();
+        sentMailCache.clear();
+        emptyInboxCache.clear();
+        clearedVersion = versionClock.incrementAndGet();
+        playerVersions.clear();
         unreadNotificationSent.clear();
     }
 
@@ -60,6 +81,12 @@ public class MailCacheManager {
      * 获取或加载玩家邮件（检查过期）
      */
     public void getOrLoadMails(UUID playerUuid, Consumer<List<Mail>> callback) {
+        // 空收件箱快速路径：负缓存有效时直接返回空列表，不查询数据库
+        if (isKnownEmpty(playerUuid)) {
+            callback.accept(new CopyOnWriteArrayList<>());
+            return;
+        }
+
         CacheEntry entry = playerMailCache.get(playerUuid);
         if (entry != null && !entry.isExpired()) {
             callback.accept(entry.mails);
@@ -84,9 +111,12 @@ public class MailCacheManager {
      * 从数据库加载玩家邮件
      */
     public void loadFromDatabase(UUID playerUuid, Consumer<List<Mail>> callback) {
+        long startVersion = versionClock.get();
         databaseQueue.submit("loadPlayerMails", conn -> {
             List<Mail> mails = new ArrayList<>();
-            String sql = "SELECT * FROM mails WHERE receiver_uuid = ? AND (expire_time = 0 OR expire_time > ?) ORDER BY sent_time DESC";
+            AnnouncementManager announcementManager = plugin.getAnnouncementManager();
+            String sql = MailBodyStore.SELECT_MAILS +
+                    " WHERE m.receiver_uuid = ? AND (m.expire_time = 0 OR m.expire_time > ?) ORDER BY m.sent_time DESC";
             try (PreparedStatement ps = conn.prepareStatement(sql)) {
                 ps.setString(1, playerUuid.toString());
                 ps.setLong(2, System.currentTimeMillis());
@@ -96,8 +126,22 @@ public class MailCacheManager {
                     }
                 }
             }
-            return mails;
-        }, mails -> {
+            List<AnnouncementManager.PendingAnnouncement> announcements = announcementManager != null
+                    ? announcementManager.queryPending(conn, playerUuid)
+                    : List.of();
+            return new InboxLoad(mails, announcements);
+        }, load -> {
+            // 合并尚未操作过的全服公告（按发送时间倒序）
+            List<Mail> mails = load.mails();
+            if (!load.announcements().isEmpty()) {
+                mails.addAll(plugin.getAnnouncementManager().filterVisible(playerUuid, load.announcements()));
+                mails.sort((a, b) -> Long.compare(b.getSentTime(), a.getSentTime()));
+            }
+            // 加载期间该玩家发生过失效或修补时不写入缓存：查询结果可能早于修补，写入会覆盖修补
+            if (changedSince(playerUuid, startVersion)) {
+                callback.accept(mails);
+                return;
+            }
             // 存入缓存，设置过期时间
             // 使用compute保证原子性，避免覆盖其他线程更新的缓存
             long ttl = getCacheTtl();
@@ -109,35 +153,378 @@ public class MailCacheManager {
                 // 保留其他线程更新的缓存（可能包含更新的数据）
                 return existingEntry;
             });
+            if (mails.isEmpty()) {
+                emptyInboxCache.put(playerUuid, System.currentTimeMillis() + getNegativeCacheTtl());
+            } else {
+                emptyInboxCache.remove(playerUuid);
+            }
             // 返回查询结果（可能不是最新的，但保证最终一致性）
             callback.accept(mails);
         });
     }
 
     /**
-     * 加载玩家发送的邮件（不缓存）
+     * 加载玩家发送的邮件（仅邮件头，带缓存）
      */
     public void loadSentMails(UUID senderUuid, Consumer<List<Mail>> callback) {
+        CacheEntry entry = sentMailCache.get(senderUuid);
+        if (entry != null && !entry.isExpired()) {
+            callback.accept(entry.mails);
+            return;
+        }
+
         databaseQueue.submit("loadSentMails", conn -> {
             List<Mail> mails = new ArrayList<>();
-            String sql = "SELECT * FROM mails WHERE sender_uuid = ? ORDER BY sent_time DESC LIMIT 100";
+            // 不读取 attachments BLOB，仅判断是否存在物品附件
+            String sql = "SELECT m.id, m.sender_uuid, m.sender_name, m.receiver_uuid, m.receiver_name, " +
+                    "COALESCE(b.title, m.title) AS title, COALESCE(b.content, m.content) AS content, " +
+                    "COALESCE(b.money_attachment, m.money_attachment) AS money_attachment, " +
+                    "m.sent_time, m.expire_time, m.is_read, m.is_claimed, " +
+                    "(m.attachments IS NOT NULL OR b.attachments IS NOT NULL) AS has_items " +
+                    "FROM mails m LEFT JOIN mail_bodies b ON b.id = m.body_id " +
+                    "WHERE m.sender_uuid = ? ORDER BY m.sent_time DESC LIMIT " + MAX_SENT_MAILS;
             try (PreparedStatement ps = conn.prepareStatement(sql)) {
                 ps.setString(1, senderUuid.toString());
                 try (ResultSet rs = ps.executeQuery()) {
                     while (rs.next()) {
-                        mails.add(resultSetToMail(rs));
+                        mails.add(resultSetToHeader(rs));
                     }
                 }
             }
             return mails;
-        }, callback);
+        }, mails -> {
+            CacheEntry loaded = new CacheEntry(mails, getCacheTtl());
+            sentMailCache.compute(senderUuid, (key, existingEntry) -> {
+                if (existingEntry == null || existingEntry.isExpired()) {
+                    return loaded;
+                }
+                return existingEntry;
+            });
+            callback.accept(loaded.mails);
+        });
+    }
+
+    /**
+     * 持久化成功后追加到发送者的发件箱缓存（仅当缓存已存在时）
+     */
+    public void appendSentMail(Mail mail) {
+        CacheEntry entry = sentMailCache.get(mail.getSenderUuid());
+        if (entry == null || entry.isExpired()) {
+            return; // 未缓存时无需维护，下次打开发件箱时从数据库加载
+        }
+        synchronized (entry) {
+            for (Mail existing : entry.mails) {
+                if (existing.getId().equals(mail.getId())) {
+                    return;
+                }
+            }
+            entry.mails.add(0, toHeader(mail));
+            while (entry.mails.size() > MAX_SENT_MAILS) {
+                entry.mails.remove(entry.mails.size() - 1);
+            }
+        }
+    }
+
+    /**
+     * 已读回执：更新发件箱缓存中的阅读状态
+     */
+    public void updateSentReadStatus(UUID senderUuid, UUID mailId, boolean read) {
+        Mail mail = findSentMail(senderUuid, mailId);
+        if (mail != null) {
+            if (read) {
+                mail.markAsRead();
+            } else {
+                mail.setRead(false);
+            }
+        }
+    }
+
+    /**
+     * 更新发件箱缓存中的附件领取状态
+     */
+    public void updateSentClaimStatus(UUID senderUuid, UUID mailId, boolean claimed) {
+        Mail mail = findSentMail(senderUuid, mailId);
+        if (mail != null) {
+            mail.setClaimed(claimed);
+        }
+    }
+
+    /**
+     * 从发件箱缓存中移除已删除的邮件
+     */
+    public void removeSentMail(UUID senderUuid, UUID mailId) {
+        CacheEntry entry = sentMailCache.get(senderUuid);
+        if (entry != null) {
+            entry.mails.removeIf(mail -> mail.getId().equals(mailId));
+        }
+    }
+
+    /**
+     * 收件箱被清空时，从所有发件箱缓存中移除发给该玩家的邮件
+     */
+    public void removeSentMailsTo(UUID receiverUuid) {
+        for (CacheEntry entry : sentMailCache.values()) {
+            entry.mails.removeIf(mail -> mail.getReceiverUuid().equals(receiverUuid));
+        }
+    }
+
+    /**
+     * 移除发件箱缓存中已过期（已被数据库清理）的邮件
+     */
+    public void pruneExpiredSentMails() {
+        for (CacheEntry entry : sentMailCache.values()) {
+            entry.mails.removeIf(Mail::isExpired);
+        }
+    }
+
+    /**
+     * 使发送者的发件箱缓存失效（跨服新邮件无法构造完整邮件头时使用）
+     */
+    public void invalidateSent(UUID senderUuid) {
+        sentMailCache.remove(senderUuid);
+    }
+
+    // ==================== 收件箱修补（本服操作与跨服事件共用） ====================
+
+    /**
+     * 按事件修补收件箱和发件箱缓存，无法修补的新邮件事件使缓存失效
+     */
+    public void applyEvent(MailEventLog.MailEvent event) {
+        UUID receiverUuid = event.receiverUuid();
+        UUID senderUuid = event.senderUuid();
+        switch (event.type()) {
+            case NEW -> {
+                // 事件不含邮件内容，收件箱需重新加载
+                if (receiverUuid != null) invalidate(receiverUuid);
+                if (senderUuid != null) invalidateSent(senderUuid);
+            }
+            case READ, UNREAD -> {
+                boolean read = event.type() == MailEventLog.EventType.READ;
+                patchReadStatus(receiverUuid, event.mailId(), read);
+                if (senderUuid != null) updateSentReadStatus(senderUuid, event.mailId(), read);
+            }
+            case CLAIM, UNCLAIM -> {
+                boolean claimed = event.type() == MailEventLog.EventType.CLAIM;
+                patchClaimStatus(receiverUuid, event.mailId(), claimed);
+                if (senderUuid != null) updateSentClaimStatus(senderUuid, event.mailId(), claimed);
+            }
+            case DELETE -> {
+                removeMail(receiverUuid, event.mailId());
+                if (senderUuid != null) removeSentMail(senderUuid, event.mailId());
+            }
+            case CLEAR -> {
+                clearMails(receiverUuid);
+                removeSentMailsTo(receiverUuid);
+            }
+            case EXPIRE -> {
+                removeExpiredMails(receiverUuid);
+                pruneExpiredSentMails();
+            }
+            case ANNOUNCE -> onAnnouncement();
+        }
+    }
+
+    /**
+     * 修补收件箱缓存中的阅读状态
+     */
+    public void patchReadStatus(UUID receiverUuid, UUID mailId, boolean read) {
+        bumpVersion(receiverUuid);
+        Mail mail = findMail(playerMailCache, receiverUuid, mailId);
+        if (mail != null) {
+            if (read) {
+                mail.markAsRead();
+            } else {
+                mail.setRead(false);
+            }
+        }
+    }
+
+    /**
+     * 公告已转为普通邮件：清除缓存条目的公告标记，之后计入邮箱容量
+     */
+    public void patchMaterialized(UUID receiverUuid, UUID mailId) {
+        Mail mail = findMail(playerMailCache, receiverUuid, mailId);
+        if (mail != null && mail.isAnnouncement()) {
+            mail.setAnnouncementId(null);
+        }
+    }
+
+    /**
+     * 修补收件箱缓存中的附件领取状态
+     */
+    public void patchClaimStatus(UUID receiverUuid, UUID mailId, boolean claimed) {
+        bumpVersion(receiverUuid);
+        Mail mail = findMail(playerMailCache, receiverUuid, mailId);
+        if (mail != null) {
+            mail.setClaimed(claimed);
+        }
+    }
+
+    /**
+     * 从收件箱缓存中移除已删除的邮件
+     */
+    public void removeMail(UUID receiverUuid, UUID mailId) {
+        bumpVersion(receiverUuid);
+        CacheEntry entry = receiverUuid != null ? playerMailCache.get(receiverUuid) : null;
+        if (entry != null) {
+            entry.mails.removeIf(mail -> mail.getId().equals(mailId));
+        }
+    }
+
+    /**
+     * 收件箱被清空：缓存置空并记录空收件箱标记
+     */
+    public void clearMails(UUID receiverUuid) {
+        if (receiverUuid == null) return;
+        bumpVersion(receiverUuid);
+        CacheEntry entry = playerMailCache.get(receiverUuid);
+        if (entry != null) {
+            entry.mails.clear();
+        }
+        emptyInboxCache.put(receiverUuid, System.currentTimeMillis() + getNegativeCacheTtl());
+    }
+
+    /**
+     * 移除收件箱缓存中已过期的邮件
+     */
+    public void removeExpiredMails(UUID receiverUuid) {
+        bumpVersion(receiverUuid);
+        CacheEntry entry = receiverUuid != null ? playerMailCache.get(receiverUuid) : null;
+        if (entry != null) {
+            entry.mails.removeIf(Mail::isExpired);
+        }
+    }
+
+    /**
+     * 记录玩家的收件箱发生了失效或修补
+     */
+    private void bumpVersion(UUID playerUuid) {
+        if (playerUuid != null) {
+            playerVersions.put(playerUuid, new PlayerVersion(versionClock.incrementAndGet(), System.currentTimeMillis()));
+        }
+    }
+
+    /**
+     * 自 startVersion 以来该玩家是否发生过失效或修补（整体清空也算）
+     */
+    private boolean changedSince(UUID playerUuid, long startVersion) {
+        if (clearedVersion > startVersion) {
+            return true;
+        }
+        PlayerVersion version = playerVersions.get(playerUuid);
+        return version != null && version.version() > startVersion;
+    }
+
+    private Mail findSentMail(UUID senderUuid, UUID mailId) {
+        return findMail(sentMailCache, senderUuid, mailId);
+    }
+
+    private Mail findMail(Map<UUID, CacheEntry> cache, UUID ownerUuid, UUID mailId) {
+        CacheEntry entry = ownerUuid != null ? cache.get(ownerUuid) : null;
+        if (entry == null) {
+            return null;
+        }
+        for (Mail mail : entry.mails) {
+            if (mail.getId().equals(mailId)) {
+                return mail;
+            }
+        }
+        return null;
     }
 
     /**
      * 使缓存失效
      */
     public void invalidate(UUID playerUuid) {
+        bumpVersion(playerUuid);
+        playerMailCache.remove(playerUuid);
+        emptyInboxCache.remove(playerUuid);
+    }
+
+    /**
+     * 发布了全服公告：所有收件箱缓存和空收件箱标记失效，下次读取时合并新公告
+     */
+    public void onAnnouncement() {
+        clearedVersion = versionClock.incrementAndGet();
+        playerMailCache.clear();
+        emptyInboxCache.clear();
+    }
+
+    /**
+     * 服务端扇出写入了一段接收者的新邮件：区间内本服缓存的收件箱和空收件箱标记全部失效
+     * 本服写入的扇出事件不会被本服轮询，离线玩家的空收件箱标记必须在此清除
+     *
+     * @param fromReceiver 接收者UUID下界（不含）
+     * @param toReceiver   接收者UUID上界（含）
+     */
+    public void invalidateRange(String fromReceiver, String toReceiver) {
+        Set<UUID> tracked = new HashSet<>(playerMailCache.keySet());
+        tracked.addAll(emptyInboxCache.keySet());
+        for (UUID playerUuid : tracked) {
+            String uuid = playerUuid.toString();
+            if (uuid.compareTo(fromReceiver) > 0 && uuid.compareTo(toReceiver) <= 0) {
+                invalidate(playerUuid);
+            }
+        }
+    }
+
+    /**
+     * 新邮件到达信号 - 移除空收件箱标记（无论发送选项是否要求清理缓存）
+     */
+    public void onIncomingMail(UUID receiverUuid) {
+        bumpVersion(receiverUuid);
+        emptyInboxCache.remove(receiverUuid);
+        CacheEntry entry = playerMailCache.get(receiverUuid);
+        if (entry != null) {
+            // 缓存未必包含新邮件，不能再用于计数
+            entry.complete = false;
+        }
+    }
+
+    /**
+     * 从缓存获取玩家邮箱中未过期的邮件数量
+     *
+     * @return 缓存新鲜且完整时返回数量，否则返回null（需要查询数据库）
+     */
+    public Integer getCachedMailCount(UUID playerUuid) {
+        if (isKnownEmpty(playerUuid)) {
+            return 0;
+        }
+        CacheEntry entry = playerMailCache.get(playerUuid);
+        if (entry == null || entry.isExpired() || !entry.complete) {
+            return null;
+        }
+        int count = 0;
+        for (Mail mail : entry.mails) {
+            // 读取时合并的公告不占用邮箱容量
+            if (!mail.isExpired() && !mail.isAnnouncement()) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * 玩家下线时释放邮件列表缓存，空收件箱标记保留（体积极小，且由新邮件信号负责失效）
+     */
+    public void release(UUID playerUuid) {
         playerMailCache.remove(playerUuid);
+        sentMailCache.remove(playerUuid);
+    }
+
+    /**
+     * 是否已确认收件箱为空（负缓存有效）
+     */
+    public boolean isKnownEmpty(UUID playerUuid) {
+        Long expireAt = emptyInboxCache.get(playerUuid);
+        if (expireAt == null) {
+            return false;
+        }
+        if (System.currentTimeMillis() > expireAt) {
+            emptyInboxCache.remove(playerUuid, expireAt);
+            return false;
+        }
+        return true;
     }
 
     /**
@@ -161,6 +548,21 @@ public class MailCacheManager {
         unreadNotificationSent.remove(playerUuid);
     }
 
+    /**
+     * 收集本服缓存了收件箱或空收件箱标记的玩家，用于按接收者限定跨服事件的查询范围
+     */
+    public void collectTrackedReceivers(Set<UUID> into) {
+        into.addAll(playerMailCache.keySet());
+        into.addAll(emptyInboxCache.keySet());
+    }
+
+    /**
+     * 收集本服缓存了发件箱的玩家，用于按发送者限定跨服事件的查询范围
+     */
+    public void collectTrackedSenders(Set<UUID> into) {
+        into.addAll(sentMailCache.keySet());
+    }
+
     /**
      * 获取缓存中的玩家数量
      */
@@ -177,6 +579,11 @@ public class MailCacheManager {
         // 但仍然存在小概率竞态：条目在检查通过后、移除前被刷新
         // 这是可接受的，下次访问时会重新加载
         playerMailCache.entrySet().removeIf(entry -> entry.getValue().expireTime < now);
+        sentMailCache.entrySet().removeIf(entry -> entry.getValue().expireTime < now);
+        emptyInboxCache.entrySet().removeIf(entry -> entry.getValue() < now);
+        // 版本记录只需覆盖进行中的加载，保留一个缓存TTL足够
+        long versionCutoff = now - getCacheTtl();
+        playerVersions.values().removeIf(version -> version.changedAt() < versionCutoff);
     }
 
     /**
@@ -187,6 +594,13 @@ public class MailCacheManager {
         return plugin.getMailConfig().getCacheTtl() * 1000L;
     }
 
+    /**
+     * 获取空收件箱缓存过期时间（毫秒）
+     */
+    private long getNegativeCacheTtl() {
+        return plugin.getMailConfig().getNegativeCacheTtl() * 1000L;
+    }
+
     private Mail resultSetToMail(ResultSet rs) throws SQLException {
         Mail mail = new Mail(
                 UUID.fromString(rs.getString("sender_uuid")),
@@ -203,22 +617,73 @@ public class MailCacheManager {
         mail.setClaimed(rs.getBoolean("is_claimed"));
         mail.setMoneyAttachment(rs.getDouble("money_attachment"));
 
-        // 反序列化附件
+        // 附件延迟解码：仅在真正访问附件时才解压和解析NBT
         byte[] attachData = rs.getBytes("attachments");
         if (attachData != null) {
-            List<org.bukkit.inventory.ItemStack> items = plugin.getAttachmentManager().deserialize(attachData);
-            mail.setAttachments(items);
+            mail.setRawAttachments(attachData, plugin.getAttachmentManager()::deserialize);
         }
 
         return mail;
     }
 
+    /**
+     * 解析邮件头（不含附件数据）
+     */
+    private Mail resultSetToHeader(ResultSet rs) throws SQLException {
+        Mail mail = new Mail(
+                UUID.fromString(rs.getString("sender_uuid")),
+                rs.getString("sender_name"),
+                UUID.fromString(rs.getString("receiver_uuid")),
+                rs.getString("receiver_name"),
+                rs.getString("title"),
+                rs.getString("content")
+        );
+        mail.setId(UUID.fromString(rs.getString("id")));
+        mail.setSentTime(rs.getLong("sent_time"));
+        mail.setExpireTime(rs.getLong("expire_time"));
+        mail.setRead(rs.getBoolean("is_read"));
+        mail.setClaimed(rs.getBoolean("is_claimed"));
+        mail.setMoneyAttachment(rs.getDouble("money_attachment"));
+        mail.setAttachmentsOmitted(rs.getBoolean("has_items"));
+        return mail;
+    }
+
+    /**
+     * 复制为邮件头（丢弃附件数据）
+     */
+    private Mail toHeader(Mail mail) {
+        Mail header = new Mail(mail.getSenderUuid(), mail.getSenderName(), mail.getReceiverUuid(),
+                mail.getReceiverName(), mail.getTitle(), mail.getContent());
+        header.setId(mail.getId());
+        header.setSentTime(mail.getSentTime());
+        header.setExpireTime(mail.getExpireTime());
+        header.setRead(mail.isRead());
+        header.setClaimed(mail.isClaimed());
+        header.setMoneyAttachment(mail.getMoneyAttachment());
+        header.setAttachmentsOmitted(mail.hasItemAttachments());
+        return header;
+    }
+
+    /**
+     * 一次收件箱加载的结果：数据库中的邮件和待合并的公告
+     */
+    private record InboxLoad(List<Mail> mails, List<AnnouncementManager.PendingAnnouncement> announcements) {
+    }
+
+    /**
+     * 玩家收件箱最近一次变更的版本号和时间
+     */
+    private record PlayerVersion(long version, long changedAt) {
+    }
+
     /**
      * 缓存条目内部类
      */
     private static class CacheEntry {
         final List<Mail> mails;
         final long expireTime;
+        // 是否包含该玩家的全部邮件（收到新邮件但未刷新时为false）
+        volatile boolean complete = true;
 
         CacheEntry(List<Mail> mails, long ttlMillis) {
             this.mails = new CopyOnWriteArrayList<>(mails);
@@ -0,0 +1,398 @@
+package dev.user.mailsystem.mail;
+
+import dev.user.mailsystem.MailSystemPlugin;
+import dev.user.mailsystem.cache.PlayerPresenceManager;
+import dev.user.mailsystem.database.DatabaseQueue;
+import org.bukkit.Bukkit;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+
+/**
+ * 邮件事件日志 - 基于数据库自增序列的变更日志
+ * 每次邮件变更都在同一事务中写入一条事件，各服务器按 seq 顺序追踪并精确失效缓存
+ * 通过 {@link #inTransaction} 执行的事务在提交后会把事件推送到跨服通道
+ */
+public class MailEventLog {
+
+    private static final int IN_CHUNK_SIZE = 500;
+
+    private final MailSystemPlugin plugin;
+    // 当前线程事务中写入、等待提交后推送的事件
+    private final ThreadLocal<List<MailEvent>> pendingEvents = new ThreadLocal<>();
+
+    public MailEventLog(MailSystemPlugin plugin) {
+        this.plugin = plugin;
+    }
+
+    /**
+     * 事件类型
+     */
+    public enum EventType {
+        NEW,        // 新邮件
+        READ,       // 标记已读
+        UNREAD,     // 标记未读
+        CLAIM,      // 附件已领取
+        UNCLAIM,    // 附件领取状态重置
+        DELETE,     // 删除单封邮件
+        CLEAR,      // 清空收件箱
+        EXPIRE,     // 过期清理
+        ANNOUNCE    // 发布全服公告（无接收者，路由到所有服务器）
+    }
+
+    /**
+     * 路由到所有服务器的事件的 target_server
+     */
+    public static final String ALL_SERVERS = "*";
+
+    /**
+     * 邮件事件
+     */
+    public record MailEvent(long seq, EventType type, UUID mailId, UUID receiverUuid, UUID senderUuid,
+                            String senderName, String serverId, String targetServer, long createdAt) {
+    }
+
+    /**
+     * 在事务中执行操作，提交成功后推送期间写入的事件
+     */
+    public <T> T inTransaction(Connection conn, DatabaseQueue.DatabaseOperation<T> operation) throws SQLException {
+        List<MailEvent> events = new ArrayList<>();
+        pendingEvents.set(events);
+        try {
+            T result = DatabaseQueue.inTransaction(conn, operation);
+            publish(events);
+            return result;
+        } finally {
+            pendingEvents.remove();
+        }
+    }
+
+    /**
+     * 写入一条事件（调用方负责事务）
+     */
+    public MailEvent append(Connection conn, EventType type, UUID mailId, UUID receiverUuid,
+                            UUID senderUuid, String senderName) throws SQLException {
+        String sql = "INSERT INTO mail_events (event_type, mail_id, receiver_uuid, sender_uuid, sender_name, server_id, target_server, created_at) " +
+                "VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
+        String serverId = getServerId();
+        String targetServer = type == EventType.ANNOUNCE ? ALL_SERVERS : resolveTarget(conn, receiverUuid);
+        long createdAt = System.currentTimeMillis();
+        try (PreparedStatement ps = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
+            ps.setString(1, type.name());
+            setUuid(ps, 2, mailId);
+            setUuid(ps, 3, receiverUuid);
+            setUuid(ps, 4, senderUuid);
+            if (senderName != null) {
+                ps.setString(5, senderName);
+            } else {
+                ps.setNull(5, Types.VARCHAR);
+            }
+            ps.setString(6, serverId);
+            if (targetServer != null) {
+                ps.setString(7, targetServer);
+            } else {
+                ps.setNull(7, Types.VARCHAR);
+            }
+            ps.setLong(8, createdAt);
+            ps.executeUpdate();
+
+            long seq = 0;
+            try (ResultSet keys = ps.getGeneratedKeys()) {
+                if (keys.next()) {
+                    seq = keys.getLong(1);
+                }
+            }
+            MailEvent event = new MailEvent(seq, type, mailId, receiverUuid, senderUuid, senderName, serverId, targetServer, createdAt);
+            List<MailEvent> pending = pendingEvents.get();
+            if (pending != null && seq > 0) {
+                pending.add(event);
+            }
+            return event;
+        }
+    }
+
+    /**
+     * 批量写入同类型事件（调用方负责事务）
+     * 数据库未返回自增键的事件不会推送，由轮询兜底
+     */
+    public List<MailEvent> appendAll(Connection conn, EventType type, List<EventDraft> drafts) throws SQLException {
+        if (drafts.isEmpty()) {
+            return List.of();
+        }
+        String sql = "INSERT INTO mail_events (event_type, mail_id, receiver_uuid, sender_uuid, sender_name, server_id, target_server, created_at) " +
+                "VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
+        String serverId = getServerId();
+        Map<UUID, String> targets = resolveTargets(conn, drafts);
+        long createdAt = System.currentTimeMillis();
+        List<MailEvent> events = new ArrayList<>(drafts.size());
+        try (PreparedStatement ps = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
+            for (EventDraft draft : drafts) {
+                String targetServer = targetOf(targets, draft);
+                ps.setString(1, type.name());
+                setUuid(ps, 2, draft.mailId());
+                setUuid(ps, 3, draft.receiverUuid());
+                setUuid(ps, 4, draft.senderUuid());
+                if (draft.senderName() != null) {
+                    ps.setString(5, draft.senderName());
+                } else {
+                    ps.setNull(5, Types.VARCHAR);
+                }
+                ps.setString(6, serverId);
+                if (targetServer != null) {
+                    ps.setString(7, targetServer);
+                } else {
+                    ps.setNull(7, Types.VARCHAR);
+                }
+                ps.setLong(8, createdAt);
+                ps.addBatch();
+            }
+            ps.executeBatch();
+
+            List<MailEvent> pending = pendingEvents.get();
+            try (ResultSet keys = ps.getGeneratedKeys()) {
+                for (EventDraft draft : drafts) {
+                    long seq = keys.next() ? keys.getLong(1) : 0;
+                    MailEvent event = new MailEvent(seq, type, draft.mailId(), draft.receiverUuid(), draft.senderUuid(),
+                            draft.senderName(), serverId, targetOf(targets, draft), createdAt);
+                    events.add(event);
+                    if (pending != null && seq > 0) {
+                        pending.add(event);
+                    }
+                }
+            }
+        }
+        return events;
+    }
+
+    /**
+     * 为服务端扇出生成的邮件批量写入NEW事件（INSERT ... SELECT，邮件行不经过JDBC）
+     * 这些事件不经推送通道发布，其他服务器通过数据库轮询获取
+     *
+     * @param bodyId       扇出任务的共享正文ID（本次扇出写入的邮件都引用它）
+     * @param fromReceiver 接收者UUID下界（不含）
+     * @param toReceiver   接收者UUID上界（含）
+     * @return 写入的事件数量
+     */
+    public int appendFanOut(Connection conn, String bodyId, String fromReceiver, String toReceiver) throws SQLException {
+        PlayerPresenceManager presenceManager = plugin.getPresenceManager();
+        String sql = "INSERT INTO mail_events (event_type, mail_id, receiver_uuid, sender_uuid, sender_name, server_id, target_server, created_at) " +
+                "SELECT ?, m.id, m.receiver_uuid, m.sender_uuid, m.sender_name, ?, " +
+                (presenceManager != null ? "p.server_id" : "NULL") + ", ? FROM mails m " +
+                (presenceManager != null ? "LEFT JOIN player_presence p ON p.player_uuid = m.receiver_uuid AND p.updated_at > ? " : "") +
+                "WHERE m.body_id = ? AND m.receiver_uuid > ? AND m.receiver_uuid <= ?";
+        try (PreparedStatement ps = conn.prepareStatement(sql)) {
+            int index = 1;
+            ps.setString(index++, EventType.NEW.name());
+            ps.setString(index++, getServerId());
+            ps.setLong(index++, System.currentTimeMillis());
+            if (presenceManager != null) {
+                ps.setLong(index++, presenceManager.getStaleBefore());
+            }
+            ps.setString(index++, bodyId);
+            ps.setString(index++, fromReceiver);
+            ps.setString(index, toReceiver);
+            return ps.executeUpdate();
+        }
+    }
+
+    /**
+     * 待批量写入的事件
+     */
+    public record EventDraft(UUID mailId, UUID receiverUuid, UUID senderUuid, String senderName) {
+    }
+
+    private static String targetOf(Map<UUID, String> targets, EventDraft draft) {
+        return draft.receiverUuid() != null ? targets.get(draft.receiverUuid()) : null;
+    }
+
+    private Map<UUID, String> resolveTargets(Connection conn, List<EventDraft> drafts) throws SQLException {
+        PlayerPresenceManager presenceManager = plugin.getPresenceManager();
+        if (presenceManager == null) {
+            return Map.of();
+        }
+        Set<UUID> receivers = new HashSet<>();
+        for (EventDraft draft : drafts) {
+            if (draft.receiverUuid() != null) {
+                receivers.add(draft.receiverUuid());
+            }
+        }
+        return presenceManager.lookupServers(conn, receivers);
+    }
+
+    /**
+     * 查询接收者当前所在的服务器作为事件路由目标（离线时为null，由缓存了该玩家的服务器按玩家查询）
+     */
+    private String resolveTarget(Connection conn, UUID receiverUuid) throws SQLException {
+        PlayerPresenceManager presenceManager = plugin.getPresenceManager();
+        if (receiverUuid == null || presenceManager == null) {
+            return null;
+        }
+        return presenceManager.lookupServer(conn, receiverUuid);
+    }
+
+    private void publish(List<MailEvent> events) {
+        CrossServerNotifier notifier = plugin.getCrossServerNotifier();
+        if (notifier == null || events.isEmpty()) {
+            return;
+        }
+        for (MailEvent event : events) {
+            notifier.publish(event);
+        }
+    }
+
+    /**
+     * 一次轮询读取的事件
+     *
+     * @param highSeq   本次读取覆盖到的序列号上界
+     * @param events    上界以内与指定玩家相关的事件（按 seq 升序）
+     * @param truncated 是否因数量限制截断，截断时应从 highSeq 继续读取
+     */
+    public record EventBatch(long highSeq, List<MailEvent> events, boolean truncated) {
+    }
+
+    /**
+     * 读取 seq 之后与本服相关的事件：
+     * 路由到本服的事件（接收者在本服在线）、接收者属于 receivers 或发送者属于 senders 的事件
+     * 玩家集合按 IN_CHUNK_SIZE 分批查询，查询代价与本服相关玩家数成正比，与全网邮件量无关
+     */
+    public EventBatch readScoped(Connection conn, long fromSeq, String serverId, Collection<UUID> receivers,
+                                 Collection<UUID> senders, int limit) throws SQLException {
+        long highSeq = currentSeq(conn);
+        if (highSeq <= fromSeq) {
+            return new EventBatch(fromSeq, List.of(), false);
+        }
+
+        TreeMap<Long, MailEvent> merged = new TreeMap<>();
+        long[] bound = {highSeq};
+        boolean truncated = readInto(conn, merged, "target_server IN (?, ?)", List.of(serverId, ALL_SERVERS), fromSeq, bound, limit);
+        truncated |= readChunked(conn, merged, "receiver_uuid", receivers, fromSeq, bound, limit);
+        truncated |= readChunked(conn, merged, "sender_uuid", senders, fromSeq, bound, limit);
+        return new EventBatch(bound[0], new ArrayList<>(merged.headMap(bound[0], true).values()), truncated);
+    }
+
+    private boolean readChunked(Connection conn, TreeMap<Long, MailEvent> merged, String column, Collection<UUID> players,
+                                long fromSeq, long[] bound, int limit) throws SQLException {
+        boolean truncated = false;
+        List<String> values = new ArrayList<>(players.size());
+        for (UUID uuid : players) {
+            values.add(uuid.toString());
+        }
+        for (int start = 0; start < values.size(); start += IN_CHUNK_SIZE) {
+            List<String> chunk = values.subList(start, Math.min(start + IN_CHUNK_SIZE, values.size()));
+            String placeholders = String.join(", ", Collections.nCopies(chunk.size(), "?"));
+            truncated |= readInto(conn, merged, column + " IN (" + placeholders + ")", chunk, fromSeq, bound, limit);
+        }
+        return truncated;
+    }
+
+    /**
+     * 读取 (fromSeq, bound] 内满足条件的事件；读满 limit 条时把上界收缩到已读到的最大序列号，剩余部分下次继续
+     */
+    private boolean readInto(Connection conn, TreeMap<Long, MailEvent> merged, String condition, List<String> params,
+                             long fromSeq, long[] bound, int limit) throws SQLException {
+        String sql = "SELECT seq, event_type, mail_id, receiver_uuid, sender_uuid, sender_name, server_id, target_server, created_at " +
+                "FROM mail_events WHERE seq > ? AND seq <= ? AND " + condition + " ORDER BY seq LIMIT ?";
+        try (PreparedStatement ps = conn.prepareStatement(sql)) {
+            int index = 1;
+            ps.setLong(index++, fromSeq);
+            ps.setLong(index++, bound[0]);
+            for (String param : params) {
+                ps.setString(index++, param);
+            }
+            ps.setInt(index, limit);
+
+            int count = 0;
+            long lastRead = fromSeq;
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    MailEvent event = readEvent(rs);
+                    merged.put(event.seq(), event);
+                    lastRead = event.seq();
+                    count++;
+                }
+            }
+            if (count >= limit) {
+                bound[0] = Math.min(bound[0], lastRead);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 获取当前最大序列号（无事件时返回0）
+     */
+    public long currentSeq(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT MAX(seq) FROM mail_events")) {
+            if (rs.next()) {
+                return rs.getLong(1);
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * 清理指定时间之前的事件
+     */
+    public int prune(Connection conn, long before) throws SQLException {
+        String sql = "DELETE FROM mail_events WHERE created_at < ?";
+        try (PreparedStatement ps = conn.prepareStatement(sql)) {
+            ps.setLong(1, before);
+            return ps.executeUpdate();
+        }
+    }
+
+    private MailEvent readEvent(ResultSet rs) throws SQLException {
+        EventType type;
+        try {
+            type = EventType.valueOf(rs.getString("event_type"));
+        } catch (IllegalArgumentException e) {
+            type = null; // 新版本写入的未知类型，由调用方忽略
+        }
+        return new MailEvent(
+                rs.getLong("seq"),
+                type,
+                parseUuid(rs.getString("mail_id")),
+                parseUuid(rs.getString("receiver_uuid")),
+                parseUuid(rs.getString("sender_uuid")),
+                rs.getString("sender_name"),
+                rs.getString("server_id"),
+                rs.getString("target_server"),
+                rs.getLong("created_at")
+        );
+    }
+
+    private static void setUuid(PreparedStatement ps, int index, UUID uuid) throws SQLException {
+        if (uuid != null) {
+            ps.setString(index, uuid.toString());
+        } else {
+            ps.setNull(index, Types.VARCHAR);
+        }
+    }
+
+    private static UUID parseUuid(String value) {
+        return value != null ? UUID.fromString(value) : null;
+    }
+
+    public String getServerId() {
+        String serverId = plugin.getConfig().getString("server.id", "");
+        if (serverId.isEmpty()) {
+            serverId = Bukkit.getServer().getName();
+        }
+        return serverId;
+    }
+}
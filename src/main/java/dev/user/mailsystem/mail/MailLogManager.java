@@ -2,6 +2,7 @@ package dev.user.mailsystem.mail;
 
 import dev.user.mailsystem.MailSystemPlugin;
 import dev.user.mailsystem.database.DatabaseQueue;
+import dev.user.mailsystem.database.SqlDialect;
 import org.bukkit.entity.Player;
 
 import java.sql.Connection;
@@ -11,72 +12,187 @@ import java.sql.SQLException;
 import java.time.Instant;
 import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
 
 /**
  * 邮件日志管理器 - 管理发送日志和统计
+ * 每日发送数量在内存中按 (玩家, 日期) 计数：发送成功只做原子自增，增量由定时任务合并成一批 upsert 写回数据库，
+ * 停服时同步写回；计数首次使用时从数据库加载，超过 {@link #RELOAD_AFTER_MILLIS} 后重新加载以看到其他服务器的发送
  */
 public class MailLogManager {
 
+    private static final long RELOAD_AFTER_MILLIS = 60_000L;
+    private static final int UPSERT_CHUNK_SIZE = 500;
+    private static final String[] KEY_COLUMNS = {"player_uuid", "send_date"};
+    private static final String[] KEY_TYPES = {"VARCHAR(36)", "VARCHAR(10)"};
+
     private final MailSystemPlugin plugin;
     private final DatabaseQueue databaseQueue;
     private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd")
             .withZone(ZoneId.systemDefault());
 
+    // (玩家, 日期) -> 计数
+    private final Map<CounterKey, DailyCounter> counters = new ConcurrentHashMap<>();
+
     public MailLogManager(MailSystemPlugin plugin) {
         this.plugin = plugin;
         this.databaseQueue = plugin.getDatabaseQueue();
     }
 
     /**
-     * 记录玩家发送邮件日志
+     * 记录玩家发送邮件日志（只累加内存计数，由 {@link #flushAsync()} 写回数据库）
      */
     public void logMailSend(UUID playerUuid, int amount) {
-        databaseQueue.submitAsync("logMailSend", conn -> {
-            String today = getTodayDateString();
-
-            // 先尝试 UPDATE
-            String updateSql = "UPDATE mail_send_log SET send_count = send_count + ? WHERE player_uuid = ? AND send_date = ?";
-            try (PreparedStatement ps = conn.prepareStatement(updateSql)) {
-                ps.setInt(1, amount);
-                ps.setString(2, playerUuid.toString());
-                ps.setString(3, today);
-                int updated = ps.executeUpdate();
-
-                // 如果没有更新到记录，则 INSERT
-                if (updated == 0) {
-                    String insertSql = "INSERT INTO mail_send_log (player_uuid, send_date, send_count) VALUES (?, ?, ?)";
-                    try (PreparedStatement insertPs = conn.prepareStatement(insertSql)) {
-                        insertPs.setString(1, playerUuid.toString());
-                        insertPs.setString(2, today);
-                        insertPs.setInt(3, amount);
-                        insertPs.executeUpdate();
+        if (amount <= 0) {
+            return;
+        }
+        counters.computeIfAbsent(new CounterKey(playerUuid, getTodayDateString()), k -> new DailyCounter())
+                .unflushed.addAndGet(amount);
+    }
+
+    /**
+     * 获取内存中玩家今日发送的邮件数量（未加载或需要重新加载时返回null）
+     */
+    public Integer getCachedTodaySendCount(UUID playerUuid) {
+        DailyCounter counter = counters.get(new CounterKey(playerUuid, getTodayDateString()));
+        if (counter == null || counter.persisted < 0
+                || System.currentTimeMillis() - counter.loadedAt > RELOAD_AFTER_MILLIS) {
+            return null;
+        }
+        return counter.total();
+    }
+
+    /**
+     * 提交一次异步写回
+     */
+    public void flushAsync() {
+        if (!hasUnflushed()) {
+            return;
+        }
+        databaseQueue.submitAsync("flushSendLog", conn -> {
+            flush(conn);
+            return null;
+        });
+    }
+
+    /**
+     * 在调用线程上同步写回（停服或重载时，数据库队列已停止后调用）
+     */
+    public void flushSync() {
+        if (!hasUnflushed()) {
+            return;
+        }
+        try (Connection conn = plugin.getDatabaseManager().getConnection()) {
+            flush(conn);
+        } catch (SQLException e) {
+            plugin.getLogger().severe("写回发送日志失败: " + e.getMessage());
+        }
+    }
+
+    private boolean hasUnflushed() {
+        for (DailyCounter counter : counters.values()) {
+            if (counter.unflushed.get() > 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 把所有计数的增量合并成一批 upsert 写回，成功后再从增量中扣除（期间的新增量保留到下次）
+     * 已过期日期且没有增量的计数在此时移除
+     */
+    private synchronized void flush(Connection conn) throws SQLException {
+        String today = getTodayDateString();
+        Map<CounterKey, Integer> deltas = new HashMap<>();
+        counters.forEach((key, counter) -> {
+            int delta = counter.unflushed.get();
+            if (delta > 0) {
+                deltas.put(key, delta);
+            }
+        });
+        counters.entrySet().removeIf(entry -> !entry.getKey().date().equals(today) && entry.getValue().unflushed.get() == 0);
+        if (deltas.isEmpty()) {
+            return;
+        }
+
+        // 多行 VALUES 的单条 upsert，每条语句最多 UPSERT_CHUNK_SIZE 行
+        List<Map.Entry<CounterKey, Integer>> entries = new ArrayList<>(deltas.entrySet());
+        SqlDialect dialect = plugin.getDatabaseManager().getDialect();
+        DatabaseQueue.inTransaction(conn, c -> {
+            for (int start = 0; start < entries.size(); start += UPSERT_CHUNK_SIZE) {
+                List<Map.Entry<CounterKey, Integer>> chunk = entries.subList(start, Math.min(start + UPSERT_CHUNK_SIZE, entries.size()));
+                String sql = dialect.upsertIncrement("mail_send_log", KEY_COLUMNS, KEY_TYPES, "send_count", chunk.size());
+                try (PreparedStatement ps = c.prepareStatement(sql)) {
+                    int index = 1;
+                    for (Map.Entry<CounterKey, Integer> entry : chunk) {
+                        ps.setString(index++, entry.getKey().playerUuid().toString());
+                        ps.setString(index++, entry.getKey().date());
+                        ps.setInt(index++, entry.getValue());
                     }
+                    ps.executeUpdate();
                 }
             }
             return null;
         });
+
+        // 先计入已持久化数量再扣除增量，并发读取时只会短暂多算，不会少算
+        deltas.forEach((key, delta) -> {
+            DailyCounter counter = counters.get(key);
+            if (counter != null) {
+                if (counter.persisted >= 0) {
+                    counter.persisted += delta;
+                }
+                counter.unflushed.addAndGet(-delta);
+            }
+        });
     }
 
     /**
      * 异步获取玩家今日发送的邮件数量
      */
     public void getTodaySendCountAsync(UUID playerUuid, Consumer<Integer> callback) {
-        databaseQueue.submit("getTodaySendCount", conn -> {
-            String today = getTodayDateString();
-            String sql = "SELECT send_count FROM mail_send_log WHERE player_uuid = ? AND send_date = ?";
-            try (PreparedStatement ps = conn.prepareStatement(sql)) {
-                ps.setString(1, playerUuid.toString());
-                ps.setString(2, today);
-                try (ResultSet rs = ps.executeQuery()) {
-                    if (rs.next()) {
-                        return rs.getInt(1);
-                    }
+        databaseQueue.submit("getTodaySendCount", conn -> queryTodaySendCount(conn, playerUuid), callback);
+    }
+
+    /**
+     * 在给定连接上查询玩家今日发送的邮件数量（内存计数有效时直接返回，否则从数据库加载并加上尚未写回的增量）
+     */
+    public int queryTodaySendCount(Connection conn, UUID playerUuid) throws SQLException {
+        Integer cached = getCachedTodaySendCount(playerUuid);
+        if (cached != null) {
+            return cached;
+        }
+        String today = getTodayDateString();
+        int persisted = loadSendCount(conn, playerUuid, today);
+        synchronized (this) {
+            // 与写回互斥：数据库中的数量与内存中尚未写回的增量不重叠
+            DailyCounter counter = counters.computeIfAbsent(new CounterKey(playerUuid, today), k -> new DailyCounter());
+            counter.persisted = persisted;
+            counter.loadedAt = System.currentTimeMillis();
+            return counter.total();
+        }
+    }
+
+    private int loadSendCount(Connection conn, UUID playerUuid, String today) throws SQLException {
+        String sql = "SELECT send_count FROM mail_send_log WHERE player_uuid = ? AND send_date = ?";
+        try (PreparedStatement ps = conn.prepareStatement(sql)) {
+            ps.setString(1, playerUuid.toString());
+            ps.setString(2, today);
+            try (ResultSet rs = ps.executeQuery()) {
+                if (rs.next()) {
+                    return rs.getInt(1);
                 }
             }
-            return 0;
-        }, callback);
+        }
+        return 0;
     }
 
     /**
@@ -102,4 +218,21 @@ public class MailLogManager {
     private String getTodayDateString() {
         return DATE_FORMATTER.format(Instant.now());
     }
+
+    private record CounterKey(UUID playerUuid, String date) {
+    }
+
+    /**
+     * 单个玩家单日的计数：persisted 为已知的数据库中数量（-1 表示未加载，只在数据库线程写入），
+     * unflushed 为尚未写回的增量
+     */
+    private static final class DailyCounter {
+        private volatile int persisted = -1;
+        private volatile long loadedAt;
+        private final AtomicInteger unflushed = new AtomicInteger();
+
+        private int total() {
+            return Math.max(persisted, 0) + unflushed.get();
+        }
+    }
 }
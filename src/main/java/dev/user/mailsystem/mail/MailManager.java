@@ -19,6 +19,8 @@ import java.util.function.Consumer;
 
 public class MailManager implements Consumer<ScheduledTask> {
 
+    private static final int MAIL_COUNT_CHUNK_SIZE = 500;
+
     private final MailSystemPlugin plugin;
     private final DatabaseQueue databaseQueue;
     private final SendPipeline sendPipeline;
@@ -27,10 +29,14 @@ public class MailManager implements Consumer<ScheduledTask> {
     private final MailCacheManager cacheManager;
     private final MailLogManager logManager;
     private final AttachmentManager attachmentManager;
+    private final MailEventLog eventLog;
+    private final IdempotencyManager idempotencyManager;
 
     private ScheduledTask cleanupTask;
     private ScheduledTask notificationTask;
     private ScheduledTask cacheCleanupTask;
+    private ScheduledTask sendLogFlushTask;
+    private ScheduledTask blacklistRefreshTask;
 
     private final ConcurrentHashMap<UUID, Boolean> processingClaims = new ConcurrentHashMap<>();
 
@@ -42,12 +48,15 @@ public class MailManager implements Consumer<ScheduledTask> {
         this.cacheManager = new MailCacheManager(plugin);
         this.logManager = new MailLogManager(plugin);
         this.attachmentManager = new AttachmentManager(plugin);
+        this.eventLog = new MailEventLog(plugin);
+        this.idempotencyManager = new IdempotencyManager(plugin);
         startTasks();
     }
 
     public void reload() {
         stopTasks();
         cacheManager.clear();
+        blacklistManager.clearCache();
         processingClaims.clear();
         startTasks();
     }
@@ -59,13 +68,24 @@ public class MailManager implements Consumer<ScheduledTask> {
 
         cleanupTask = Bukkit.getGlobalRegionScheduler().runAtFixedRate(plugin, this, cleanupInterval, cleanupInterval);
         notificationTask = Bukkit.getGlobalRegionScheduler().runAtFixedRate(plugin, task -> checkUnreadMails(), checkInterval, checkInterval);
-        cacheCleanupTask = Bukkit.getGlobalRegionScheduler().runAtFixedRate(plugin, task -> cacheManager.cleanExpired(), cacheCleanupInterval, cacheCleanupInterval);
+        int flushInterval = plugin.getMailConfig().getSendLogFlushInterval() * 20;
+        sendLogFlushTask = Bukkit.getGlobalRegionScheduler().runAtFixedRate(plugin, task -> logManager.flushAsync(), flushInterval, flushInterval);
+        // 有黑名单的拥有者过滤器：启动后立即加载，之后每分钟重建
+        int blacklistRefreshInterval = 20 * 60;
+        blacklistRefreshTask = Bukkit.getGlobalRegionScheduler().runAtFixedRate(plugin, task -> blacklistManager.refreshOwnerFilter(), 1, blacklistRefreshInterval);
+        cacheCleanupTask = Bukkit.getGlobalRegionScheduler().runAtFixedRate(plugin, task -> {
+            cacheManager.cleanExpired();
+            idempotencyManager.cleanExpired();
+            plugin.getAnnouncementManager().cleanExpired();
+        }, cacheCleanupInterval, cacheCleanupInterval);
     }
 
     private void stopTasks() {
         if (cleanupTask != null && !cleanupTask.isCancelled()) cleanupTask.cancel();
         if (notificationTask != null && !notificationTask.isCancelled()) notificationTask.cancel();
         if (cacheCleanupTask != null && !cacheCleanupTask.isCancelled()) cacheCleanupTask.cancel();
+        if (sendLogFlushTask != null && !sendLogFlushTask.isCancelled()) sendLogFlushTask.cancel();
+        if (blacklistRefreshTask != null && !blacklistRefreshTask.isCancelled()) blacklistRefreshTask.cancel();
     }
 
     @Override
@@ -151,16 +171,33 @@ public class MailManager implements Consumer<ScheduledTask> {
     // ==================== 邮件查询 ====================
 
     public void getMail(UUID mailId, Consumer<Mail> callback) {
-        databaseQueue.submit("getMail", conn -> {
-            String sql = "SELECT * FROM mails WHERE id = ?";
-            try (PreparedStatement ps = conn.prepareStatement(sql)) {
-                ps.setString(1, mailId.toString());
-                try (ResultSet rs = ps.executeQuery()) {
-                    if (rs.next()) return resultSetToMail(rs);
-                }
+        databaseQueue.submit("getMail", conn -> queryMail(conn, mailId), callback);
+    }
+
+    /**
+     * 查询将要修改的邮件：全服公告在首次操作（已读、领取、删除）时先转为普通邮件
+     */
+    public void getMailForUpdate(UUID mailId, Consumer<Mail> callback) {
+        databaseQueue.submit("getMailForUpdate", conn -> {
+            plugin.getAnnouncementManager().materialize(conn, mailId);
+            return queryMail(conn, mailId);
+        }, mail -> {
+            if (mail != null) {
+                cacheManager.patchMaterialized(mail.getReceiverUuid(), mailId);
             }
-            return null;
-        }, callback);
+            callback.accept(mail);
+        });
+    }
+
+    private Mail queryMail(Connection conn, UUID mailId) throws SQLException {
+        String sql = MailBodyStore.SELECT_MAILS + " WHERE m.id = ?";
+        try (PreparedStatement ps = conn.prepareStatement(sql)) {
+            ps.setString(1, mailId.toString());
+            try (ResultSet rs = ps.executeQuery()) {
+                if (rs.next()) return resultSetToMail(rs);
+            }
+        }
+        return null;
     }
 
     public void loadPlayerMails(UUID playerUuid, Consumer<List<Mail>> callback) {
@@ -181,22 +218,25 @@ public class MailManager implements Consumer<ScheduledTask> {
     // ==================== 邮件操作 ====================
 
     public void markAsRead(UUID mailId) {
-        getMail(mailId, mail -> {
+        getMailForUpdate(mailId, mail -> {
             if (mail == null) return;
-            databaseQueue.submitAsync("markAsRead", conn -> {
+            databaseQueue.submitAsync("markAsRead", conn -> eventLog.inTransaction(conn, c -> {
                 String sql = "UPDATE mails SET is_read = TRUE WHERE id = ?";
-                try (PreparedStatement ps = conn.prepareStatement(sql)) {
+                try (PreparedStatement ps = c.prepareStatement(sql)) {
                     ps.setString(1, mailId.toString());
                     ps.executeUpdate();
                 }
+                eventLog.append(c, MailEventLog.EventType.READ, mailId, mail.getReceiverUuid(), mail.getSenderUuid(), null);
                 return null;
-            });
+            }));
             Player reader = Bukkit.getPlayer(mail.getReceiverUuid());
             if (reader != null) {
                 plugin.getAPI().fireMailReadEvent(mail, reader);
             }
-            // 清理缓存，确保已读状态同步
-            cacheManager.invalidate(mail.getReceiverUuid());
+            // 修补缓存中的已读状态
+            cacheManager.patchReadStatus(mail.getReceiverUuid(), mailId, true);
+            // 已读回执：同步发送者的发件箱缓存
+            cacheManager.updateSentReadStatus(mail.getSenderUuid(), mailId, true);
         });
     }
 
@@ -208,7 +248,7 @@ public class MailManager implements Consumer<ScheduledTask> {
         }
 
         // 先检查权限和基本条件（快速失败）
-        getMail(mailId, mail -> {
+        getMailForUpdate(mailId, mail -> {
             if (mail == null) {
                 player.sendMessage("§c[邮件系统] 邮件不存在！");
                 processingClaims.remove(mailId);
@@ -237,52 +277,40 @@ public class MailManager implements Consumer<ScheduledTask> {
     }
 
     private void doClaimAttachments(UUID mailId, Player player, Mail mail, List<ItemStack> attachments) {
-        databaseQueue.submit("claimAttachments", conn -> {
-            // 在同一事务中检查和更新，使用数据库锁防止跨服竞态
-            conn.setAutoCommit(false);
-            try {
-                // 1. 使用SELECT FOR UPDATE锁定行（数据库行锁）
-                String selectSql = "SELECT is_claimed, receiver_uuid, money_attachment FROM mails WHERE id = ? FOR UPDATE";
-                boolean canClaim = false;
-                double moneyAttachment = 0;
-
-                try (PreparedStatement selectPs = conn.prepareStatement(selectSql)) {
-                    selectPs.setString(1, mailId.toString());
-                    try (ResultSet rs = selectPs.executeQuery()) {
-                        if (rs.next()) {
-                            boolean isClaimed = rs.getBoolean("is_claimed");
-                            UUID receiverUuid = UUID.fromString(rs.getString("receiver_uuid"));
-                            moneyAttachment = rs.getDouble("money_attachment");
-
-                            // 再次验证权限和状态
-                            if (!isClaimed && (receiverUuid.equals(player.getUniqueId()) || player.hasPermission("mailsystem.admin"))) {
-                                canClaim = true;
-                            }
+        // 在同一事务中检查和更新，使用数据库锁防止跨服竞态
+        databaseQueue.submit("claimAttachments", conn -> eventLog.inTransaction(conn, c -> {
+            // 1. 使用SELECT FOR UPDATE锁定行（数据库行锁）
+            String selectSql = "SELECT is_claimed, receiver_uuid, money_attachment FROM mails WHERE id = ? FOR UPDATE";
+            boolean canClaim = false;
+
+            try (PreparedStatement selectPs = c.prepareStatement(selectSql)) {
+                selectPs.setString(1, mailId.toString());
+                try (ResultSet rs = selectPs.executeQuery()) {
+                    if (rs.next()) {
+                        boolean isClaimed = rs.getBoolean("is_claimed");
+                        UUID receiverUuid = UUID.fromString(rs.getString("receiver_uuid"));
+
+                        // 再次验证权限和状态
+                        if (!isClaimed && (receiverUuid.equals(player.getUniqueId()) || player.hasPermission("mailsystem.admin"))) {
+                            canClaim = true;
                         }
                     }
                 }
+            }
 
-                if (!canClaim) {
-                    conn.rollback();
-                    return false; // 已被领取或无权限
-                }
-
-                // 2. 更新状态
-                String updateSql = "UPDATE mails SET is_claimed = TRUE WHERE id = ?";
-                try (PreparedStatement updatePs = conn.prepareStatement(updateSql)) {
-                    updatePs.setString(1, mailId.toString());
-                    updatePs.executeUpdate();
-                }
+            if (!canClaim) {
+                return false; // 已被领取或无权限（未做修改，提交仅释放行锁）
+            }
 
-                conn.commit();
-                return true;
-            } catch (SQLException e) {
-                conn.rollback();
-                throw e;
-            } finally {
-                conn.setAutoCommit(true);
+            // 2. 更新状态
+            String updateSql = "UPDATE mails SET is_claimed = TRUE WHERE id = ?";
+            try (PreparedStatement updatePs = c.prepareStatement(updateSql)) {
+                updatePs.setString(1, mailId.toString());
+                updatePs.executeUpdate();
             }
-        }, success -> {
+            eventLog.append(c, MailEventLog.EventType.CLAIM, mailId, mail.getReceiverUuid(), mail.getSenderUuid(), null);
+            return true;
+        }), success -> {
             processingClaims.remove(mailId);
 
             if (success) {
@@ -326,11 +354,9 @@ public class MailManager implements Consumer<ScheduledTask> {
                     // 触发事件
                     plugin.getAPI().fireAttachmentClaimEvent(mail, player);
 
-                    // 跨服通知：通知其他服务器缓存失效
-                    plugin.getCrossServerNotifier().notifyAttachmentClaimed(mailId, player.getUniqueId());
-
-                    // 清理本地缓存
-                    cacheManager.invalidate(mail.getReceiverUuid());
+                    // 修补本地缓存（其他服务器通过 CLAIM 事件修补）
+                    cacheManager.patchClaimStatus(mail.getReceiverUuid(), mailId, true);
+                    cacheManager.updateSentClaimStatus(mail.getSenderUuid(), mailId, true);
                 }, null);
             } else {
                 player.sendMessage("§c[邮件系统] 附件已被领取或无权领取！");
@@ -342,55 +368,72 @@ public class MailManager implements Consumer<ScheduledTask> {
     }
 
     public void deleteMail(UUID mailId, UUID playerUuid) {
-        databaseQueue.submit("deleteMail", conn -> {
-            String checkSql = "SELECT receiver_uuid FROM mails WHERE id = ?";
-            try (PreparedStatement ps = conn.prepareStatement(checkSql)) {
+        databaseQueue.submit("deleteMail", conn -> eventLog.inTransaction(conn, c -> {
+            plugin.getAnnouncementManager().materialize(c, mailId);
+            String checkSql = "SELECT receiver_uuid, sender_uuid, body_id FROM mails WHERE id = ?";
+            try (PreparedStatement ps = c.prepareStatement(checkSql)) {
                 ps.setString(1, mailId.toString());
                 try (ResultSet rs = ps.executeQuery()) {
                     if (rs.next()) {
                         UUID receiverUuid = UUID.fromString(rs.getString("receiver_uuid"));
+                        UUID senderUuid = UUID.fromString(rs.getString("sender_uuid"));
                         if (receiverUuid.equals(playerUuid)) {
                             String deleteSql = "DELETE FROM mails WHERE id = ?";
-                            try (PreparedStatement delPs = conn.prepareStatement(deleteSql)) {
+                            try (PreparedStatement delPs = c.prepareStatement(deleteSql)) {
                                 delPs.setString(1, mailId.toString());
                                 delPs.executeUpdate();
                             }
-                            return receiverUuid;
+                            MailBodyStore.releaseBody(c, rs.getString("body_id"));
+                            eventLog.append(c, MailEventLog.EventType.DELETE, mailId, receiverUuid, senderUuid, null);
+                            return new UUID[]{receiverUuid, senderUuid};
                         }
                     }
                 }
             }
             return null;
-        }, receiverUuid -> {
-            if (receiverUuid != null) {
-                cacheManager.invalidate(receiverUuid);
+        }), parties -> {
+            if (parties != null) {
+                cacheManager.removeMail(parties[0], mailId);
+                cacheManager.removeSentMail(parties[1], mailId);
             }
         });
     }
 
     public void deleteMailById(UUID mailId) {
-        databaseQueue.submit("deleteMailById", conn -> {
-            // 先查询接收者UUID
-            String selectSql = "SELECT receiver_uuid FROM mails WHERE id = ?";
-            UUID receiverUuid = null;
-            try (PreparedStatement ps = conn.prepareStatement(selectSql)) {
+        databaseQueue.submit("deleteMailById", conn -> eventLog.inTransaction(conn, c -> {
+            plugin.getAnnouncementManager().materialize(c, mailId);
+            // 先查询接收者和发送者UUID
+            String selectSql = "SELECT receiver_uuid, sender_uuid, body_id FROM mails WHERE id = ?";
+            UUID[] parties = null;
+            String bodyId = null;
+            try (PreparedStatement ps = c.prepareStatement(selectSql)) {
                 ps.setString(1, mailId.toString());
                 try (ResultSet rs = ps.executeQuery()) {
                     if (rs.next()) {
-                        receiverUuid = UUID.fromString(rs.getString("receiver_uuid"));
+                        parties = new UUID[]{
+                                UUID.fromString(rs.getString("receiver_uuid")),
+                                UUID.fromString(rs.getString("sender_uuid"))
+                        };
+                        bodyId = rs.getString("body_id");
                     }
                 }
             }
-            // 删除邮件
+            if (parties == null) {
+                return null;
+            }
+            // 删除邮件，正文不再被引用时一并回收
             String sql = "DELETE FROM mails WHERE id = ?";
-            try (PreparedStatement ps = conn.prepareStatement(sql)) {
+            try (PreparedStatement ps = c.prepareStatement(sql)) {
                 ps.setString(1, mailId.toString());
                 ps.executeUpdate();
             }
-            return receiverUuid;
-        }, receiverUuid -> {
-            if (receiverUuid != null) {
-                cacheManager.invalidate(receiverUuid);
+            MailBodyStore.releaseBody(c, bodyId);
+            eventLog.append(c, MailEventLog.EventType.DELETE, mailId, parties[0], parties[1], null);
+            return parties;
+        }), parties -> {
+            if (parties != null) {
+                cacheManager.removeMail(parties[0], mailId);
+                cacheManager.removeSentMail(parties[1], mailId);
             }
         });
     }
@@ -398,46 +441,74 @@ public class MailManager implements Consumer<ScheduledTask> {
     public void markAsReadStatus(UUID mailId, boolean read) {
         getMail(mailId, mail -> {
             if (mail == null) return;
-            databaseQueue.submitAsync("markAsReadStatus", conn -> {
+            databaseQueue.submitAsync("markAsReadStatus", conn -> eventLog.inTransaction(conn, c -> {
                 String sql = "UPDATE mails SET is_read = ? WHERE id = ?";
-                try (PreparedStatement ps = conn.prepareStatement(sql)) {
+                try (PreparedStatement ps = c.prepareStatement(sql)) {
                     ps.setBoolean(1, read);
                     ps.setString(2, mailId.toString());
                     ps.executeUpdate();
                 }
+                eventLog.append(c, read ? MailEventLog.EventType.READ : MailEventLog.EventType.UNREAD,
+                        mailId, mail.getReceiverUuid(), mail.getSenderUuid(), null);
                 return null;
-            });
-            // 清理缓存
-            cacheManager.invalidate(mail.getReceiverUuid());
+            }));
+            // 修补缓存
+            cacheManager.patchReadStatus(mail.getReceiverUuid(), mailId, read);
+            cacheManager.updateSentReadStatus(mail.getSenderUuid(), mailId, read);
         });
     }
 
     public void markAsClaimedStatus(UUID mailId, boolean claimed) {
         getMail(mailId, mail -> {
             if (mail == null) return;
-            databaseQueue.submitAsync("markAsClaimedStatus", conn -> {
+            databaseQueue.submitAsync("markAsClaimedStatus", conn -> eventLog.inTransaction(conn, c -> {
                 String sql = "UPDATE mails SET is_claimed = ? WHERE id = ?";
-                try (PreparedStatement ps = conn.prepareStatement(sql)) {
+                try (PreparedStatement ps = c.prepareStatement(sql)) {
                     ps.setBoolean(1, claimed);
                     ps.setString(2, mailId.toString());
                     ps.executeUpdate();
                 }
+                eventLog.append(c, claimed ? MailEventLog.EventType.CLAIM : MailEventLog.EventType.UNCLAIM,
+                        mailId, mail.getReceiverUuid(), mail.getSenderUuid(), null);
                 return null;
-            });
-            // 清理缓存
-            cacheManager.invalidate(mail.getReceiverUuid());
+            }));
+            // 修补缓存
+            cacheManager.patchClaimStatus(mail.getReceiverUuid(), mailId, claimed);
+            cacheManager.updateSentClaimStatus(mail.getSenderUuid(), mailId, claimed);
         });
     }
 
     public void clearInbox(UUID playerUuid, Consumer<Integer> callback) {
-        databaseQueue.submit("clearInbox", conn -> {
+        // 先查询玩家当前可见的全服公告（权限受众需在全局区域线程中判断），清空时一并隐藏
+        AnnouncementManager announcementManager = plugin.getAnnouncementManager();
+        databaseQueue.submit("queryInboxAnnouncements", conn -> announcementManager.queryPending(conn, playerUuid), pending -> {
+            List<UUID> visible = new ArrayList<>();
+            for (Mail mail : announcementManager.filterVisible(playerUuid, pending)) {
+                visible.add(mail.getAnnouncementId());
+            }
+            clearInbox(playerUuid, visible, callback);
+        }, error -> clearInbox(playerUuid, List.of(), callback));
+    }
+
+    private void clearInbox(UUID playerUuid, List<UUID> visibleAnnouncements, Consumer<Integer> callback) {
+        databaseQueue.submit("clearInbox", conn -> eventLog.inTransaction(conn, c -> {
+            int dismissed = plugin.getAnnouncementManager().dismissAll(c, playerUuid, visibleAnnouncements);
+            Set<String> bodyIds = MailBodyStore.queryBodyIds(c, "WHERE receiver_uuid = ?", playerUuid.toString());
             String sql = "DELETE FROM mails WHERE receiver_uuid = ?";
-            try (PreparedStatement ps = conn.prepareStatement(sql)) {
+            int deleted;
+            try (PreparedStatement ps = c.prepareStatement(sql)) {
                 ps.setString(1, playerUuid.toString());
-                return ps.executeUpdate();
+                deleted = ps.executeUpdate();
+            }
+            MailBodyStore.releaseBodies(c, bodyIds);
+            if (deleted > 0 || dismissed > 0) {
+                // 只隐藏了公告时也通知其他服务器清空该玩家的收件箱缓存
+                eventLog.append(c, MailEventLog.EventType.CLEAR, null, playerUuid, null, null);
             }
-        }, deleted -> {
-            cacheManager.invalidate(playerUuid);
+            return deleted;
+        }), deleted -> {
+            cacheManager.clearMails(playerUuid);
+            cacheManager.removeSentMailsTo(playerUuid);
             callback.accept(deleted);
         });
     }
@@ -445,17 +516,89 @@ public class MailManager implements Consumer<ScheduledTask> {
     // ==================== 内部方法 ====================
 
     public void getMailCountAsync(UUID playerUuid, Consumer<Integer> callback) {
-        databaseQueue.submit("getMailCount", conn -> {
-            String sql = "SELECT COUNT(*) FROM mails WHERE receiver_uuid = ? AND (expire_time = 0 OR expire_time > ?)";
+        databaseQueue.submit("getMailCount", conn -> queryMailCount(conn, playerUuid), callback);
+    }
+
+    /**
+     * 批量获取玩家邮箱中未过期的邮件数量：缓存完整的玩家直接使用缓存，其余一次数据库任务分组查询
+     */
+    public void getMailCountsAsync(Collection<UUID> playerUuids, Consumer<Map<UUID, Integer>> callback) {
+        Map<UUID, Integer> counts = getCachedMailCounts(playerUuids);
+        List<UUID> uncached = new ArrayList<>();
+        for (UUID playerUuid : playerUuids) {
+            if (!counts.containsKey(playerUuid)) {
+                uncached.add(playerUuid);
+            }
+        }
+        if (uncached.isEmpty()) {
+            callback.accept(counts);
+            return;
+        }
+        databaseQueue.submit("getMailCounts", conn -> queryMailCounts(conn, uncached), queried -> {
+            counts.putAll(queried);
+            callback.accept(counts);
+        });
+    }
+
+    /**
+     * 从缓存获取邮件数量（只包含缓存新鲜且完整的玩家）
+     */
+    public Map<UUID, Integer> getCachedMailCounts(Collection<UUID> playerUuids) {
+        Map<UUID, Integer> counts = new HashMap<>();
+        for (UUID playerUuid : playerUuids) {
+            Integer cached = cacheManager.getCachedMailCount(playerUuid);
+            if (cached != null) {
+                counts.put(playerUuid, cached);
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * 在给定连接上分组查询多个玩家邮箱中未过期的邮件数量（每 MAIL_COUNT_CHUNK_SIZE 个玩家一条查询，无邮件的玩家为0）
+     */
+    public Map<UUID, Integer> queryMailCounts(Connection conn, Collection<UUID> playerUuids) throws SQLException {
+        Map<UUID, Integer> counts = new HashMap<>();
+        List<String> values = new ArrayList<>(playerUuids.size());
+        for (UUID playerUuid : playerUuids) {
+            counts.put(playerUuid, 0);
+            values.add(playerUuid.toString());
+        }
+        long now = System.currentTimeMillis();
+        for (int start = 0; start < values.size(); start += MAIL_COUNT_CHUNK_SIZE) {
+            List<String> chunk = values.subList(start, Math.min(start + MAIL_COUNT_CHUNK_SIZE, values.size()));
+            String placeholders = String.join(", ", Collections.nCopies(chunk.size(), "?"));
+            String sql = "SELECT receiver_uuid, COUNT(*) FROM mails WHERE receiver_uuid IN (" + placeholders + ") " +
+                    "AND (expire_time = 0 OR expire_time > ?) GROUP BY receiver_uuid";
             try (PreparedStatement ps = conn.prepareStatement(sql)) {
-                ps.setString(1, playerUuid.toString());
-                ps.setLong(2, System.currentTimeMillis());
+                int index = 1;
+                for (String receiverUuid : chunk) {
+                    ps.setString(index++, receiverUuid);
+                }
+                ps.setLong(index, now);
                 try (ResultSet rs = ps.executeQuery()) {
-                    if (rs.next()) return rs.getInt(1);
+                    while (rs.next()) {
+                        counts.put(UUID.fromString(rs.getString(1)), rs.getInt(2));
+                    }
                 }
             }
-            return 0;
-        }, callback);
+        }
+        return counts;
+    }
+
+    /**
+     * 在给定连接上查询玩家邮箱中未过期的邮件数量
+     */
+    public int queryMailCount(Connection conn, UUID playerUuid) throws SQLException {
+        String sql = "SELECT COUNT(*) FROM mails WHERE receiver_uuid = ? AND (expire_time = 0 OR expire_time > ?)";
+        try (PreparedStatement ps = conn.prepareStatement(sql)) {
+            ps.setString(1, playerUuid.toString());
+            ps.setLong(2, System.currentTimeMillis());
+            try (ResultSet rs = ps.executeQuery()) {
+                if (rs.next()) return rs.getInt(1);
+            }
+        }
+        return 0;
     }
 
     public void getTodaySendCountAsync(UUID playerUuid, Consumer<Integer> callback) {
@@ -490,8 +633,24 @@ public class MailManager implements Consumer<ScheduledTask> {
         cacheManager.invalidate(playerUuid);
     }
 
+    /**
+     * 新邮件到达信号（本服持久化成功或跨服检测到新邮件）
+     */
+    public void onIncomingMail(UUID receiverUuid) {
+        cacheManager.onIncomingMail(receiverUuid);
+    }
+
+    /**
+     * 玩家下线时释放缓存
+     */
+    public void releasePlayerCache(UUID playerUuid) {
+        cacheManager.release(playerUuid);
+        plugin.getAnnouncementManager().release(playerUuid);
+    }
+
     public void clearAllCache() {
         cacheManager.clear();
+        blacklistManager.clearCache();
     }
 
     public byte[] serializeAttachmentsInternal(List<ItemStack> items) {
@@ -502,6 +661,10 @@ public class MailManager implements Consumer<ScheduledTask> {
         return attachmentManager.deserialize(data);
     }
 
+    public SendPipeline getSendPipeline() {
+        return sendPipeline;
+    }
+
     public BlacklistManager getBlacklistManager() {
         return blacklistManager;
     }
@@ -518,6 +681,14 @@ public class MailManager implements Consumer<ScheduledTask> {
         return attachmentManager;
     }
 
+    public MailEventLog getEventLog() {
+        return eventLog;
+    }
+
+    public IdempotencyManager getIdempotencyManager() {
+        return idempotencyManager;
+    }
+
     // ==================== 定时任务 ====================
 
     private void checkUnreadMails() {
@@ -534,12 +705,13 @@ public class MailManager implements Consumer<ScheduledTask> {
     }
 
     private void cleanExpiredMails() {
-        databaseQueue.submit("cleanExpiredMails", conn -> {
+        databaseQueue.submit("cleanExpiredMails", conn -> eventLog.inTransaction(conn, c -> {
+            long now = System.currentTimeMillis();
             // 1. 先查询出过期的邮件接收者
             Set<UUID> affectedReceivers = new HashSet<>();
             String selectSql = "SELECT DISTINCT receiver_uuid FROM mails WHERE expire_time > 0 AND expire_time < ?";
-            try (PreparedStatement ps = conn.prepareStatement(selectSql)) {
-                ps.setLong(1, System.currentTimeMillis());
+            try (PreparedStatement ps = c.prepareStatement(selectSql)) {
+                ps.setLong(1, now);
                 try (ResultSet rs = ps.executeQuery()) {
                     while (rs.next()) {
                         affectedReceivers.add(UUID.fromString(rs.getString("receiver_uuid")));
@@ -547,22 +719,35 @@ public class MailManager implements Consumer<ScheduledTask> {
                 }
             }
 
-            // 2. 删除过期邮件
+            // 2. 删除过期邮件和公告，回收它们引用的正文
+            Set<String> bodyIds = MailBodyStore.queryBodyIds(c, "WHERE expire_time > 0 AND expire_time < ?", now);
             String deleteSql = "DELETE FROM mails WHERE expire_time > 0 AND expire_time < ?";
-            try (PreparedStatement ps = conn.prepareStatement(deleteSql)) {
-                ps.setLong(1, System.currentTimeMillis());
+            try (PreparedStatement ps = c.prepareStatement(deleteSql)) {
+                ps.setLong(1, now);
                 int deleted = ps.executeUpdate();
+                plugin.getAnnouncementManager().pruneExpired(c, now, bodyIds);
                 if (deleted > 0) {
                     plugin.getLogger().info("已清理 " + deleted + " 封过期邮件");
                 }
+                MailBodyStore.releaseBodies(c, bodyIds);
             }
+
+            // 3. 每个受影响的接收者写入一条EXPIRE事件
+            for (UUID receiverUuid : affectedReceivers) {
+                eventLog.append(c, MailEventLog.EventType.EXPIRE, null, receiverUuid, null, null);
+            }
+
+            // 4. 清理过期的事件日志
+            long retention = plugin.getMailConfig().getEventRetentionMinutes() * 60_000L;
+            eventLog.prune(c, now - retention);
             return affectedReceivers;
-        }, affectedReceivers -> {
-            // 3. 清理受影响玩家的缓存
+        }), affectedReceivers -> {
+            // 5. 从受影响玩家的缓存中移除过期邮件
             if (affectedReceivers != null && !affectedReceivers.isEmpty()) {
                 for (UUID receiverUuid : affectedReceivers) {
-                    cacheManager.invalidate(receiverUuid);
+                    cacheManager.removeExpiredMails(receiverUuid);
                 }
+                cacheManager.pruneExpiredSentMails();
             }
         });
     }
@@ -585,9 +770,10 @@ public class MailManager implements Consumer<ScheduledTask> {
         mail.setClaimed(rs.getBoolean("is_claimed"));
         mail.setMoneyAttachment(rs.getDouble("money_attachment"));
 
+        // 附件延迟解码：仅在真正访问附件时才解压和解析NBT
         byte[] attachData = rs.getBytes("attachments");
         if (attachData != null) {
-            mail.setAttachments(attachmentManager.deserialize(attachData));
+            mail.setRawAttachments(attachData, attachmentManager::deserialize);
         }
         return mail;
     }
@@ -19,7 +19,24 @@ public interface SendChain {
     void next(List<SendContext> contexts, Consumer<BatchSendResult> callback);
 
     /**
-     * 终止链并返回失败结果
+     * 剔除单个上下文并记录其失败原因，过滤器随后把其余上下文交给 {@link #next}
+     * 被剔除的接收者会出现在最终结果的失败原因中
+     *
+     * @param context 被剔除的上下文
+     * @param reason 失败原因
+     */
+    void drop(SendContext context, dev.user.mailsystem.api.draft.SendResult.FailReason reason);
+
+    /**
+     * 剔除已送达过的上下文（幂等键重复），不再执行后续过滤器，也不扣费
+     * 被跳过的接收者在最终结果中记为成功（费用为0）
+     *
+     * @param context 被跳过的上下文（邮件ID应已设置为已存在的邮件）
+     */
+    void skip(SendContext context);
+
+    /**
+     * 终止链并返回失败结果（尚未被剔除的接收者全部记为该原因）
      *
      * @param reason 失败原因
      * @param message 错误消息
@@ -20,6 +20,8 @@ public class SendContext {
     private double calculatedCost;
     private UUID mailId;
     private long sentTime;
+    private String escrowId;
+    private boolean duplicate;
     private boolean skipMailboxCheck;
     private boolean skipBlacklistCheck;
     private boolean skipDailyLimitCheck;
@@ -92,6 +94,28 @@ public class SendContext {
         this.sentTime = sentTime;
     }
 
+    /**
+     * 获取扣费托管ID（未扣费时为null）
+     */
+    public String getEscrowId() {
+        return escrowId;
+    }
+
+    public void setEscrowId(String escrowId) {
+        this.escrowId = escrowId;
+    }
+
+    /**
+     * 写入时与已送达的同一幂等键冲突（并发重试抢先送达），本次未写入新邮件，已扣费用需要退还
+     */
+    public boolean isDuplicate() {
+        return duplicate;
+    }
+
+    public void setDuplicate(boolean duplicate) {
+        this.duplicate = duplicate;
+    }
+
     // ==================== 跳过检查标志 ====================
 
     public boolean isSkipMailboxCheck() {
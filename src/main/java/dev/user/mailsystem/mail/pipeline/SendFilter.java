@@ -8,6 +8,12 @@ import java.util.List;
  */
 public interface SendFilter {
 
+    // 内置过滤器的顺序（数值越小越先执行）
+    int ORDER_VALIDATION = 100;
+    int ORDER_PREFLIGHT = 200;
+    int ORDER_ECONOMY = 300;
+    int ORDER_PERSISTENCE = 400;
+
     /**
      * 执行批量过滤检查
      *
@@ -25,8 +31,18 @@ public interface SendFilter {
 
     /**
      * 是否异步执行（默认true，大部分检查需要数据库查询）
+     * 返回false的过滤器必须在 {@link #filterBatch} 返回前调用 chain 的 next/fail 等方法，
+     * 责任链会在同一调用栈中循环执行连续的同步过滤器，只在异步过滤器处让出
      */
     default boolean isAsync() {
         return true;
     }
+
+    /**
+     * 在责任链中的顺序（数值越小越先执行，相同顺序按注册先后）
+     * 默认位于前置检查之后、扣费之前；必须小于 {@link #ORDER_PERSISTENCE}
+     */
+    default int getOrder() {
+        return ORDER_PREFLIGHT + 50;
+    }
 }
@@ -15,21 +15,60 @@ import java.util.function.Consumer;
 public class SendPipeline {
 
     private final MailSystemPlugin plugin;
-    private final List<SendFilter> filters;
+    // 按顺序排列的过滤器（注册/注销时整体替换，执行中的链不受影响）
+    private volatile List<SendFilter> filters;
 
     public SendPipeline(MailSystemPlugin plugin) {
         this.plugin = plugin;
-        // 按顺序组装过滤器
+        // 内置过滤器，顺序由 getOrder() 决定
         this.filters = List.of(
-            new ValidationFilter(plugin),      // 1. 内容验证
-            new MailboxLimitFilter(plugin),    // 2. 邮箱上限
-            new DailyLimitFilter(plugin),      // 3. 日发送限制
-            new BlacklistFilter(plugin),       // 4. 黑名单检查
-            new EconomyFilter(plugin),         // 5. 扣费
-            new PersistenceFilter(plugin)      // 6. 持久化到数据库
+            new ValidationFilter(plugin),      // 1. 内容验证（同步）
+            new PreflightFilter(plugin),       // 2. 幂等键、邮箱上限、日发送限制、黑名单（单次数据库任务）
+            new EconomyFilter(plugin),         // 3. 扣费（经济线程，记入托管账本）
+            new PersistenceFilter(plugin)      // 4. 持久化到数据库
         );
     }
 
+    /**
+     * 注册过滤器，按 {@link SendFilter#getOrder()} 插入责任链（相同顺序排在已注册过滤器之后）
+     *
+     * @throws IllegalArgumentException 顺序不小于持久化过滤器时
+     */
+    public synchronized void registerFilter(SendFilter filter) {
+        Objects.requireNonNull(filter, "filter cannot be null");
+        if (filter.getOrder() >= SendFilter.ORDER_PERSISTENCE) {
+            throw new IllegalArgumentException("Filter order must be less than " + SendFilter.ORDER_PERSISTENCE);
+        }
+        if (filters.contains(filter)) {
+            return;
+        }
+        List<SendFilter> updated = new ArrayList<>(filters);
+        updated.add(filter);
+        updated.sort(Comparator.comparingInt(SendFilter::getOrder)); // 稳定排序，相同顺序保持注册先后
+        filters = List.copyOf(updated);
+        plugin.getLogger().info("已注册发送过滤器: " + filter.getName() + " (顺序 " + filter.getOrder() +
+                (filter.isAsync() ? ", 异步" : ", 同步") + ")");
+    }
+
+    /**
+     * 注销过滤器（只影响之后开始的发送）
+     */
+    public synchronized void unregisterFilter(SendFilter filter) {
+        if (!filters.contains(filter)) {
+            return;
+        }
+        List<SendFilter> updated = new ArrayList<>(filters);
+        updated.remove(filter);
+        filters = List.copyOf(updated);
+    }
+
+    /**
+     * 获取当前按顺序排列的过滤器
+     */
+    public List<SendFilter> getFilters() {
+        return filters;
+    }
+
     /**
      * 执行批量发送流程（统一入口）
      *
@@ -42,7 +81,8 @@ public class SendPipeline {
             return;
         }
 
-        if (filters.isEmpty()) {
+        List<SendFilter> snapshot = filters;
+        if (snapshot.isEmpty()) {
             // 无过滤器，直接成功
             BatchSendResult.Builder builder = BatchSendResult.builder().totalCount(contexts.size());
             for (SendContext ctx : contexts) {
@@ -52,9 +92,15 @@ public class SendPipeline {
             return;
         }
 
+        // 结果回调前先结算扣费托管（未送达的费用转为待退款）
+        Consumer<BatchSendResult> settled = result -> {
+            plugin.getEscrowManager().settle(contexts, result);
+            callback.accept(result);
+        };
+
         // 创建链并执行
-        SendChainImpl chain = new SendChainImpl(filters.iterator(), callback, contexts.size());
-        chain.next(contexts, callback);
+        SendChainImpl chain = new SendChainImpl(snapshot.iterator(), settled, contexts);
+        chain.next(contexts, settled);
     }
 
     /**
@@ -64,7 +110,7 @@ public class SendPipeline {
         execute(List.of(ctx), batchResult -> {
             // 将批量结果转换为单发结果
             if (batchResult.isAllSuccess()) {
-                callback.accept(SendResult.success(ctx.getMailId(), ctx.getCalculatedCost(), ctx.getSentTime()));
+                callback.accept(SendResult.success(ctx.getMailId(), reportedCost(ctx), ctx.getSentTime()));
             } else if (batchResult.isAllFailed() && !batchResult.getFailReasons().isEmpty()) {
                 SendResult.FailReason reason = batchResult.getFailReasons().get(ctx.getReceiverUuid());
                 if (reason == null) {
@@ -74,7 +120,7 @@ public class SendPipeline {
             } else {
                 // 部分成功情况，检查当前是否成功
                 if (batchResult.isSuccess(ctx.getReceiverUuid())) {
-                    callback.accept(SendResult.success(ctx.getMailId(), ctx.getCalculatedCost(), ctx.getSentTime()));
+                    callback.accept(SendResult.success(ctx.getMailId(), reportedCost(ctx), ctx.getSentTime()));
                 } else {
                     SendResult.FailReason reason = batchResult.getFailReasons().getOrDefault(
                             ctx.getReceiverUuid(), SendResult.FailReason.UNKNOWN);
@@ -84,6 +130,13 @@ public class SendPipeline {
         });
     }
 
+    /**
+     * 结果中报告的费用：幂等键冲突的上下文未写入新邮件，费用退还，按0报告
+     */
+    private static double reportedCost(SendContext ctx) {
+        return ctx.isDuplicate() ? 0 : ctx.getCalculatedCost();
+    }
+
     /**
      * 责任链实现类 - 批量模式
      */
@@ -91,55 +144,138 @@ public class SendPipeline {
 
         private final Iterator<SendFilter> iterator;
         private final Consumer<BatchSendResult> finalCallback;
+        private final List<SendContext> allContexts;
         private final int totalCount;
-        private final BatchSendResult.Builder resultBuilder;
+        // 被过滤器剔除的接收者及原因（按剔除顺序）
+        private final Map<UUID, SendResult.FailReason> dropped = new LinkedHashMap<>();
+        // 幂等键重复而跳过的接收者（视为已送达）
+        private final Set<UUID> skipped = new LinkedHashSet<>();
+        // 正在同步执行过滤器时，过滤器交回的上下文（同步过滤器在同一线程内调用 next，无需同步）
+        private boolean inline;
+        private List<SendContext> pending;
 
-        public SendChainImpl(Iterator<SendFilter> iterator, Consumer<BatchSendResult> finalCallback, int totalCount) {
+        public SendChainImpl(Iterator<SendFilter> iterator, Consumer<BatchSendResult> finalCallback,
+                             List<SendContext> allContexts) {
             this.iterator = iterator;
             this.finalCallback = finalCallback;
-            this.totalCount = totalCount;
-            this.resultBuilder = BatchSendResult.builder().totalCount(totalCount);
+            this.allContexts = allContexts;
+            this.totalCount = allContexts.size();
+        }
+
+        @Override
+        public void drop(SendContext context, SendResult.FailReason reason) {
+            dropped.putIfAbsent(context.getReceiverUuid(), reason);
+        }
+
+        @Override
+        public void skip(SendContext context) {
+            skipped.add(context.getReceiverUuid());
         }
 
         @Override
         public void next(List<SendContext> contexts, Consumer<BatchSendResult> callback) {
-            if (iterator.hasNext()) {
+            if (inline) {
+                // 同步过滤器在 filterBatch 中调用 next：交回外层循环，不增加调用栈深度
+                pending = contexts;
+                return;
+            }
+
+            // 循环执行连续的同步过滤器，遇到异步过滤器时交给它并返回，由其回调再次进入 next
+            List<SendContext> current = contexts;
+            while (true) {
+                if (current.isEmpty()) {
+                    // 全部被剔除或跳过，不再执行后续过滤器
+                    finalCallback.accept(newResultBuilder().build());
+                    return;
+                }
+                if (!iterator.hasNext()) {
+                    // 所有过滤器通过，返回成功
+                    success(current, callback);
+                    return;
+                }
+
                 SendFilter filter = iterator.next();
+                if (filter.isAsync()) {
+                    invoke(filter, current);
+                    return;
+                }
+
+                pending = null;
+                inline = true;
                 try {
-                    filter.filterBatch(contexts, this);
-                } catch (Exception e) {
-                    plugin.getLogger().warning("过滤器 " + filter.getName() + " 执行出错: " + e.getMessage());
-                    e.printStackTrace();
-                    fail(SendResult.FailReason.UNKNOWN, "发送过程中发生错误");
+                    invoke(filter, current);
+                } finally {
+                    inline = false;
                 }
-            } else {
-                // 所有过滤器通过，返回成功
-                success(contexts, callback);
+                if (pending == null) {
+                    // 过滤器终止了链（fail/success/partialSuccess）
+                    return;
+                }
+                current = pending;
+            }
+        }
+
+        /**
+         * 执行单个过滤器，异常时终止链
+         */
+        private void invoke(SendFilter filter, List<SendContext> contexts) {
+            try {
+                filter.filterBatch(contexts, this);
+            } catch (Exception e) {
+                plugin.getLogger().warning("过滤器 " + filter.getName() + " 执行出错: " + e.getMessage());
+                e.printStackTrace();
+                pending = null;
+                fail(SendResult.FailReason.UNKNOWN, "发送过程中发生错误");
             }
         }
 
         @Override
         public void fail(SendResult.FailReason reason, String message) {
-            // 全部失败 - 需要知道所有接收者才能标记为失败
-            // 注意：这里无法获取接收者列表，因此返回空结果
-            // 实际失败处理应在具体过滤器中完成
-            BatchSendResult.Builder builder = BatchSendResult.builder().totalCount(totalCount);
+            // 尚未被剔除或跳过的接收者全部记为该原因
+            BatchSendResult.Builder builder = newResultBuilder();
+            for (SendContext ctx : allContexts) {
+                if (!dropped.containsKey(ctx.getReceiverUuid()) && !skipped.contains(ctx.getReceiverUuid())) {
+                    builder.addFailure(ctx.getReceiverUuid(), reason);
+                }
+            }
             finalCallback.accept(builder.build());
         }
 
         @Override
         public void success(List<SendContext> contexts, Consumer<BatchSendResult> callback) {
-            // 全部成功，构建结果
-            BatchSendResult.Builder builder = BatchSendResult.builder().totalCount(totalCount);
+            // 到达链尾的全部成功，加上之前被剔除的失败
+            BatchSendResult.Builder builder = newResultBuilder();
             for (SendContext ctx : contexts) {
-                builder.addSuccess(ctx.getReceiverUuid(), ctx.getCalculatedCost());
+                builder.addSuccess(ctx.getReceiverUuid(), reportedCost(ctx));
             }
             finalCallback.accept(builder.build());
         }
 
         @Override
         public void partialSuccess(BatchSendResult result, Consumer<BatchSendResult> callback) {
-            finalCallback.accept(result);
+            if (dropped.isEmpty() && skipped.isEmpty()) {
+                finalCallback.accept(result);
+                return;
+            }
+            // 合并过滤器剔除的失败和跳过的成功（结果只覆盖到达该过滤器的上下文）
+            BatchSendResult.Builder builder = newResultBuilder();
+            for (UUID receiver : result.getSuccessReceivers()) {
+                builder.addSuccess(receiver, 0);
+            }
+            result.getFailReasons().forEach(builder::addFailure);
+            finalCallback.accept(builder.totalCost(result.getTotalCost()).build());
+        }
+
+        /**
+         * 新建结果构建器，已包含被剔除和跳过的接收者
+         */
+        private BatchSendResult.Builder newResultBuilder() {
+            BatchSendResult.Builder builder = BatchSendResult.builder().totalCount(totalCount);
+            dropped.forEach(builder::addFailure);
+            for (UUID receiver : skipped) {
+                builder.addSuccess(receiver, 0);
+            }
+            return builder;
         }
     }
 }
@@ -2,13 +2,20 @@ package dev.user.mailsystem.mail.pipeline.filters;
 
 import dev.user.mailsystem.MailSystemPlugin;
 import dev.user.mailsystem.api.draft.SendResult;
+import dev.user.mailsystem.mail.BlacklistManager;
 import dev.user.mailsystem.mail.pipeline.SendChain;
 import dev.user.mailsystem.mail.pipeline.SendContext;
 import dev.user.mailsystem.mail.pipeline.SendFilter;
 
+import java.sql.Connection;
+import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
 
 /**
  * 黑名单过滤器 - 检查发送者是否被接收者屏蔽
@@ -24,54 +31,103 @@ public class BlacklistFilter implements SendFilter {
 
     @Override
     public void filterBatch(List<SendContext> contexts, SendChain chain) {
-        // 检查是否需要跳过
-        boolean allSkip = contexts.stream().allMatch(SendContext::isSkipBlacklistCheck);
-        if (allSkip) {
-            chain.next(contexts, null);
+        // 过滤出需要检查的黑名单，能在内存中判定的不再查询
+        List<SendContext> toQuery = new ArrayList<>();
+        Set<SendContext> blocked = resolveCached(collectChecks(contexts), toQuery);
+        if (toQuery.isEmpty()) {
+            chain.next(check(contexts, blocked, chain), null);
             return;
         }
 
-        // 统一批量逻辑（size==1也是批量的一种）
-        // 过滤出需要检查的黑名单
+        // 一次数据库任务批量检查黑名单
+        plugin.getDatabaseQueue().submit("checkBlacklistBatch", conn -> {
+            blocked.addAll(queryBlocked(conn, toQuery));
+            return blocked;
+        }, result -> chain.next(check(contexts, result, chain), null), error -> chain.fail(SendResult.FailReason.UNKNOWN, "黑名单检查失败"));
+    }
+
+    /**
+     * 收集需要检查黑名单的上下文（系统发送和跳过检查的除外）
+     */
+    public List<SendContext> collectChecks(List<SendContext> contexts) {
         List<SendContext> toCheck = new ArrayList<>();
         for (SendContext ctx : contexts) {
             if (!ctx.isSkipBlacklistCheck() && ctx.getSender() != null) {
                 toCheck.add(ctx);
             }
         }
+        return toCheck;
+    }
 
-        if (toCheck.isEmpty()) {
-            chain.next(contexts, null);
-            return;
+    /**
+     * 在内存中判定屏蔽关系（接收者没有黑名单或黑名单已缓存），无法判定的上下文放入 toQuery
+     *
+     * @return 在内存中确定被屏蔽的上下文（可修改，之后可加入数据库查询结果）
+     */
+    public Set<SendContext> resolveCached(List<SendContext> toCheck, List<SendContext> toQuery) {
+        Set<SendContext> blocked = new HashSet<>();
+        BlacklistManager blacklistManager = plugin.getMailManager().getBlacklistManager();
+        for (SendContext ctx : toCheck) {
+            Boolean cached = blacklistManager.isBlockedCached(ctx.getSenderUuid(), ctx.getReceiverUuid());
+            if (cached == null) {
+                toQuery.add(ctx);
+            } else if (cached) {
+                blocked.add(ctx);
+            }
         }
+        return blocked;
+    }
 
-        // 批量检查黑名单
-        AtomicInteger pending = new AtomicInteger(toCheck.size());
-        AtomicInteger blockedCount = new AtomicInteger(0);
-
+    /**
+     * 在给定连接上查询被接收者屏蔽的上下文（按发送者分组，每组一次集合查询）
+     */
+    public Set<SendContext> queryBlocked(Connection conn, List<SendContext> toCheck) throws SQLException {
+        Map<UUID, List<SendContext>> bySender = new HashMap<>();
         for (SendContext ctx : toCheck) {
-            plugin.getMailManager().isInBlacklist(
-                    ctx.getSenderUuid(),
-                    ctx.getReceiverUuid(),
-                    isBlocked -> {
-                        if (isBlocked) {
-                            blockedCount.incrementAndGet();
-                            if (ctx.getSender() != null) {
-                                String msg = "你已被 " + ctx.getReceiverName() + " 加入黑名单，无法发送邮件！";
-                                ctx.getSender().sendMessage("§c[邮件系统] " + msg);
-                            }
-                        }
+            bySender.computeIfAbsent(ctx.getSenderUuid(), k -> new ArrayList<>()).add(ctx);
+        }
 
-                        if (pending.decrementAndGet() == 0) {
-                            // 所有检查完成
-                            if (blockedCount.get() > 0) {
-                                chain.fail(SendResult.FailReason.BLACKLISTED, "你已被部分玩家加入黑名单");
-                            } else {
-                                chain.next(contexts, null);
-                            }
-                        }
-                    }
-            );
+        Set<SendContext> blocked = new HashSet<>();
+        BlacklistManager blacklistManager = plugin.getMailManager().getBlacklistManager();
+        for (Map.Entry<UUID, List<SendContext>> entry : bySender.entrySet()) {
+            Set<UUID> owners = new HashSet<>();
+            for (SendContext ctx : entry.getValue()) {
+                owners.add(ctx.getReceiverUuid());
+            }
+            Set<UUID> blocking = blacklistManager.queryBlockingOwners(conn, entry.getKey(), owners);
+            if (blocking.isEmpty()) continue;
+            for (SendContext ctx : entry.getValue()) {
+                if (blocking.contains(ctx.getReceiverUuid())) {
+                    blocked.add(ctx);
+                }
+            }
+        }
+        return blocked;
+    }
+
+    /**
+     * 根据已查询的屏蔽关系检查，被屏蔽的接收者被剔除（{@link SendChain#drop}），其余继续发送
+     *
+     * @param blocked 发送者被接收者屏蔽的上下文
+     * @return 未被屏蔽的上下文
+     */
+    public List<SendContext> check(List<SendContext> contexts, Set<SendContext> blocked, SendChain chain) {
+        if (blocked.isEmpty()) {
+            return contexts;
+        }
+
+        List<SendContext> passed = new ArrayList<>(contexts.size());
+        for (SendContext ctx : contexts) {
+            if (!blocked.contains(ctx)) {
+                passed.add(ctx);
+                continue;
+            }
+            if (ctx.getSender() != null) {
+                String msg = "你已被 " + ctx.getReceiverName() + " 加入黑名单，无法发送邮件！";
+                ctx.getSender().sendMessage("§c[邮件系统] " + msg);
+            }
+            chain.drop(ctx, SendResult.FailReason.BLACKLISTED);
         }
+        return passed;
     }
 }
@@ -23,52 +23,59 @@ public class DailyLimitFilter implements SendFilter {
 
     @Override
     public void filterBatch(List<SendContext> contexts, SendChain chain) {
-        // 检查是否需要跳过
-        boolean allSkip = contexts.stream().allMatch(SendContext::isSkipDailyLimitCheck);
-        if (allSkip) {
+        UUID senderUuid = findLimitedSender(contexts);
+        if (senderUuid == null) {
             chain.next(contexts, null);
             return;
         }
 
-        int dailyLimit = plugin.getMailConfig().getDailySendLimit();
-        if (dailyLimit <= 0) {
+        // 统一批量逻辑（size==1也是批量的一种）
+        plugin.getMailManager().getTodaySendCountAsync(senderUuid, todayCount -> {
+            if (check(contexts, todayCount, chain)) {
+                // 未达上限，继续
+                chain.next(contexts, null);
+            }
+        });
+    }
+
+    /**
+     * 获取需要检查日发送限制的发送者，无需检查时返回null
+     */
+    public UUID findLimitedSender(List<SendContext> contexts) {
+        if (plugin.getMailConfig().getDailySendLimit() <= 0) {
             // 无限制
-            chain.next(contexts, null);
-            return;
+            return null;
         }
 
-        // 获取发送者（批量模式下所有context应该有相同的发送者）
-        UUID senderUuid = null;
+        // 获取发送者（批量模式下所有context应该有相同的发送者），系统发送不限制
         for (SendContext ctx : contexts) {
             if (!ctx.isSkipDailyLimitCheck() && ctx.getSender() != null) {
-                senderUuid = ctx.getSenderUuid();
-                break;
+                return ctx.getSenderUuid();
             }
         }
+        return null;
+    }
 
-        // 检查发送者是否存在
-        if (senderUuid == null) {
-            // 系统发送，不限制
-            chain.next(contexts, null);
-            return;
+    /**
+     * 根据已查询的今日发送数量检查上限
+     *
+     * @return 是否通过；已达上限时返回false（已调用 chain.fail）
+     */
+    public boolean check(List<SendContext> contexts, int todayCount, SendChain chain) {
+        int dailyLimit = plugin.getMailConfig().getDailySendLimit();
+        if (dailyLimit <= 0 || todayCount < dailyLimit) {
+            return true;
         }
 
-        // 统一批量逻辑（size==1也是批量的一种）
-        plugin.getMailManager().getTodaySendCountAsync(senderUuid, todayCount -> {
-            if (todayCount >= dailyLimit) {
-                // 已达上限
-                for (SendContext ctx : contexts) {
-                    if (!ctx.isSkipDailyLimitCheck() && ctx.getSender() != null) {
-                        String msg = "你今日发送邮件已达上限 (" + dailyLimit + "封)，请明天再试！";
-                        ctx.getSender().sendMessage("§c[邮件系统] " + msg);
-                        break;
-                    }
-                }
-                chain.fail(SendResult.FailReason.DAILY_LIMIT_REACHED, "今日发送邮件已达上限");
-            } else {
-                // 未达上限，继续
-                chain.next(contexts, null);
+        // 已达上限
+        for (SendContext ctx : contexts) {
+            if (!ctx.isSkipDailyLimitCheck() && ctx.getSender() != null) {
+                String msg = "你今日发送邮件已达上限 (" + dailyLimit + "封)，请明天再试！";
+                ctx.getSender().sendMessage("§c[邮件系统] " + msg);
+                break;
             }
-        });
+        }
+        chain.fail(SendResult.FailReason.DAILY_LIMIT_REACHED, "今日发送邮件已达上限");
+        return false;
     }
 }
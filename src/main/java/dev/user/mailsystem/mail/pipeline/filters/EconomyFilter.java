@@ -6,11 +6,13 @@ import dev.user.mailsystem.mail.pipeline.SendChain;
 import dev.user.mailsystem.mail.pipeline.SendContext;
 import dev.user.mailsystem.mail.pipeline.SendFilter;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.UUID;
 
 /**
  * 经济过滤器 - 计算费用并扣费
+ * 扣费通过 {@link dev.user.mailsystem.economy.EscrowManager} 在经济线程上执行，回调后继续发送
  * 统一使用批量逻辑（size==1也是批量的一种）
  */
 public class EconomyFilter implements SendFilter {
@@ -21,6 +23,11 @@ public class EconomyFilter implements SendFilter {
         this.plugin = plugin;
     }
 
+    @Override
+    public int getOrder() {
+        return ORDER_ECONOMY;
+    }
+
     @Override
     public void filterBatch(List<SendContext> contexts, SendChain chain) {
         // 检查是否需要扣费
@@ -78,35 +85,37 @@ public class EconomyFilter implements SendFilter {
 
         final org.bukkit.entity.Player finalSender = sender;
         final double finalTotalCost = totalCost;
-
-        // 统一批量逻辑（size==1也是批量的一种）
-        // 检查余额
-        if (!plugin.getEconomyManager().hasEnough(finalSender, finalTotalCost)) {
-            String msg = "余额不足！需要 " + plugin.getEconomyManager().format(finalTotalCost) +
-                    "，当前余额 " + plugin.getEconomyManager().format(
-                            plugin.getEconomyManager().getBalance(finalSender));
-            finalSender.sendMessage("§c[邮件系统] §e" + msg);
-            chain.fail(SendResult.FailReason.INSUFFICIENT_FUNDS, msg);
-            return;
-        }
-
-        // 扣除费用（原子操作，依赖经济插件的实现）
-        // 注意：如果经济插件不支持原子性，此处存在TOCTOU竞态
-        if (!plugin.getEconomyManager().withdraw(finalSender, finalTotalCost)) {
-            String msg = "扣费失败！可能在检查余额后，您的余额被其他操作扣减。当前余额 " +
-                    plugin.getEconomyManager().format(plugin.getEconomyManager().getBalance(finalSender));
-            finalSender.sendMessage("§c[邮件系统] §e" + msg);
-            chain.fail(SendResult.FailReason.INSUFFICIENT_FUNDS, msg);
-            return;
+        List<SendContext> charged = new ArrayList<>();
+        for (SendContext ctx : contexts) {
+            if (ctx.getCalculatedCost() > 0) {
+                charged.add(ctx);
+            }
         }
 
-        // 扣费成功提示
-        finalSender.getScheduler().run(plugin, task -> {
-            String countStr = contexts.size() == 1 ? "" : " (共" + contexts.size() + "封)";
-            finalSender.sendMessage("§a[邮件系统] §e已扣费 " + plugin.getEconomyManager().format(finalTotalCost) + countStr);
-        }, null);
-
-        chain.next(contexts, null);
+        // 统一批量逻辑（size==1也是批量的一种）
+        // 扣费在经济线程执行并记入托管账本，未送达的部分在发送结束后自动退还
+        plugin.getEscrowManager().reserve(senderUuid, finalSender.getName(), charged, finalTotalCost, reservation -> {
+            switch (reservation.status()) {
+                case RESERVED -> {
+                    for (SendContext ctx : charged) {
+                        ctx.setEscrowId(reservation.escrowId());
+                    }
+                    // 扣费成功提示
+                    finalSender.getScheduler().run(plugin, task -> {
+                        String countStr = contexts.size() == 1 ? "" : " (共" + contexts.size() + "封)";
+                        finalSender.sendMessage("§a[邮件系统] §e已扣费 " + plugin.getEconomyManager().format(finalTotalCost) + countStr);
+                    }, null);
+                    chain.next(contexts, null);
+                }
+                case INSUFFICIENT_FUNDS -> {
+                    String msg = "余额不足！需要 " + plugin.getEconomyManager().format(finalTotalCost) +
+                            "，当前余额 " + plugin.getEconomyManager().format(reservation.balance());
+                    finalSender.getScheduler().run(plugin, task -> finalSender.sendMessage("§c[邮件系统] §e" + msg), null);
+                    chain.fail(SendResult.FailReason.INSUFFICIENT_FUNDS, msg);
+                }
+                default -> chain.fail(SendResult.FailReason.UNKNOWN, "扣费记录失败，已退还费用");
+            }
+        });
     }
 
     /**
@@ -0,0 +1,106 @@
+package dev.user.mailsystem.mail.pipeline.filters;
+
+import dev.user.mailsystem.MailSystemPlugin;
+import dev.user.mailsystem.api.draft.SendResult;
+import dev.user.mailsystem.mail.IdempotencyManager;
+import dev.user.mailsystem.mail.pipeline.SendChain;
+import dev.user.mailsystem.mail.pipeline.SendContext;
+import dev.user.mailsystem.mail.pipeline.SendFilter;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * 幂等过滤器 - 跳过已送达过的幂等键
+ * 接收者已有相同幂等键的邮件时，该上下文被跳过（{@link SendChain#skip}）并记为成功，不扣费也不写入新邮件；
+ * 同一批中重复的幂等键只发送第一封
+ * 统一使用批量逻辑（size==1也是批量的一种）
+ */
+public class IdempotencyFilter implements SendFilter {
+
+    private final MailSystemPlugin plugin;
+
+    public IdempotencyFilter(MailSystemPlugin plugin) {
+        this.plugin = plugin;
+    }
+
+    @Override
+    public void filterBatch(List<SendContext> contexts, SendChain chain) {
+        Set<IdempotencyManager.Key> toQuery = collectKeys(contexts);
+        if (toQuery.isEmpty()) {
+            chain.next(check(contexts, Map.of(), chain), null);
+            return;
+        }
+
+        plugin.getDatabaseQueue().submit("checkIdempotencyKeys", conn -> queryDelivered(conn, toQuery),
+                delivered -> chain.next(check(contexts, delivered, chain), null),
+                error -> chain.fail(SendResult.FailReason.UNKNOWN, "幂等键检查失败"));
+    }
+
+    /**
+     * 收集需要查询数据库的幂等键（内存中最近送达的幂等键不再查询）
+     */
+    public Set<IdempotencyManager.Key> collectKeys(List<SendContext> contexts) {
+        IdempotencyManager idempotencyManager = plugin.getMailManager().getIdempotencyManager();
+        Set<IdempotencyManager.Key> keys = new LinkedHashSet<>();
+        for (SendContext ctx : contexts) {
+            String idempotencyKey = ctx.getDraft().getIdempotencyKey();
+            if (idempotencyKey != null && idempotencyManager.getRecent(ctx.getReceiverUuid(), idempotencyKey) == null) {
+                keys.add(new IdempotencyManager.Key(ctx.getReceiverUuid(), idempotencyKey));
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * 在给定连接上查询已送达的幂等键
+     */
+    public Map<IdempotencyManager.Key, UUID> queryDelivered(Connection conn, Set<IdempotencyManager.Key> keys) throws SQLException {
+        return plugin.getMailManager().getIdempotencyManager().queryDelivered(conn, keys);
+    }
+
+    /**
+     * 根据已查询的送达记录检查，已送达和本批重复的上下文被跳过，其余继续发送
+     *
+     * @param delivered 数据库中已存在的幂等键 -> 邮件ID
+     * @return 需要继续发送的上下文
+     */
+    public List<SendContext> check(List<SendContext> contexts, Map<IdempotencyManager.Key, UUID> delivered, SendChain chain) {
+        IdempotencyManager idempotencyManager = plugin.getMailManager().getIdempotencyManager();
+        Map<IdempotencyManager.Key, UUID> firstInBatch = new HashMap<>();
+        List<SendContext> passed = new ArrayList<>(contexts.size());
+        for (SendContext ctx : contexts) {
+            String idempotencyKey = ctx.getDraft().getIdempotencyKey();
+            if (idempotencyKey == null) {
+                passed.add(ctx);
+                continue;
+            }
+
+            IdempotencyManager.Key key = new IdempotencyManager.Key(ctx.getReceiverUuid(), idempotencyKey);
+            UUID existing = delivered.get(key);
+            if (existing == null) {
+                existing = idempotencyManager.getRecent(ctx.getReceiverUuid(), idempotencyKey);
+            }
+            if (existing == null) {
+                existing = firstInBatch.get(key);
+            }
+            if (existing != null) {
+                // 已送达：返回原邮件ID，调用方的重试得到与首次发送相同的结果
+                ctx.setMailId(existing);
+                chain.skip(ctx);
+                continue;
+            }
+
+            firstInBatch.put(key, ctx.getMailId());
+            passed.add(ctx);
+        }
+        return passed;
+    }
+}
@@ -7,11 +7,11 @@ import dev.user.mailsystem.mail.pipeline.SendContext;
 import dev.user.mailsystem.mail.pipeline.SendFilter;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
-import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * 邮箱上限过滤器 - 检查接收者邮箱是否已满
@@ -29,68 +29,66 @@ public class MailboxLimitFilter implements SendFilter {
 
     @Override
     public void filterBatch(List<SendContext> contexts, SendChain chain) {
-        // 检查是否需要跳过
-        boolean allSkip = contexts.stream().allMatch(SendContext::isSkipMailboxCheck);
-        if (allSkip) {
+        Set<UUID> receivers = collectReceivers(contexts);
+        if (receivers.isEmpty()) {
             chain.next(contexts, null);
             return;
         }
 
+        // 批量查询所有接收者的邮箱容量（缓存优先，其余分组查询）
+        plugin.getMailManager().getMailCountsAsync(receivers, receiverSizes ->
+                chain.next(check(contexts, receiverSizes, chain), null));
+    }
+
+    /**
+     * 收集需要检查邮箱容量的接收者（去重），无需检查时返回空集合
+     */
+    public Set<UUID> collectReceivers(List<SendContext> contexts) {
         int maxSize = plugin.getMailConfig().getMaxMailboxSize();
         if (maxSize <= 0) {
             // 无限制
-            chain.next(contexts, null);
-            return;
+            return Set.of();
         }
 
-        // 统一批量逻辑（size==1也是批量的一种）
-        // 收集需要检查的接收者（去重）
-        Map<UUID, SendContext> uniqueReceivers = new HashMap<>();
+        Set<UUID> receivers = new HashSet<>();
         for (SendContext ctx : contexts) {
             if (!ctx.isSkipMailboxCheck()) {
-                uniqueReceivers.put(ctx.getReceiverUuid(), ctx);
+                receivers.add(ctx.getReceiverUuid());
             }
         }
+        return receivers;
+    }
 
-        if (uniqueReceivers.isEmpty()) {
-            chain.next(contexts, null);
-            return;
+    /**
+     * 根据已查询的邮箱数量检查容量，邮箱已满的接收者被剔除（{@link SendChain#drop}），其余继续发送
+     *
+     * @return 通过检查的上下文
+     */
+    public List<SendContext> check(List<SendContext> contexts, Map<UUID, Integer> receiverSizes, SendChain chain) {
+        int maxSize = plugin.getMailConfig().getMaxMailboxSize();
+        if (maxSize <= 0) {
+            return contexts;
         }
 
-        // 批量查询每个接收者的邮箱容量
-        Map<UUID, Integer> receiverSizes = new HashMap<>();
-        AtomicInteger pending = new AtomicInteger(uniqueReceivers.size());
-
-        for (UUID receiverUuid : uniqueReceivers.keySet()) {
-            plugin.getMailManager().getMailCountAsync(receiverUuid, currentSize -> {
-                receiverSizes.put(receiverUuid, currentSize);
-
-                if (pending.decrementAndGet() == 0) {
-                    // 所有查询完成，检查容量
-                    List<SendContext> passed = new ArrayList<>();
-                    for (SendContext ctx : contexts) {
-                        if (ctx.isSkipMailboxCheck()) {
-                            passed.add(ctx);
-                            continue;
-                        }
+        List<SendContext> passed = new ArrayList<>();
+        for (SendContext ctx : contexts) {
+            if (ctx.isSkipMailboxCheck()) {
+                passed.add(ctx);
+                continue;
+            }
 
-                        int size = receiverSizes.getOrDefault(ctx.getReceiverUuid(), 0);
-                        if (size >= maxSize) {
-                            // 邮箱已满
-                            String msg = "收件人 " + ctx.getReceiverName() + " 的邮箱已满 (" + size + "/" + maxSize + ")";
-                            if (ctx.getSender() != null) {
-                                ctx.getSender().sendMessage("§c[邮件系统] " + msg + "，无法发送邮件！");
-                            }
-                            // 批量模式下，一个失败就全部失败（简化处理）
-                            chain.fail(SendResult.FailReason.MAILBOX_FULL, msg);
-                            return;
-                        }
-                        passed.add(ctx);
-                    }
-                    // 全部通过
-                    chain.next(passed, null);
+            int size = receiverSizes.getOrDefault(ctx.getReceiverUuid(), 0);
+            if (size >= maxSize) {
+                // 邮箱已满
+                String msg = "收件人 " + ctx.getReceiverName() + " 的邮箱已满 (" + size + "/" + maxSize + ")";
+                if (ctx.getSender() != null) {
+                    ctx.getSender().sendMessage("§c[邮件系统] " + msg + "，无法发送邮件！");
                 }
-            });
+                chain.drop(ctx, SendResult.FailReason.MAILBOX_FULL);
+                continue;
+            }
+            passed.add(ctx);
         }
+        return passed;
     }
 }
@@ -1,8 +1,12 @@
 package dev.user.mailsystem.mail.pipeline.filters;
 
 import dev.user.mailsystem.MailSystemPlugin;
+import dev.user.mailsystem.api.draft.AttachmentPayload;
 import dev.user.mailsystem.api.draft.SendResult;
+import dev.user.mailsystem.mail.IdempotencyManager;
 import dev.user.mailsystem.mail.Mail;
+import dev.user.mailsystem.mail.MailBodyStore;
+import dev.user.mailsystem.mail.MailEventLog;
 import dev.user.mailsystem.mail.pipeline.SendChain;
 import dev.user.mailsystem.mail.pipeline.SendContext;
 import dev.user.mailsystem.mail.pipeline.SendFilter;
@@ -15,17 +19,22 @@ import java.sql.PreparedStatement;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * 持久化过滤器 - 将邮件保存到数据库
  * 统一使用批量逻辑（size==1也是批量的一种）
+ * 同一批中正文完全相同的多封邮件共享一条 mail_bodies 记录，每个收件人只写一行轻量的邮件记录
  */
 public class PersistenceFilter implements SendFilter {
 
+    private static final int SHARED_BODY_MIN_RECIPIENTS = 2;
+
     private final MailSystemPlugin plugin;
 
     public PersistenceFilter(MailSystemPlugin plugin) {
@@ -33,80 +42,252 @@ public class PersistenceFilter implements SendFilter {
     }
 
     @Override
-    public void filterBatch(List<SendContext> contexts, SendChain chain) {
-        // 统一批量逻辑（size==1也是批量的一种）
-        List<Mail> mails = new ArrayList<>();
-        for (SendContext ctx : contexts) {
-            mails.add(buildMail(ctx));
-        }
+    public int getOrder() {
+        return ORDER_PERSISTENCE;
+    }
 
+    @Override
+    public void filterBatch(List<SendContext> contexts, SendChain chain) {
+        // 统一批量逻辑（size==1也是批量的一种）：按块写入，每块一个事务
+        int chunkSize = plugin.getMailConfig().getInsertBatchSize();
         int total = contexts.size();
-        AtomicInteger completedCount = new AtomicInteger(0);
+        int chunkCount = (total + chunkSize - 1) / chunkSize;
+        AtomicInteger completedChunks = new AtomicInteger(0);
 
-        // 追踪每个context的成功/失败状态
+        // 追踪每个context的成功/失败状态（回调均在全局区域线程执行）
         Map<UUID, Boolean> successMap = new HashMap<>();
         Map<UUID, SendResult.FailReason> failReasonMap = new HashMap<>();
         Map<UUID, Double> costMap = new HashMap<>();
-
-        for (int i = 0; i < contexts.size(); i++) {
-            SendContext ctx = contexts.get(i);
-            Mail mail = mails.get(i);
-            UUID receiverUuid = ctx.getReceiverUuid();
-
-            plugin.getDatabaseQueue().submit("sendMail", conn -> {
-                insertMail(conn, mail);
-                return null;
-            }, result -> {
-                // 数据库插入成功
-                successMap.put(receiverUuid, true);
-                costMap.put(receiverUuid, ctx.getCalculatedCost());
-
-                // 记录发送日志
-                if (ctx.getSender() != null) {
-                    plugin.getMailManager().logMailSend(ctx.getSenderUuid(), 1);
+        Map<UUID, SharedBody> bodies = assignSharedBodies(contexts);
+
+        for (int start = 0; start < total; start += chunkSize) {
+            List<SendContext> chunk = contexts.subList(start, Math.min(start + chunkSize, total));
+            List<Mail> mails = new ArrayList<>(chunk.size());
+            Map<UUID, AttachmentPayload> payloads = new HashMap<>();
+            Map<UUID, String> idempotencyKeys = new HashMap<>();
+            Map<UUID, String> escrowIds = new HashMap<>();
+            for (SendContext ctx : chunk) {
+                Mail mail = buildMail(ctx);
+                mails.add(mail);
+                payloads.put(mail.getId(), ctx.getDraft().getAttachmentPayload());
+                if (ctx.getDraft().getIdempotencyKey() != null) {
+                    idempotencyKeys.put(mail.getId(), ctx.getDraft().getIdempotencyKey());
                 }
-
-                // 跨服通知
-                if (ctx.getOptions().isNotifyReceiver()) {
-                    notifyReceiver(ctx, mail);
+                if (ctx.getEscrowId() != null) {
+                    escrowIds.put(mail.getId(), ctx.getEscrowId());
                 }
+            }
 
-                // 清理缓存
-                if (ctx.getOptions().isClearCache()) {
-                    plugin.getMailManager().clearPlayerCache(ctx.getReceiverUuid());
+            plugin.getDatabaseQueue().submit("sendMailBatch", conn -> persistChunk(conn, mails, payloads, bodies, idempotencyKeys, escrowIds), chunkResult -> {
+                Map<UUID, Integer> sentBySender = new HashMap<>();
+                for (int i = 0; i < chunk.size(); i++) {
+                    SendContext ctx = chunk.get(i);
+                    Mail mail = mails.get(i);
+                    UUID receiverUuid = ctx.getReceiverUuid();
+
+                    UUID existing = chunkResult.duplicates().get(mail.getId());
+                    if (existing != null) {
+                        // 并发重试已抢先送达同一幂等键：与 chain.skip 相同，返回原邮件ID并记为费用0的成功，
+                        // 本次已扣的费用由托管结算退还
+                        ctx.setMailId(existing);
+                        ctx.setDuplicate(true);
+                        successMap.put(receiverUuid, true);
+                        costMap.put(receiverUuid, 0.0);
+                        continue;
+                    }
+                    SQLException error = chunkResult.failures().get(mail.getId());
+                    if (error != null) {
+                        recordFailure(ctx, error, successMap, failReasonMap);
+                        continue;
+                    }
+
+                    // 数据库插入成功
+                    successMap.put(receiverUuid, true);
+                    costMap.put(receiverUuid, ctx.getCalculatedCost());
+                    String idempotencyKey = ctx.getDraft().getIdempotencyKey();
+                    if (idempotencyKey != null) {
+                        plugin.getMailManager().getIdempotencyManager().remember(receiverUuid, idempotencyKey, mail.getId());
+                    }
+                    if (ctx.getSender() != null) {
+                        sentBySender.merge(ctx.getSenderUuid(), 1, Integer::sum);
+                    }
+
+                    // 跨服通知
+                    if (ctx.getOptions().isNotifyReceiver()) {
+                        notifyReceiver(ctx, mail);
+                    }
+
+                    // 新邮件信号：空收件箱标记必须失效
+                    plugin.getMailManager().onIncomingMail(receiverUuid);
+
+                    // 追加到发送者的发件箱缓存
+                    plugin.getMailManager().getCacheManager().appendSentMail(mail);
+
+                    // 清理缓存
+                    if (ctx.getOptions().isClearCache()) {
+                        plugin.getMailManager().clearPlayerCache(receiverUuid);
+                    }
                 }
 
-                checkComplete(ctx, contexts, chain, completedCount, total, successMap, failReasonMap, costMap);
+                // 记录发送日志（每块每个发送者一次）
+                sentBySender.forEach((senderUuid, count) -> plugin.getMailManager().logMailSend(senderUuid, count));
+
+                checkComplete(contexts, chain, completedChunks, chunkCount, successMap, failReasonMap, costMap);
             }, error -> {
-                // 数据库错误
-                successMap.put(receiverUuid, false);
-                SendResult.FailReason reason = analyzeError(error);
-                failReasonMap.put(receiverUuid, reason);
+                // 整块提交失败（队列超载或无法获取连接）
+                for (SendContext ctx : chunk) {
+                    recordFailure(ctx, error, successMap, failReasonMap);
+                }
+                checkComplete(contexts, chain, completedChunks, chunkCount, successMap, failReasonMap, costMap);
+            });
+        }
+    }
 
-                plugin.getLogger().severe("发送邮件失败 (" + ctx.getReceiverName() + "): " + error.getMessage());
+    /**
+     * 在一个事务中批量写入一块邮件、其NEW事件及托管送达记录；批量失败时逐条重试，定位具体失败的邮件
+     * 因幂等键冲突失败的邮件查出已送达的原邮件ID，从失败中移出
+     *
+     * @return 写入失败的邮件ID及错误，以及幂等键冲突的邮件ID -> 原邮件ID
+     */
+    private ChunkResult persistChunk(Connection conn, List<Mail> mails, Map<UUID, AttachmentPayload> payloads,
+                                     Map<UUID, SharedBody> bodies, Map<UUID, String> idempotencyKeys,
+                                     Map<UUID, String> escrowIds) throws SQLException {
+        Map<UUID, SQLException> failures = insertChunk(conn, mails, payloads, bodies, idempotencyKeys, escrowIds);
+        Map<UUID, IdempotencyManager.Key> conflicts = new HashMap<>();
+        for (Mail mail : mails) {
+            SQLException error = failures.get(mail.getId());
+            if (error != null && IdempotencyManager.isDuplicateKey(error)) {
+                conflicts.put(mail.getId(), new IdempotencyManager.Key(mail.getReceiverUuid(), idempotencyKeys.get(mail.getId())));
+            }
+        }
+        if (conflicts.isEmpty()) {
+            return new ChunkResult(failures, Map.of());
+        }
 
-                if (reason == SendResult.FailReason.MAILBOX_FULL && ctx.getSender() != null) {
-                    ctx.getSender().sendMessage("§c[邮件系统] 收件人 " + ctx.getReceiverName() + " 的邮箱已满，已跳过");
-                }
+        Map<IdempotencyManager.Key, UUID> delivered = plugin.getMailManager().getIdempotencyManager()
+                .queryDelivered(conn, new HashSet<>(conflicts.values()));
+        Map<UUID, SQLException> remaining = new HashMap<>(failures);
+        Map<UUID, UUID> duplicates = new HashMap<>();
+        conflicts.forEach((mailId, key) -> {
+            UUID existing = delivered.get(key);
+            if (existing != null) {
+                remaining.remove(mailId);
+                duplicates.put(mailId, existing);
+            }
+        });
+        return new ChunkResult(remaining, duplicates);
+    }
 
-                checkComplete(ctx, contexts, chain, completedCount, total, successMap, failReasonMap, costMap);
+    /**
+     * 写入一块邮件（批量失败时逐条重试）
+     *
+     * @return 写入失败的邮件ID及错误
+     */
+    private Map<UUID, SQLException> insertChunk(Connection conn, List<Mail> mails, Map<UUID, AttachmentPayload> payloads,
+                                                Map<UUID, SharedBody> bodies, Map<UUID, String> idempotencyKeys,
+                                                Map<UUID, String> escrowIds) {
+        MailEventLog eventLog = plugin.getMailManager().getEventLog();
+        try {
+            eventLog.inTransaction(conn, c -> {
+                // 邮件与NEW事件在同一事务中写入，保证其他服务器看到事件时邮件已可读
+                insertMails(c, mails, payloads, bodies, idempotencyKeys);
+                List<MailEventLog.EventDraft> events = new ArrayList<>(mails.size());
+                for (Mail mail : mails) {
+                    events.add(new MailEventLog.EventDraft(mail.getId(), mail.getReceiverUuid(),
+                            mail.getSenderUuid(), mail.getSenderName()));
+                }
+                eventLog.appendAll(c, MailEventLog.EventType.NEW, events);
+                insertDeliveries(c, mails, escrowIds);
+                return null;
             });
+            return Map.of();
+        } catch (SQLException batchError) {
+            if (mails.size() == 1) {
+                return Map.of(mails.get(0).getId(), batchError);
+            }
+        }
+
+        // 批量事务已回滚，逐条写入以确定失败的行（幂等键冲突的行在此被单独识别）
+        Map<UUID, SQLException> failures = new HashMap<>();
+        for (Mail mail : mails) {
+            try {
+                eventLog.inTransaction(conn, c -> {
+                    insertMails(c, List.of(mail), payloads, bodies, idempotencyKeys);
+                    eventLog.append(c, MailEventLog.EventType.NEW, mail.getId(),
+                            mail.getReceiverUuid(), mail.getSenderUuid(), mail.getSenderName());
+                    insertDeliveries(c, List.of(mail), escrowIds);
+                    return null;
+                });
+            } catch (SQLException e) {
+                failures.put(mail.getId(), e);
+            }
+        }
+        return failures;
+    }
+
+    /**
+     * 为正文完全相同（同一附件载荷、标题、内容和金币）的多封邮件分配共享正文
+     *
+     * @return 邮件ID -> 共享正文（不共享正文的邮件不在结果中）
+     */
+    private Map<UUID, SharedBody> assignSharedBodies(List<SendContext> contexts) {
+        if (contexts.size() < SHARED_BODY_MIN_RECIPIENTS) {
+            return Map.of();
+        }
+        Map<SharedBody, List<SendContext>> groups = new HashMap<>();
+        for (SendContext ctx : contexts) {
+            var draft = ctx.getDraft();
+            SharedBody key = new SharedBody(null, draft.getAttachmentPayload(), draft.getTitle(),
+                    draft.getContent(), draft.getMoneyAttachment());
+            groups.computeIfAbsent(key, k -> new ArrayList<>()).add(ctx);
+        }
+
+        Map<UUID, SharedBody> bodies = new HashMap<>();
+        for (Map.Entry<SharedBody, List<SendContext>> group : groups.entrySet()) {
+            if (group.getValue().size() < SHARED_BODY_MIN_RECIPIENTS) {
+                continue;
+            }
+            SharedBody key = group.getKey();
+            SharedBody body = new SharedBody(UUID.randomUUID().toString(), key.payload(), key.title(),
+                    key.content(), key.moneyAttachment());
+            for (SendContext ctx : group.getValue()) {
+                bodies.put(ctx.getMailId(), body);
+            }
+        }
+        return bodies;
+    }
+
+    /**
+     * 记录单个接收者的发送失败
+     */
+    private void recordFailure(SendContext ctx, Throwable error,
+                               Map<UUID, Boolean> successMap,
+                               Map<UUID, SendResult.FailReason> failReasonMap) {
+        UUID receiverUuid = ctx.getReceiverUuid();
+        successMap.put(receiverUuid, false);
+        SendResult.FailReason reason = analyzeError(error);
+        failReasonMap.put(receiverUuid, reason);
+
+        plugin.getLogger().severe("发送邮件失败 (" + ctx.getReceiverName() + "): " + error.getMessage());
+
+        if (reason == SendResult.FailReason.MAILBOX_FULL && ctx.getSender() != null) {
+            ctx.getSender().sendMessage("§c[邮件系统] 收件人 " + ctx.getReceiverName() + " 的邮箱已满，已跳过");
         }
     }
 
     /**
      * 检查是否全部完成并返回结果
      */
-    private void checkComplete(SendContext currentCtx, List<SendContext> allContexts, SendChain chain,
-                               AtomicInteger completedCount, int total,
+    private void checkComplete(List<SendContext> allContexts, SendChain chain,
+                               AtomicInteger completedChunks, int chunkCount,
                                Map<UUID, Boolean> successMap,
                                Map<UUID, SendResult.FailReason> failReasonMap,
                                Map<UUID, Double> costMap) {
-        int completed = completedCount.incrementAndGet();
+        int completed = completedChunks.incrementAndGet();
 
-        if (completed >= total) {
+        if (completed >= chunkCount) {
             // 全部完成，构建真实结果
-            BatchSendResult.Builder builder = BatchSendResult.builder().totalCount(total);
+            BatchSendResult.Builder builder = BatchSendResult.builder().totalCount(allContexts.size());
 
             for (SendContext ctx : allContexts) {
                 UUID receiverUuid = ctx.getReceiverUuid();
@@ -125,10 +306,8 @@ public class PersistenceFilter implements SendFilter {
             // 根据结果决定调用哪个方法
             if (result.isAllSuccess()) {
                 chain.success(allContexts, null);
-            } else if (result.isAllFailed()) {
-                chain.fail(SendResult.FailReason.DATABASE_ERROR, "所有邮件发送失败");
             } else {
-                // 部分成功 - 使用partialSuccess
+                // 部分或全部失败 - 使用partialSuccess，保留每个接收者的具体失败原因
                 chain.partialSuccess(result, null);
             }
         }
@@ -173,38 +352,100 @@ public class PersistenceFilter implements SendFilter {
     }
 
     /**
-     * 插入邮件到数据库
+     * 批量插入邮件到数据库（共享同一附件载荷的邮件绑定同一份序列化结果，共享正文的邮件只写收件人和状态）
      */
-    private void insertMail(Connection conn, Mail mail) throws SQLException {
+    private void insertMails(Connection conn, List<Mail> mails, Map<UUID, AttachmentPayload> payloads,
+                             Map<UUID, SharedBody> bodies, Map<UUID, String> idempotencyKeys) throws SQLException {
+        // 先写入本块引用的共享正文（已由之前的块写入时跳过）
+        Set<String> ensuredBodies = new HashSet<>();
+        for (Mail mail : mails) {
+            SharedBody body = bodies.get(mail.getId());
+            if (body != null && ensuredBodies.add(body.id())) {
+                MailBodyStore.ensureBody(conn, body.id(), body.title(), body.content(),
+                        body.payload().serialize(plugin.getMailManager()::serializeAttachmentsInternal), body.moneyAttachment());
+            }
+        }
+
         String sql = "INSERT INTO mails (id, sender_uuid, sender_name, receiver_uuid, receiver_name, " +
-                "title, content, attachments, money_attachment, sent_time, expire_time, server_id, is_read, is_claimed) " +
-                "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+                "title, content, attachments, money_attachment, sent_time, expire_time, server_id, is_read, is_claimed, body_id, idempotency_key) " +
+                "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
 
+        String serverId = getServerId();
         try (PreparedStatement ps = conn.prepareStatement(sql)) {
-            ps.setString(1, mail.getId().toString());
-            ps.setString(2, mail.getSenderUuid().toString());
-            ps.setString(3, mail.getSenderName());
-            ps.setString(4, mail.getReceiverUuid().toString());
-            ps.setString(5, mail.getReceiverName());
-            ps.setString(6, mail.getTitle());
-            ps.setString(7, mail.getContent());
-
-            // 序列化附件
-            byte[] attachData = serializeAttachments(mail.getAttachments());
-            if (attachData != null) {
-                ps.setBytes(8, attachData);
-            } else {
-                ps.setNull(8, java.sql.Types.BLOB);
-            }
+            for (Mail mail : mails) {
+                SharedBody body = bodies.get(mail.getId());
+                ps.setString(1, mail.getId().toString());
+                ps.setString(2, mail.getSenderUuid().toString());
+                ps.setString(3, mail.getSenderName());
+                ps.setString(4, mail.getReceiverUuid().toString());
+                ps.setString(5, mail.getReceiverName());
+
+                if (body != null) {
+                    // 正文保存在 mail_bodies 中
+                    ps.setString(6, "");
+                    ps.setNull(7, java.sql.Types.VARCHAR);
+                    ps.setNull(8, java.sql.Types.BLOB);
+                    ps.setDouble(9, 0);
+                } else {
+                    ps.setString(6, mail.getTitle());
+                    ps.setString(7, mail.getContent());
+
+                    // 序列化附件
+                    byte[] attachData = payloads.get(mail.getId())
+                            .serialize(plugin.getMailManager()::serializeAttachmentsInternal);
+                    if (attachData != null) {
+                        ps.setBytes(8, attachData);
+                    } else {
+                        ps.setNull(8, java.sql.Types.BLOB);
+                    }
+                    ps.setDouble(9, mail.getMoneyAttachment());
+                }
 
-            ps.setDouble(9, mail.getMoneyAttachment());
-            ps.setLong(10, mail.getSentTime());
-            ps.setLong(11, mail.getExpireTime());
-            ps.setString(12, getServerId());
-            ps.setBoolean(13, mail.isRead());
-            ps.setBoolean(14, mail.isClaimed());
+                ps.setLong(10, mail.getSentTime());
+                ps.setLong(11, mail.getExpireTime());
+                ps.setString(12, serverId);
+                ps.setBoolean(13, mail.isRead());
+                ps.setBoolean(14, mail.isClaimed());
+                if (body != null) {
+                    ps.setString(15, body.id());
+                } else {
+                    ps.setNull(15, java.sql.Types.VARCHAR);
+                }
+                String idempotencyKey = idempotencyKeys.get(mail.getId());
+                if (idempotencyKey != null) {
+                    ps.setString(16, idempotencyKey);
+                } else {
+                    ps.setNull(16, java.sql.Types.VARCHAR);
+                }
+                ps.addBatch();
+            }
+            ps.executeBatch();
+        }
+    }
 
-            ps.executeUpdate();
+    /**
+     * 记录已扣费邮件的送达（与邮件同一事务提交，托管重启核对时据此判断，邮件之后被领取删除也不会误退）
+     */
+    private void insertDeliveries(Connection conn, List<Mail> mails, Map<UUID, String> escrowIds) throws SQLException {
+        if (escrowIds.isEmpty()) {
+            return;
+        }
+        try (PreparedStatement ps = conn.prepareStatement(
+                "INSERT INTO mail_escrow_deliveries (escrow_id, mail_id) VALUES (?, ?)")) {
+            int count = 0;
+            for (Mail mail : mails) {
+                String escrowId = escrowIds.get(mail.getId());
+                if (escrowId == null) {
+                    continue;
+                }
+                ps.setString(1, escrowId);
+                ps.setString(2, mail.getId().toString());
+                ps.addBatch();
+                count++;
+            }
+            if (count > 0) {
+                ps.executeBatch();
+            }
         }
     }
 
@@ -218,17 +459,6 @@ public class PersistenceFilter implements SendFilter {
         }
     }
 
-    /**
-     * 序列化附件
-     */
-    private byte[] serializeAttachments(java.util.List<org.bukkit.inventory.ItemStack> items) {
-        if (items == null || items.isEmpty()) {
-            return null;
-        }
-        // 委托给MailManager的现有方法
-        return plugin.getMailManager().serializeAttachmentsInternal(items);
-    }
-
     private String getServerId() {
         String serverId = plugin.getConfig().getString("server.id", "");
         if (serverId.isEmpty()) {
@@ -237,6 +467,21 @@ public class PersistenceFilter implements SendFilter {
         return serverId;
     }
 
+    /**
+     * 一块邮件的写入结果
+     *
+     * @param failures   写入失败的邮件ID -> 错误
+     * @param duplicates 幂等键已被其他请求送达的邮件ID -> 原邮件ID
+     */
+    private record ChunkResult(Map<UUID, SQLException> failures, Map<UUID, UUID> duplicates) {
+    }
+
+    /**
+     * 共享正文（分组时 id 为 null，附件载荷按实例比较）
+     */
+    private record SharedBody(String id, AttachmentPayload payload, String title, String content, double moneyAttachment) {
+    }
+
     /**
      * 分析数据库错误类型
      */
@@ -0,0 +1,125 @@
+package dev.user.mailsystem.mail.pipeline.filters;
+
+import dev.user.mailsystem.MailSystemPlugin;
+import dev.user.mailsystem.api.draft.SendResult;
+import dev.user.mailsystem.mail.IdempotencyManager;
+import dev.user.mailsystem.mail.MailManager;
+import dev.user.mailsystem.mail.pipeline.SendChain;
+import dev.user.mailsystem.mail.pipeline.SendContext;
+import dev.user.mailsystem.mail.pipeline.SendFilter;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * 发送前置检查过滤器 - 合并幂等键、邮箱上限、日发送限制和黑名单检查
+ * 在同一个数据库任务中一次取回各项检查所需的数据，再在内存中依次执行各过滤器的检查逻辑，
+ * 避免多次排队和多次回到全局区域线程；所需数据都已在内存中时不进入数据库队列
+ */
+public class PreflightFilter implements SendFilter {
+
+    private final MailSystemPlugin plugin;
+    private final IdempotencyFilter idempotencyFilter;
+    private final MailboxLimitFilter mailboxLimitFilter;
+    private final DailyLimitFilter dailyLimitFilter;
+    private final BlacklistFilter blacklistFilter;
+
+    public PreflightFilter(MailSystemPlugin plugin) {
+        this.plugin = plugin;
+        this.idempotencyFilter = new IdempotencyFilter(plugin);
+        this.mailboxLimitFilter = new MailboxLimitFilter(plugin);
+        this.dailyLimitFilter = new DailyLimitFilter(plugin);
+        this.blacklistFilter = new BlacklistFilter(plugin);
+    }
+
+    @Override
+    public int getOrder() {
+        return ORDER_PREFLIGHT;
+    }
+
+    @Override
+    public void filterBatch(List<SendContext> contexts, SendChain chain) {
+        // 收集各项检查需要的查询参数
+        Set<IdempotencyManager.Key> idempotencyKeys = idempotencyFilter.collectKeys(contexts);
+        Set<UUID> receivers = mailboxLimitFilter.collectReceivers(contexts);
+        UUID limitedSender = dailyLimitFilter.findLimitedSender(contexts);
+        // 没有黑名单的接收者和黑名单已缓存的接收者在内存中判定，其余才查询数据库
+        List<SendContext> blacklistChecks = new ArrayList<>();
+        Set<SendContext> cachedBlocked = blacklistFilter.resolveCached(blacklistFilter.collectChecks(contexts), blacklistChecks);
+
+        // 缓存新鲜且完整的接收者直接使用缓存中的邮件数量
+        MailManager mailManager = plugin.getMailManager();
+        Map<UUID, Integer> cachedSizes = mailManager.getCachedMailCounts(receivers);
+        List<UUID> uncachedReceivers = new ArrayList<>();
+        for (UUID receiverUuid : receivers) {
+            if (!cachedSizes.containsKey(receiverUuid)) {
+                uncachedReceivers.add(receiverUuid);
+            }
+        }
+        // 今日发送数量已在内存计数中时不再查询
+        Integer cachedTodayCount = limitedSender != null
+                ? mailManager.getLogManager().getCachedTodaySendCount(limitedSender) : null;
+        boolean queryTodayCount = limitedSender != null && cachedTodayCount == null;
+
+        Snapshot local = new Snapshot();
+        local.mailboxSizes.putAll(cachedSizes);
+        local.blocked = cachedBlocked;
+        if (cachedTodayCount != null) {
+            local.todaySendCount = cachedTodayCount;
+        }
+        if (idempotencyKeys.isEmpty() && uncachedReceivers.isEmpty() && !queryTodayCount && blacklistChecks.isEmpty()) {
+            // 所需数据都在内存中，直接检查，不进入数据库队列
+            runChecks(contexts, local, chain);
+            return;
+        }
+
+        plugin.getDatabaseQueue().submit("preflight", conn -> {
+            if (!idempotencyKeys.isEmpty()) {
+                local.delivered = idempotencyFilter.queryDelivered(conn, idempotencyKeys);
+            }
+            if (!uncachedReceivers.isEmpty()) {
+                local.mailboxSizes.putAll(mailManager.queryMailCounts(conn, uncachedReceivers));
+            }
+            if (queryTodayCount) {
+                local.todaySendCount = mailManager.getLogManager().queryTodaySendCount(conn, limitedSender);
+            }
+            if (!blacklistChecks.isEmpty()) {
+                local.blocked.addAll(blacklistFilter.queryBlocked(conn, blacklistChecks));
+            }
+            return local;
+        }, snapshot -> runChecks(contexts, snapshot, chain),
+                error -> chain.fail(SendResult.FailReason.UNKNOWN, "发送前置检查失败"));
+    }
+
+    /**
+     * 按原过滤器顺序检查：幂等键 -> 邮箱上限 -> 日发送限制 -> 黑名单
+     * 已送达的幂等键先跳过（重试不会因邮箱已满或日限额而失败），邮箱已满和被屏蔽的接收者单独剔除，
+     * 日发送限制针对发送者，超限时整批失败
+     */
+    private void runChecks(List<SendContext> contexts, Snapshot snapshot, SendChain chain) {
+        List<SendContext> pending = idempotencyFilter.check(contexts, snapshot.delivered, chain);
+        if (pending.isEmpty()) {
+            chain.next(pending, null);
+            return;
+        }
+        List<SendContext> passed = mailboxLimitFilter.check(pending, snapshot.mailboxSizes, chain);
+        if (!dailyLimitFilter.check(passed, snapshot.todaySendCount, chain)) {
+            return;
+        }
+        chain.next(blacklistFilter.check(passed, snapshot.blocked, chain), null);
+    }
+
+    /**
+     * 一次前置检查取回的数据
+     */
+    private static class Snapshot {
+        private final Map<UUID, Integer> mailboxSizes = new HashMap<>();
+        private Map<IdempotencyManager.Key, UUID> delivered = Map.of();
+        private Set<SendContext> blocked = Set.of();
+        private int todaySendCount;
+    }
+}
@@ -20,6 +20,16 @@ public class ValidationFilter implements SendFilter {
         this.plugin = plugin;
     }
 
+    @Override
+    public int getOrder() {
+        return ORDER_VALIDATION;
+    }
+
+    @Override
+    public boolean isAsync() {
+        return false;
+    }
+
     @Override
     public void filterBatch(List<SendContext> contexts, SendChain chain) {
         // 统一批量验证逻辑（size==1也是批量的一种）
@@ -0,0 +1,87 @@
+package dev.user.mailsystem.mail.transport;
+
+import dev.user.mailsystem.mail.MailEventLog.EventType;
+import dev.user.mailsystem.mail.MailEventLog.MailEvent;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.UUID;
+
+/**
+ * 事件二进制编解码（插件消息和 Redis 共用）
+ */
+final class EventCodec {
+
+    private static final byte VERSION = 2;
+
+    private EventCodec() {
+    }
+
+    static byte[] encode(MailEvent event) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeByte(VERSION);
+            out.writeLong(event.seq());
+            out.writeUTF(event.type().name());
+            writeUuid(out, event.mailId());
+            writeUuid(out, event.receiverUuid());
+            writeUuid(out, event.senderUuid());
+            out.writeBoolean(event.senderName() != null);
+            if (event.senderName() != null) {
+                out.writeUTF(event.senderName());
+            }
+            out.writeUTF(event.serverId());
+            out.writeBoolean(event.targetServer() != null);
+            if (event.targetServer() != null) {
+                out.writeUTF(event.targetServer());
+            }
+            out.writeLong(event.createdAt());
+        } catch (IOException e) {
+            throw new IllegalStateException(e); // 内存流不会抛出
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * 解码事件，版本不兼容或数据损坏时返回null
+     */
+    static MailEvent decode(byte[] data) {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(data))) {
+            if (in.readByte() != VERSION) {
+                return null;
+            }
+            long seq = in.readLong();
+            EventType type;
+            try {
+                type = EventType.valueOf(in.readUTF());
+            } catch (IllegalArgumentException e) {
+                type = null; // 新版本的未知类型，由接收端忽略
+            }
+            UUID mailId = readUuid(in);
+            UUID receiverUuid = readUuid(in);
+            UUID senderUuid = readUuid(in);
+            String senderName = in.readBoolean() ? in.readUTF() : null;
+            String serverId = in.readUTF();
+            String targetServer = in.readBoolean() ? in.readUTF() : null;
+            long createdAt = in.readLong();
+            return new MailEvent(seq, type, mailId, receiverUuid, senderUuid, senderName, serverId, targetServer, createdAt);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static void writeUuid(DataOutputStream out, UUID uuid) throws IOException {
+        out.writeBoolean(uuid != null);
+        if (uuid != null) {
+            out.writeLong(uuid.getMostSignificantBits());
+            out.writeLong(uuid.getLeastSignificantBits());
+        }
+    }
+
+    private static UUID readUuid(DataInputStream in) throws IOException {
+        return in.readBoolean() ? new UUID(in.readLong(), in.readLong()) : null;
+    }
+}
@@ -0,0 +1,50 @@
+package dev.user.mailsystem.mail.transport;
+
+import dev.user.mailsystem.mail.MailEventLog.MailEvent;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * 进程内回环通道 - 同一 JVM 中的所有实例共享一条总线
+ * 用于测试和单进程模拟多服务器，不跨进程
+ */
+public class LoopbackTransport implements NotificationTransport {
+
+    private static final List<LoopbackTransport> BUS = new CopyOnWriteArrayList<>();
+
+    private volatile Consumer<MailEvent> receiver;
+
+    @Override
+    public String getName() {
+        return "loopback";
+    }
+
+    @Override
+    public void start(Consumer<MailEvent> receiver) {
+        this.receiver = receiver;
+        BUS.add(this);
+    }
+
+    @Override
+    public void publish(MailEvent event) {
+        for (LoopbackTransport transport : BUS) {
+            Consumer<MailEvent> target = transport.receiver;
+            if (transport != this && target != null) {
+                target.accept(event);
+            }
+        }
+    }
+
+    @Override
+    public boolean isConnected() {
+        return receiver != null;
+    }
+
+    @Override
+    public void stop() {
+        BUS.remove(this);
+        receiver = null;
+    }
+}
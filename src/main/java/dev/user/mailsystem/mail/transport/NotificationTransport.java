@@ -0,0 +1,39 @@
+package dev.user.mailsystem.mail.transport;
+
+import dev.user.mailsystem.mail.MailEventLog.MailEvent;
+
+import java.util.function.Consumer;
+
+/**
+ * 跨服推送通道 SPI
+ * 事件在数据库事务提交后推送，接收端按 seq 去重；推送丢失时由数据库轮询兜底
+ */
+public interface NotificationTransport {
+
+    /**
+     * 通道名称（用于日志）
+     */
+    String getName();
+
+    /**
+     * 启动通道
+     *
+     * @param receiver 收到其他服务器事件时的回调（可能在任意线程调用）
+     */
+    void start(Consumer<MailEvent> receiver);
+
+    /**
+     * 推送事件（不得阻塞调用线程）
+     */
+    void publish(MailEvent event);
+
+    /**
+     * 通道当前是否可用，不可用时按正常间隔轮询数据库
+     */
+    boolean isConnected();
+
+    /**
+     * 停止通道并释放资源
+     */
+    void stop();
+}
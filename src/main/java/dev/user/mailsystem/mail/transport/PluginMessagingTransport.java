@@ -0,0 +1,103 @@
+package dev.user.mailsystem.mail.transport;
+
+import dev.user.mailsystem.MailSystemPlugin;
+import dev.user.mailsystem.mail.MailEventLog;
+import dev.user.mailsystem.mail.MailEventLog.MailEvent;
+import org.bukkit.Bukkit;
+import org.bukkit.entity.Player;
+import org.bukkit.plugin.messaging.PluginMessageListener;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.function.Consumer;
+
+/**
+ * 代理插件消息通道 - 通过 BungeeCord Forward 子通道发送到目标服务器（无路由目标时广播到所有后端服务器）
+ * Velocity 需开启 bungee-plugin-message-channel；插件消息依附于在线玩家连接，本服无人在线时无法推送
+ * 定向发送要求 server.id 与代理配置中的服务器名称一致
+ */
+public class PluginMessagingTransport implements NotificationTransport, PluginMessageListener {
+
+    private static final String CHANNEL = "BungeeCord";
+    private static final String SUBCHANNEL = "FoliaMail";
+
+    private final MailSystemPlugin plugin;
+    private volatile Consumer<MailEvent> receiver;
+
+    public PluginMessagingTransport(MailSystemPlugin plugin) {
+        this.plugin = plugin;
+    }
+
+    @Override
+    public String getName() {
+        return "plugin-messaging";
+    }
+
+    @Override
+    public void start(Consumer<MailEvent> receiver) {
+        this.receiver = receiver;
+        plugin.getServer().getMessenger().registerOutgoingPluginChannel(plugin, CHANNEL);
+        plugin.getServer().getMessenger().registerIncomingPluginChannel(plugin, CHANNEL, this);
+    }
+
+    @Override
+    public void publish(MailEvent event) {
+        Iterator<? extends Player> players = Bukkit.getOnlinePlayers().iterator();
+        if (!players.hasNext()) {
+            return; // 没有可用连接，由数据库轮询兜底
+        }
+        Player carrier = players.next();
+
+        byte[] payload = EventCodec.encode(event);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(payload.length + 32);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeUTF("Forward");
+            String targetServer = event.targetServer();
+            out.writeUTF(targetServer != null && !MailEventLog.ALL_SERVERS.equals(targetServer) ? targetServer : "ALL");
+            out.writeUTF(SUBCHANNEL);
+            out.writeShort(payload.length);
+            out.write(payload);
+        } catch (IOException e) {
+            return;
+        }
+        byte[] message = bytes.toByteArray();
+        carrier.getScheduler().run(plugin, task -> carrier.sendPluginMessage(plugin, CHANNEL, message), null);
+    }
+
+    @Override
+    public void onPluginMessageReceived(String channel, Player player, byte[] message) {
+        Consumer<MailEvent> target = receiver;
+        if (!CHANNEL.equals(channel) || target == null) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(message))) {
+            if (!SUBCHANNEL.equals(in.readUTF())) {
+                return;
+            }
+            byte[] payload = new byte[in.readUnsignedShort()];
+            in.readFully(payload);
+            MailEvent event = EventCodec.decode(payload);
+            if (event != null) {
+                target.accept(event);
+            }
+        } catch (IOException e) {
+            plugin.getLogger().fine("无法解析跨服插件消息: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public boolean isConnected() {
+        return receiver != null && !Bukkit.getOnlinePlayers().isEmpty();
+    }
+
+    @Override
+    public void stop() {
+        receiver = null;
+        plugin.getServer().getMessenger().unregisterIncomingPluginChannel(plugin, CHANNEL, this);
+        plugin.getServer().getMessenger().unregisterOutgoingPluginChannel(plugin, CHANNEL);
+    }
+}
@@ -0,0 +1,265 @@
+package dev.user.mailsystem.mail.transport;
+
+import dev.user.mailsystem.MailSystemPlugin;
+import dev.user.mailsystem.mail.MailEventLog;
+import dev.user.mailsystem.mail.MailEventLog.MailEvent;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Consumer;
+
+/**
+ * Redis 发布/订阅通道 - 内置最小 RESP 客户端，不引入额外依赖
+ * 订阅使用独立线程阻塞读取，发布在单独的线程上串行执行，断线后自动重连
+ * 每个服务器订阅公共频道和自己的 "频道:服务器ID" 频道，有路由目标的事件只发往目标服务器
+ */
+public class RedisTransport implements NotificationTransport {
+
+    private static final int CONNECT_TIMEOUT_MILLIS = 3_000;
+    private static final long RECONNECT_DELAY_MILLIS = 5_000L;
+
+    private final MailSystemPlugin plugin;
+    private final String host;
+    private final int port;
+    private final String password;
+    private final byte[] channel;
+    private final byte[] serverChannel;
+    private final String channelPrefix;
+
+    private volatile boolean running;
+    private volatile boolean connected;
+    private volatile Socket subscribeSocket;
+    private Thread subscriberThread;
+    private ExecutorService publisher;
+
+    // 仅在发布线程中访问
+    private Socket publishSocket;
+    private InputStream publishIn;
+
+    public RedisTransport(MailSystemPlugin plugin, String serverId) {
+        this.plugin = plugin;
+        this.host = plugin.getMailConfig().getRedisHost();
+        this.port = plugin.getMailConfig().getRedisPort();
+        this.password = plugin.getMailConfig().getRedisPassword();
+        this.channelPrefix = plugin.getMailConfig().getRedisChannel();
+        this.channel = bytes(channelPrefix);
+        this.serverChannel = bytes(channelPrefix + ":" + serverId);
+    }
+
+    @Override
+    public String getName() {
+        return "redis";
+    }
+
+    @Override
+    public void start(Consumer<MailEvent> receiver) {
+        running = true;
+        publisher = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "FoliaMail-Redis-Publisher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        subscriberThread = new Thread(() -> subscribeLoop(receiver), "FoliaMail-Redis-Subscriber");
+        subscriberThread.setDaemon(true);
+        subscriberThread.start();
+    }
+
+    @Override
+    public void publish(MailEvent event) {
+        if (!running) return;
+        byte[] payload = EventCodec.encode(event);
+        String targetServer = event.targetServer();
+        byte[] target = targetServer != null && !MailEventLog.ALL_SERVERS.equals(targetServer)
+                ? bytes(channelPrefix + ":" + targetServer) : channel;
+        try {
+            publisher.execute(() -> {
+                try {
+                    if (publishSocket == null || publishSocket.isClosed()) {
+                        publishSocket = connect();
+                        publishIn = new BufferedInputStream(publishSocket.getInputStream());
+                    }
+                    writeCommand(publishSocket.getOutputStream(), bytes("PUBLISH"), target, payload);
+                    readReply(publishIn);
+                } catch (IOException e) {
+                    closeQuietly(publishSocket);
+                    publishSocket = null;
+                    plugin.getLogger().fine("Redis 推送失败，将由数据库轮询兜底: " + e.getMessage());
+                }
+            });
+        } catch (RejectedExecutionException ignored) {
+            // 通道已停止
+        }
+    }
+
+    @Override
+    public boolean isConnected() {
+        return connected;
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+        connected = false;
+        closeQuietly(subscribeSocket);
+        if (subscriberThread != null) {
+            subscriberThread.interrupt();
+        }
+        if (publisher != null) {
+            // 已排队的推送先执行完，再关闭发布连接
+            publisher.execute(() -> closeQuietly(publishSocket));
+            publisher.shutdown();
+        }
+    }
+
+    private void subscribeLoop(Consumer<MailEvent> receiver) {
+        while (running) {
+            try (Socket socket = connect()) {
+                subscribeSocket = socket;
+                InputStream in = new BufferedInputStream(socket.getInputStream());
+                writeCommand(socket.getOutputStream(), bytes("SUBSCRIBE"), channel, serverChannel);
+                readReply(in); // 两个频道的订阅确认
+                readReply(in);
+                connected = true;
+                plugin.getLogger().info("Redis 推送通道已连接: " + host + ":" + port);
+
+                while (running) {
+                    Object reply = readReply(in);
+                    if (reply instanceof List<?> message && message.size() == 3
+                            && "message".equals(asString(message.get(0)))
+                            && message.get(2) instanceof byte[] payload) {
+                        MailEvent event = EventCodec.decode(payload);
+                        if (event != null) {
+                            receiver.accept(event);
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                if (running) {
+                    plugin.getLogger().warning("Redis 推送通道断开，" + (RECONNECT_DELAY_MILLIS / 1000) + " 秒后重连: " + e.getMessage());
+                }
+            } finally {
+                connected = false;
+                subscribeSocket = null;
+            }
+
+            if (running) {
+                try {
+                    Thread.sleep(RECONNECT_DELAY_MILLIS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    private Socket connect() throws IOException {
+        Socket socket = new Socket();
+        try {
+            socket.connect(new InetSocketAddress(host, port), CONNECT_TIMEOUT_MILLIS);
+            socket.setKeepAlive(true);
+            socket.setTcpNoDelay(true);
+            if (password != null && !password.isEmpty()) {
+                writeCommand(socket.getOutputStream(), bytes("AUTH"), bytes(password));
+                readReply(socket.getInputStream()); // 不使用缓冲，避免吞掉后续数据
+            }
+            return socket;
+        } catch (IOException e) {
+            closeQuietly(socket);
+            throw e;
+        }
+    }
+
+    // ==================== RESP 协议 ====================
+
+    private static void writeCommand(OutputStream out, byte[]... args) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        buffer.write(bytes("*" + args.length + "\r\n"));
+        for (byte[] arg : args) {
+            buffer.write(bytes("$" + arg.length + "\r\n"));
+            buffer.write(arg);
+            buffer.write('\r');
+            buffer.write('\n');
+        }
+        out.write(buffer.toByteArray());
+        out.flush();
+    }
+
+    private static Object readReply(InputStream in) throws IOException {
+        int type = in.read();
+        if (type == -1) {
+            throw new IOException("连接已关闭");
+        }
+        String line = readLine(in);
+        switch (type) {
+            case '+':
+                return line;
+            case '-':
+                throw new IOException("Redis 错误: " + line);
+            case ':':
+                return Long.parseLong(line);
+            case '$': {
+                int length = Integer.parseInt(line);
+                if (length < 0) return null;
+                byte[] data = in.readNBytes(length);
+                if (data.length < length) {
+                    throw new IOException("连接已关闭");
+                }
+                readLine(in); // 结尾的 CRLF
+                return data;
+            }
+            case '*': {
+                int count = Integer.parseInt(line);
+                if (count < 0) return null;
+                List<Object> items = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    items.add(readReply(in));
+                }
+                return items;
+            }
+            default:
+                throw new IOException("无法识别的 RESP 类型: " + (char) type);
+        }
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) != -1) {
+            if (b == '\r') {
+                in.read(); // '\n'
+                return line.toString(StandardCharsets.UTF_8);
+            }
+            line.write(b);
+        }
+        throw new IOException("连接已关闭");
+    }
+
+    private static String asString(Object value) {
+        return value instanceof byte[] data ? new String(data, StandardCharsets.UTF_8) : String.valueOf(value);
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static void closeQuietly(Socket socket) {
+        if (socket != null) {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package dev.user.mailsystem.template;
 
+import dev.user.mailsystem.api.draft.AttachmentPayload;
 import dev.user.mailsystem.api.draft.MailDraft;
 import org.bukkit.entity.Player;
 import org.bukkit.inventory.ItemStack;
@@ -108,6 +109,32 @@ public class MailTemplate {
                 .build();
     }
 
+    /**
+     * 生成邮件草稿，使用共享附件载荷（群发时所有草稿共用，附件只序列化一次）
+     *
+     * @param sender       发送者
+     * @param receiverUuid 接收者UUID
+     * @param receiverName 接收者名字
+     * @param serverName   服务器名称
+     * @param payload      由 {@link AttachmentPayload#of} 创建的共享附件
+     * @return MailDraft
+     */
+    public MailDraft toDraft(Player sender, UUID receiverUuid, String receiverName, String serverName,
+                             AttachmentPayload payload) {
+        String finalTitle = replaceVariables(title, sender, receiverName, serverName);
+        String finalContent = replaceVariables(content, sender, receiverName, serverName);
+
+        return MailDraft.builder()
+                .sender(sender != null ? sender.getUniqueId() : new UUID(0, 0),
+                        sender != null ? sender.getName() : "系统")
+                .receiver(receiverUuid, receiverName)
+                .title(finalTitle)
+                .content(finalContent)
+                .sharedAttachments(payload)
+                .moneyAttachment(moneyAttachment)
+                .build();
+    }
+
     /**
      * 获取用于显示的名称（displayName 或 name）
      */
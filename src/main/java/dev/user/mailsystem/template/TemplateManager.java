@@ -1,10 +1,12 @@
 package dev.user.mailsystem.template;
 
 import dev.user.mailsystem.MailSystemPlugin;
+import dev.user.mailsystem.api.draft.AttachmentPayload;
 import dev.user.mailsystem.api.draft.BatchSendResult;
 import dev.user.mailsystem.api.draft.MailDraft;
 import dev.user.mailsystem.api.draft.SendOptions;
 import dev.user.mailsystem.database.DatabaseQueue;
+import dev.user.mailsystem.mail.BroadcastManager;
 import org.bukkit.Bukkit;
 import org.bukkit.entity.Player;
 import org.bukkit.inventory.ItemStack;
@@ -225,6 +227,10 @@ public class TemplateManager {
 
     /**
      * 使用模板群发
+     * ONLINE 直接发送，完成后通过 callback 返回结果；其他目标创建后台群发任务（{@link BroadcastManager}），
+     * 任务的创建、进度和结果由 BroadcastManager 通知发送者，callback 不会被调用
+     *
+     * @param callback 直接发送的结果（模板不存在时返回空结果）；仅在 {@link BroadcastTarget#isBackgroundJob()} 为 false 或模板不存在时调用
      */
     public void broadcast(String templateName, Player sender, BroadcastTarget target,
                           Consumer<BatchSendResult> callback) {
@@ -237,9 +243,9 @@ public class TemplateManager {
 
             switch (target) {
                 case ONLINE -> broadcastToOnline(template, sender, callback);
-                case ALL -> broadcastToAll(template, sender, callback);
-                case RECENT_3D -> broadcastToRecent(template, sender, 3, callback);
-                case RECENT_7D -> broadcastToRecent(template, sender, 7, callback);
+                case ALL -> broadcastToAll(template, sender);
+                case RECENT_3D -> broadcastToRecent(template, sender, 3);
+                case RECENT_7D -> broadcastToRecent(template, sender, 7);
             }
         });
     }
@@ -273,17 +279,25 @@ public class TemplateManager {
         broadcastToTargets(template, sender, targets, callback);
     }
 
-    private void broadcastToAll(MailTemplate template, Player sender,
-                                Consumer<BatchSendResult> callback) {
-        plugin.getPlayerCacheManager().getAllCachedPlayers(players ->
-                broadcastToTargets(template, sender, players, callback));
+    private void broadcastToAll(MailTemplate template, Player sender) {
+        submitBroadcastJob(template, sender, 0, "玩家");
     }
 
-    private void broadcastToRecent(MailTemplate template, Player sender, int days,
-                                   Consumer<BatchSendResult> callback) {
+    private void broadcastToRecent(MailTemplate template, Player sender, int days) {
         long sinceTime = System.currentTimeMillis() - (days * 24L * 60 * 60 * 1000);
-        plugin.getPlayerCacheManager().getPlayersLoggedInSince(sinceTime, players ->
-                broadcastToTargets(template, sender, players, callback));
+        submitBroadcastJob(template, sender, sinceTime, days + "天内登录的玩家");
+    }
+
+    /**
+     * 以后台群发任务发送模板（{receiver} 在发送每封邮件时替换，其余变量在创建任务时确定）
+     */
+    private void submitBroadcastJob(MailTemplate template, Player sender, long sinceTime, String targetDesc) {
+        String serverName = plugin.getConfig().getString("server.id", Bukkit.getServer().getName());
+        String title = MailTemplate.replaceVariables(template.getTitle(), sender, "{receiver}", serverName);
+        String content = MailTemplate.replaceVariables(template.getContent(), sender, "{receiver}", serverName);
+        plugin.getBroadcastManager().submit(sender, new BroadcastManager.BroadcastRequest(
+                title, content, AttachmentPayload.of(template.getAttachments()), template.getMoneyAttachment(),
+                sinceTime, targetDesc, template.getName()));
     }
 
     private void broadcastToTargets(MailTemplate template, Player sender,
@@ -297,10 +311,11 @@ public class TemplateManager {
 
         String serverName = plugin.getConfig().getString("server.id", Bukkit.getServer().getName());
 
-        // 为每个玩家创建个性化的草稿
+        // 为每个玩家创建个性化的草稿（附件共享同一载荷，整批只序列化一次）
+        AttachmentPayload payload = AttachmentPayload.of(template.getAttachments());
         List<MailDraft> drafts = new ArrayList<>();
         for (Map.Entry<UUID, String> entry : targets.entrySet()) {
-            MailDraft draft = template.toDraft(sender, entry.getKey(), entry.getValue(), serverName);
+            MailDraft draft = template.toDraft(sender, entry.getKey(), entry.getValue(), serverName, payload);
             drafts.add(draft);
         }
 
@@ -356,7 +371,14 @@ public class TemplateManager {
         ALL,        // 所有玩家
         ONLINE,     // 在线玩家
         RECENT_3D,  // 3天内登录
-        RECENT_7D   // 7天内登录
+        RECENT_7D;  // 7天内登录
+
+        /**
+         * 是否以后台群发任务发送（结果由 BroadcastManager 通知，不经过 broadcast 的回调）
+         */
+        public boolean isBackgroundJob() {
+            return this != ONLINE;
+        }
     }
 
     public record TemplateInfo(String name, String displayName, String creatorName, int useCount) {
@@ -0,0 +1,65 @@
+package dev.user.mailsystem.util;
+
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * UUID 布隆过滤器 - 判断一个UUID“一定不在”集合中
+ * mightContain 返回false时一定不在集合中，返回true时可能在（误判率约为构建时指定的值）
+ * 只支持添加不支持删除，可在任意线程并发读写
+ */
+public final class UuidBloomFilter {
+
+    private final AtomicLongArray bits;
+    private final int bitCount;
+    private final int hashCount;
+
+    /**
+     * @param expectedSize      预计元素数量
+     * @param falsePositiveRate 期望误判率（0~1）
+     */
+    public UuidBloomFilter(int expectedSize, double falsePositiveRate) {
+        int n = Math.max(1, expectedSize);
+        double ln2 = Math.log(2);
+        long m = (long) Math.ceil(-n * Math.log(falsePositiveRate) / (ln2 * ln2));
+        this.bitCount = (int) Math.max(64, Math.min(m, Integer.MAX_VALUE - 63));
+        this.hashCount = Math.max(1, (int) Math.round((double) bitCount / n * ln2));
+        this.bits = new AtomicLongArray((bitCount + 63) / 64);
+    }
+
+    public void add(UUID uuid) {
+        long h1 = mix(uuid.getMostSignificantBits());
+        long h2 = mix(uuid.getLeastSignificantBits()) | 1;
+        for (int i = 0; i < hashCount; i++) {
+            int bit = (int) Long.remainderUnsigned(h1 + i * h2, bitCount);
+            int word = bit >>> 6;
+            long mask = 1L << bit;
+            long current;
+            do {
+                current = bits.get(word);
+                if ((current & mask) != 0) break;
+            } while (!bits.compareAndSet(word, current, current | mask));
+        }
+    }
+
+    public boolean mightContain(UUID uuid) {
+        long h1 = mix(uuid.getMostSignificantBits());
+        long h2 = mix(uuid.getLeastSignificantBits()) | 1;
+        for (int i = 0; i < hashCount; i++) {
+            int bit = (int) Long.remainderUnsigned(h1 + i * h2, bitCount);
+            if ((bits.get(bit >>> 6) & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 64位混合函数（SplitMix64 的最终步骤），使UUID各位均匀影响哈希值
+     */
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+}